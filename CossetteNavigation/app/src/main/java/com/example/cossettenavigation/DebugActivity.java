@@ -8,9 +8,7 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.example.cossettenavigation.beacons.ApplicationBeaconManager;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import com.example.cossettenavigation.beacons.LocationUpdate;
 
 /**
  * Displays information for debugging purposes (detected beacons, map, location, etc.).
@@ -19,6 +17,10 @@ public class DebugActivity extends AppCompatActivity {
 
     private static final String TAG = "DebugActivity";
 
+    private ApplicationBeaconManager beaconManager;
+
+    private ApplicationBeaconManager.LocationListener locationListener = null;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -34,20 +36,9 @@ public class DebugActivity extends AppCompatActivity {
 
 
 
-        final ApplicationBeaconManager beaconManager = (ApplicationBeaconManager) getApplication();
+        beaconManager = (ApplicationBeaconManager) getApplication();
         final TextView beaconList = (TextView) findViewById(R.id.beacon_list);
-
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        beaconList.setText(beaconManager.getTrackedBeaconsDescription());
-                    }
-                });
-            }
-        }, 100, 1000);
+        beaconList.setText(beaconManager.getTrackedBeaconsDescription());
 
 
 
@@ -57,20 +48,18 @@ public class DebugActivity extends AppCompatActivity {
         LinearLayout.LayoutParams floorMapViewLayoutParams = new LinearLayout.LayoutParams(0, 0);
         floorMapViewLayoutParams.width = LinearLayout.LayoutParams.MATCH_PARENT;
         floorMapViewLayoutParams.weight = 1;
-        final FloorMapView floorMapView = new FloorMapView(this, (ApplicationBeaconManager) getApplication());
+        final FloorMapView floorMapView = new FloorMapView(this, beaconManager);
         mapLayout.addView(floorMapView, floorMapViewLayoutParams);
 
-        new Timer().schedule(new TimerTask() {
+        // Redraw when the location changes
+        locationListener = new ApplicationBeaconManager.LocationListener() {
             @Override
-            public void run() {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        floorMapView.invalidate();
-                    }
-                });
+            public void onLocationUpdate(LocationUpdate locationUpdate) {
+                beaconList.setText(beaconManager.getTrackedBeaconsDescription());
+                floorMapView.invalidate();
             }
-        }, 1 , 1000);
+        };
+        beaconManager.addLocationListener(locationListener);
 
         // Multiple floor map views - test
 /*        for (int i = 0; i < 2; i++) {
@@ -88,4 +77,12 @@ public class DebugActivity extends AppCompatActivity {
         }*/
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // The beacon manager outlives the activity
+        beaconManager.removeLocationListener(locationListener);
+    }
+
 }
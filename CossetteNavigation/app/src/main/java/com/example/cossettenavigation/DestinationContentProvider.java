@@ -23,7 +23,11 @@ public class DestinationContentProvider extends ContentProvider {
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         String table = "zones";
         String[] columns = new String[] { "_ID", "name" };
-        Cursor result = SearchActivity.db.query(table, columns, selection, selectionArgs, null, null, sortOrder, null);
+        // Only destinations (not e.g. stairs or elevators) are search results
+        String destinationSelection = (selection != null) ?
+                "(" + selection + ") AND is_destination = 1" :
+                "is_destination = 1";
+        Cursor result = SearchActivity.db.query(table, columns, destinationSelection, selectionArgs, null, null, sortOrder, null);
         return result;
     }
 
@@ -11,6 +11,7 @@ import com.example.cossettenavigation.beacons.ApplicationBeaconManager;
 import com.example.cossettenavigation.map.Beacon;
 import com.example.cossettenavigation.map.Floor;
 import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
 import com.example.cossettenavigation.map.Point2D;
 
 /**
@@ -74,8 +75,11 @@ public class FloorMapView extends View {
         int rectangleWidth = canvasWidth - (2 * rectangleMargin);
         int rectangleHeight = canvasHeight - (2 * rectangleMargin);
 
-        double mapWidth = Map.gridWidth;
-        double mapHeight = Map.gridHeight;
+        // Draw everything from the same snapshot, even if the map is replaced meanwhile
+        MapSnapshot map = Map.getSnapshot();
+
+        double mapWidth = map.getGridWidth();
+        double mapHeight = map.getGridHeight();
 
 
         // Draw grid outline
@@ -91,7 +95,7 @@ public class FloorMapView extends View {
         int floorsUp = 0;
 
         // Draw beacons, colour coded by floor (using grayscale)
-        for (Floor floor : Map.floors) {
+        for (Floor floor : map.getFloors()) {
             int colorValue = 255 - (75 * floorsUp);
             if (colorValue < 100) {
                 colorValue = 100;
@@ -119,7 +123,7 @@ public class FloorMapView extends View {
 
 
         // Draw estimated location
-        Point2D estimatedLocation = beaconManager.getEstimatedLocation();
+        Point2D estimatedLocation = beaconManager.getLatestLocationUpdate().getEstimatedLocation();
         if (estimatedLocation != null) {
             double x = rectangleMargin + (estimatedLocation.x / mapWidth * rectangleWidth);
             double y = canvasHeight - (rectangleMargin + (estimatedLocation.y / mapHeight * rectangleHeight));
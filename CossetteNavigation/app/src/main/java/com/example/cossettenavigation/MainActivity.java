@@ -7,6 +7,8 @@ import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -14,7 +16,6 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
-import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -27,17 +28,19 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import com.estimote.sdk.Region;
 import com.estimote.sdk.SystemRequirementsChecker;
 import com.example.cossettenavigation.beacons.ApplicationBeaconManager;
-import com.example.cossettenavigation.beacons.BeaconTrackingData;
+import com.example.cossettenavigation.beacons.LocationUpdate;
+import com.example.cossettenavigation.beacons.MapMatch;
 import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Zone;
 import com.example.cossettenavigation.pathfinding.NavigationStep;
 import com.example.cossettenavigation.pathfinding.Path;
+import com.example.cossettenavigation.pathfinding.Pathfinder;
+import com.example.cossettenavigation.pathfinding.Rerouter;
+import com.example.cossettenavigation.pathfinding.Step;
 
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * <h1>Discovery Mode</h1>
@@ -59,6 +62,16 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
      */
     private static double BEACON_RANGE_FOR_SWITCHING_STEPS = 3;
 
+    /**
+     * Beacon range for deciding the user has left the path during navigation.
+     */
+    private static double BEACON_RANGE_FOR_REROUTING = 3;
+
+    /**
+     * Updates in a row the location must be matched to an edge off the path to reroute from it during navigation.
+     */
+    private static int MAP_MATCH_COUNT_FOR_REROUTING = 3;
+
     private boolean mVisible; //UI elements (status bar, toolbar, bottom bar visible)
     private boolean cVisible; //camera visible
     private boolean cGranted; //camera permission granted
@@ -83,23 +96,55 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
 
     private ApplicationBeaconManager beaconManager;
 
-    private Timer discoveryTimer = new Timer();
-
-    private Timer navigationTimer = new Timer();
+    /**
+     * Shows the nearest beacon in discovery mode, when the location changes.
+     */
+    private final ApplicationBeaconManager.LocationListener discoveryListener =
+            new ApplicationBeaconManager.LocationListener() {
+                @Override
+                public void onLocationUpdate(LocationUpdate locationUpdate) {
+                    showNearestBeacon(locationUpdate);
+                }
+            };
 
     private Path path = null;
     private ArrayList<NavigationStep> navigationSteps = new ArrayList<>();
 
-    private Timer navigationStepTimer = new Timer();
+    /**
+     * Finds a new path to the destination if the user leaves the current path.
+     */
+    private Rerouter rerouter = null;
+
     private int navigationStepIndex = 0;
     /**
      * Determined by minimum time.
      */
     private boolean canChangeNavigationStep = true;
+
     /**
-     * Determined by proximity to the next beacon.
+     * Navigation only does work when its inputs change:
+     * the location (updated by the beacon manager) or the minimum time of the step elapsing.
+     * Both arrive on the main thread, so the navigation state is only used on the main thread.
      */
-    private boolean shouldChangeNavigationStep = true;
+    private final ApplicationBeaconManager.LocationListener navigationListener =
+            new ApplicationBeaconManager.LocationListener() {
+                @Override
+                public void onLocationUpdate(LocationUpdate locationUpdate) {
+                    updateNavigation(locationUpdate);
+                }
+            };
+
+    private final Handler navigationHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable minimumStepTimeElapsedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.v(TAG, "minimumStepTimeElapsedRunnable.run()");
+
+            canChangeNavigationStep = true;
+            updateNavigation(beaconManager.getLatestLocationUpdate());
+        }
+    };
 
 
 
@@ -212,44 +257,26 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
         });
 
         // Discovery UI updating
-        discoveryTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-//                        Floor floor=beaconManager.getFloor();
-//                        ArrayList<BeaconTrackingData> beacons=beaconManager.getNearestBeacons();
-//
-//                        Double minDistance=Double.POSITIVE_INFINITY;
-//                        Beacon nearestBeacon=null;
-//
-//                        for (BeaconTrackingData beaconData:beacons){
-//                            if (beaconData.getBeacon().getFloor()==floor&&minDistance>beaconData.getEstimatedAccuracy()){
-//                                minDistance=beaconData.getEstimatedAccuracy();
-//                                nearestBeacon=beaconData.getBeacon();
-//                            }
-//                        }
-
-                        Pair<Region, BeaconTrackingData> nearestTrackedBeacon = beaconManager.getNearestTrackedBeacon();
-
-                        if (nearestTrackedBeacon != null) {
-                            instruction.setText(nearestTrackedBeacon.second.getBeacon().getDescription());
-                            description.setText(nearestTrackedBeacon.second.getBeacon().getFloor().getName());
-                        } else {
-                            instruction.setText("Unknown Location");
-                            description.setText("No Beacons Found");
-                        }
-                    }
-                });
-            }
-        }, 1, 100);
+        showNearestBeacon(beaconManager.getLatestLocationUpdate());
+        beaconManager.addLocationListener(discoveryListener);
+    }
+
+    private void showNearestBeacon(LocationUpdate locationUpdate) {
+        Beacon nearestBeacon = locationUpdate.getNearestBeacon();
+
+        if (nearestBeacon != null) {
+            instruction.setText(nearestBeacon.getDescription());
+            description.setText(nearestBeacon.getFloor().getName());
+        } else {
+            instruction.setText("Unknown Location");
+            description.setText("No Beacons Found");
+        }
     }
 
     private void exitDiscoveryMode() {
         Log.v(TAG, "exitDiscoveryMode()");
 
-        resetDiscoveryTimer();
+        beaconManager.removeLocationListener(discoveryListener);
     }
 
 
@@ -299,9 +326,9 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
             public void onClick(View v) {
                 Log.v(TAG, "enterNavigationMode(): toggleUp.setOnClickListener()");
 
-                canChangeNavigationStep = true;
-                shouldChangeNavigationStep = true;
-                decreaseNavigationStepIndex();
+                if (decreaseNavigationStepIndex()) {
+                    showNavigationStep();
+                }
             }
         });
 
@@ -310,28 +337,22 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
             public void onClick(View v) {
                 Log.v(TAG, "enterNavigationMode(): toggleDown.setOnClickListener()");
 
-                canChangeNavigationStep = true;
-                shouldChangeNavigationStep = true;
-                increaseNavigationStepIndex();
+                if (increaseNavigationStepIndex()) {
+                    showNavigationStep();
+                }
             }
         });
 
-        // Navigation loop
-        navigationTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                Log.v(TAG, "enterNavigationMode(): navigationTimer.schedule()");
+        rerouter = Pathfinder.createRerouter(path);
 
-                updateStep();
-            }
-        }, 1, 1);
+        showNavigationStep();
+        beaconManager.addLocationListener(navigationListener);
     }
 
     private void exitNavigationMode() {
         Log.v(TAG, "exitNavigationMode()");
 
-        resetNavigationTimer();
-        resetNavigationStepTimer();
+        stopNavigationUpdates();
 
         runOnUiThread(new Runnable() {
             @Override
@@ -347,139 +368,193 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
 
 
 
-    private void updateStep() {
-        Log.v(TAG, "updateStep()");
+    /**
+     * Switches to the next step when in range of the beacon at the end of the current step
+     * (and the minimum time of the step has elapsed), or to a new path when off the path.
+     */
+    private void updateNavigation(LocationUpdate locationUpdate) {
+        if (rerouteIfOffPath(locationUpdate)) {
+            return;
+        }
 
-        if (canChangeNavigationStep && shouldChangeNavigationStep) {
-            resetNavigationStepTimer();
-            canChangeNavigationStep = false;
-            shouldChangeNavigationStep = false;
+        Beacon endBeacon = navigationSteps.get(navigationStepIndex).getEndBeacon();
+        if (    canChangeNavigationStep &&
+                (endBeacon != null) &&
+                isInRangeOfBeacon(endBeacon) &&
+                increaseNavigationStepIndex() ) {
+            showNavigationStep();
+        }
+    }
 
+    private void showNavigationStep() {
+        Log.v(TAG, "showNavigationStep()");
 
-            final NavigationStep navigationStep = navigationSteps.get(navigationStepIndex);
+        navigationHandler.removeCallbacks(minimumStepTimeElapsedRunnable);
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    // Direction arrow
-                    if (navigationStep.getArrowAngle() != null) {
-                        direction.setVisibility(View.VISIBLE);
-                        direction.setRotation((float) navigationStep.getArrowAngle().doubleValue());
-                    } else {
-                        direction.setVisibility(View.INVISIBLE);
-                    }
+        NavigationStep navigationStep = navigationSteps.get(navigationStepIndex);
 
-                    // Up toggle
-                    if (navigationStepIndex > 0) {
-                        toggleUp.setAlpha(255);
-                    } else {
-                        toggleUp.setAlpha(50);
-                    }
+        // Direction arrow
+        if (navigationStep.getArrowAngle() != null) {
+            direction.setVisibility(View.VISIBLE);
+            direction.setRotation((float) navigationStep.getArrowAngle().doubleValue());
+        } else {
+            direction.setVisibility(View.INVISIBLE);
+        }
 
-                    // Down toggle
-                    if (navigationStepIndex < navigationSteps.size() - 1) {
-                        toggleDown.setAlpha(255);
-                    } else {
-                        toggleDown.setAlpha(50);
-                    }
+        // Up toggle
+        if (navigationStepIndex > 0) {
+            toggleUp.setAlpha(255);
+        } else {
+            toggleUp.setAlpha(50);
+        }
 
-                    stepNumber.setText(String.format(
-                            "%d/%d",
-                            navigationStepIndex + 1, navigationSteps.size()));
-                    instruction.setText(navigationStep.getDescriptionOne());
-                    description.setText(navigationStep.getDescriptionTwo());
-                    time.setText(String.format("%.0fs", navigationStep.getTimeRemaining()));
-                    beaconManager.speakText(navigationStep.getDescriptionOne());
-                }
-            });
+        // Down toggle
+        if (navigationStepIndex < navigationSteps.size() - 1) {
+            toggleDown.setAlpha(255);
+        } else {
+            toggleDown.setAlpha(50);
+        }
 
-            // Timer to allow minimum time for step
-            if (navigationStep.getMinimumTime() > 0) {
-                navigationStepTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.v(TAG, "updateStep(): navigationStepTimer.schedule() - minimum time");
-                        canChangeNavigationStep = true;
-                    }
-                }, (long) (navigationStep.getMinimumTime() * 1000));
-            } else {
-                canChangeNavigationStep = true;
-            }
+        stepNumber.setText(String.format(
+                "%d/%d",
+                navigationStepIndex + 1, navigationSteps.size()));
+        instruction.setText(navigationStep.getDescriptionOne());
+        description.setText(navigationStep.getDescriptionTwo());
+        time.setText(String.format("%.0fs", navigationStep.getTimeRemaining()));
+        beaconManager.speakText(navigationStep.getDescriptionOne());
 
-            // Timer to determine when in beacon range to switch to next step
-            if (navigationStep.getEndBeacon() != null) {
-                navigationStepTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.v(TAG, "updateStep(): navigationStepTimer.schedule() - beacon range");
-                        if (canChangeNavigationStep && isInRangeOfBeacon(navigationStep.getEndBeacon())) {
-                            increaseNavigationStepIndex();
-                        }
-                    }
-                }, 1, 200);
-            }
+        // Allow minimum time for step
+        if (navigationStep.getMinimumTime() > 0) {
+            canChangeNavigationStep = false;
+            navigationHandler.postDelayed(
+                    minimumStepTimeElapsedRunnable,
+                    (long) (navigationStep.getMinimumTime() * 1000));
+        } else {
+            canChangeNavigationStep = true;
         }
     }
 
     /**
-     * Determines whether the device is within sufficient range of a beacon to switch to the next step defined by that beacon.
+     * If the nearest beacon is close and not in a zone on the rest of the path, switches to a new path from that beacon.
+     * Otherwise, if the location has been matched to an edge of the map through a zone off the rest of the path
+     * (between beacons), switches to a new path from the nearer end of the edge.
+     * @return True if rerouted.
      */
-    private boolean isInRangeOfBeacon(Beacon beacon) {
-        Log.v(TAG, "isInRangeOfBeacon()");
+    private boolean rerouteIfOffPath(LocationUpdate locationUpdate) {
+        if (rerouter == null) {
+            return false;
+        }
 
-        BeaconTrackingData beaconTrackingData = beaconManager.getBeaconTrackingData(beacon);
-        if (beaconTrackingData != null) {
-            if (beaconTrackingData.getEstimatedAccuracy() <= BEACON_RANGE_FOR_SWITCHING_STEPS) {
-                return true;
+        Beacon rerouteBeacon;
+
+        Beacon nearestBeacon = locationUpdate.getNearestBeacon();
+        MapMatch mapMatch = locationUpdate.getMapMatch();
+
+        if (    (nearestBeacon != null) &&
+                (locationUpdate.getNearestBeaconAccuracy() <= BEACON_RANGE_FOR_REROUTING) ) {
+            if (isOnRestOfPath(nearestBeacon)) {
+                return false;
             }
+            rerouteBeacon = nearestBeacon;
+        } else if (     (mapMatch != null) &&
+                        (mapMatch.getMatchCount() >= MAP_MATCH_COUNT_FOR_REROUTING) ) {
+            if (isOnRestOfPath(mapMatch.getZone())) {
+                return false;
+            }
+            rerouteBeacon = mapMatch.getNearerBeacon();
+        } else {
+            return false;
         }
 
-        return false;
-    }
+        Path newPath = rerouter.getPath(rerouteBeacon);
+        if (newPath == null) {
+            return false;
+        }
 
+        Log.v(TAG, "rerouteIfOffPath(): Rerouting from " + rerouteBeacon.getName());
+        Log.v(TAG, newPath.toString());
 
+        path = newPath;
+        navigationSteps = newPath.toNavigationSteps();
+        navigationStepIndex = 0;
+        showNavigationStep();
+        return true;
+    }
 
+    /**
+     * A beacon in the zone of the previous, current or any later step (e.g. a support beacon in the current hallway),
+     * or in the destination zone, is still on the path.
+     */
+    private boolean isOnRestOfPath(Beacon beacon) {
+        for (Zone zone : beacon.getZones()) {
+            if (isOnRestOfPath(zone)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-    private void resetDiscoveryTimer() {
-        Log.v(TAG, "resetDiscoveryTimer()");
+    /**
+     * Compares zone IDs, as the path's zones are copies (the path is passed in an Intent).
+     */
+    private boolean isOnRestOfPath(Zone zone) {
+        if (path.getDestination() != null && path.getDestination().getId() == zone.getId()) {
+            return true;
+        }
 
-        discoveryTimer.cancel();
-        discoveryTimer.purge();
-        discoveryTimer = new Timer();
+        // Each path step has a turn and a travel navigation step (after the start)
+        ArrayList<Step> steps = path.getSteps();
+        for (int i = Math.max(0, (navigationStepIndex / 2) - 1); i < steps.size(); i++) {
+            if (steps.get(i).getZone().getId() == zone.getId()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void resetNavigationTimer() {
-        Log.v(TAG, "resetNavigationTimer()");
+    /**
+     * Determines whether the device is within sufficient range of a beacon to switch to the next step defined by that beacon.
+     */
+    private boolean isInRangeOfBeacon(Beacon beacon) {
+        Log.v(TAG, "isInRangeOfBeacon()");
 
-        navigationTimer.cancel();
-        navigationTimer.purge();
-        navigationTimer = new Timer();
+        return beaconManager.getEstimatedAccuracy(beacon) <= BEACON_RANGE_FOR_SWITCHING_STEPS;
     }
 
-    private void resetNavigationStepTimer() {
-        Log.v(TAG, "resetNavigationStepTimer()");
 
-        navigationStepTimer.cancel();
-        navigationStepTimer.purge();
-        navigationStepTimer = new Timer();
+
+
+    private void stopNavigationUpdates() {
+        Log.v(TAG, "stopNavigationUpdates()");
+
+        beaconManager.removeLocationListener(navigationListener);
+        navigationHandler.removeCallbacks(minimumStepTimeElapsedRunnable);
     }
 
-    private void decreaseNavigationStepIndex() {
+    /**
+     * @return True if the index changed.
+     */
+    private boolean decreaseNavigationStepIndex() {
         Log.v(TAG, "decreaseNavigationStepIndex()");
 
         if (navigationStepIndex > 0) {
             navigationStepIndex--;
-            shouldChangeNavigationStep = true;
+            return true;
         }
+        return false;
     }
 
-    private void increaseNavigationStepIndex() {
+    /**
+     * @return True if the index changed.
+     */
+    private boolean increaseNavigationStepIndex() {
         Log.v(TAG, "increaseNavigationStepIndex");
 
         if (navigationStepIndex < navigationSteps.size() - 1) {
             navigationStepIndex++;
-            shouldChangeNavigationStep = true;
+            return true;
         }
+        return false;
     }
 
 
@@ -565,6 +640,15 @@ public class MainActivity extends AppCompatActivity implements ActivityCompat.On
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // The beacon manager outlives the activity
+        beaconManager.removeLocationListener(discoveryListener);
+        stopNavigationUpdates();
+    }
+
     @Override
     protected void onPostCreate(Bundle savedInstanceState) {
         super.onPostCreate(savedInstanceState);
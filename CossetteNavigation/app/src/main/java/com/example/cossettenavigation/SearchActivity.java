@@ -9,7 +9,6 @@ import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
-import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.View;
@@ -20,10 +19,8 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.estimote.sdk.Region;
 import com.example.cossettenavigation.beacons.ApplicationBeaconManager;
-import com.example.cossettenavigation.beacons.BeaconTrackingData;
-import com.example.cossettenavigation.map.AnchorBeacon;
+import com.example.cossettenavigation.beacons.LocationUpdate;
 import com.example.cossettenavigation.map.Beacon;
 import com.example.cossettenavigation.map.DatabaseHelper;
 import com.example.cossettenavigation.map.Map;
@@ -114,31 +111,20 @@ public class SearchActivity extends AppCompatActivity {
 //                    }
 //                }
 
-                Pair<Region, BeaconTrackingData> nearestTrackedBeacon = beaconManager.getNearestTrackedBeacon();
+                LocationUpdate locationUpdate = beaconManager.getLatestLocationUpdate();
 
                 // Check for the nearest beacon
-                if (nearestTrackedBeacon != null) {
+                if (locationUpdate.getNearestBeacon() != null) {
 
                     // If the nearest beacon is in sufficient range
-                    if (nearestTrackedBeacon.second.getEstimatedAccuracy() <= START_BEACON_RANGE) {
-                        Beacon startBeacon = nearestTrackedBeacon.second.getBeacon();
+                    if (locationUpdate.getNearestBeaconAccuracy() <= START_BEACON_RANGE) {
+                        Beacon startBeacon = locationUpdate.getNearestBeacon();
 
-                        // Get the shortest path to the destination
-                        double minTravelTime = Double.POSITIVE_INFINITY;
-                        Path minPath = null;
+                        // Get the shortest path to the nearest part of the destination
+                        Path path = Pathfinder.getShortestPath(startBeacon, zone);
 
-                        for (AnchorBeacon testEndBeacon : zone.getAnchorBeacons()) {
-                            Path testPath = Pathfinder.getShortestPath(startBeacon, testEndBeacon);
-
-                            if (testPath != null && testPath.getTravelTime() < minTravelTime) {
-                                minTravelTime = testPath.getTravelTime();
-                                minPath = testPath;
-                            }
-                        }
-
-                        if (minPath != null) {
-                            minPath.setDestination(zone);
-                            startMainActivityNavigation(minPath);
+                        if (path != null) {
+                            startMainActivityNavigation(path);
                         } else {
                             Toast.makeText(SearchActivity.this, "Path not found", Toast.LENGTH_LONG).show();
                         }
@@ -160,7 +146,7 @@ public class SearchActivity extends AppCompatActivity {
         ArrayList<Zone> filteredZones = new ArrayList<>();
         searchText = searchText.toLowerCase();
 
-        for (Zone zone : Map.zones) {
+        for (Zone zone : Map.getSnapshot().getZones()) {
             String zoneName = zone.getName().toLowerCase();
             String zoneType = Utilities.getZoneFloorNamesString(zone).toLowerCase();
 
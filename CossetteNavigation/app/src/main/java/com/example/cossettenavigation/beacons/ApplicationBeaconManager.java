@@ -2,6 +2,9 @@ package com.example.cossettenavigation.beacons;
 
 import android.app.Application;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.speech.tts.TextToSpeech;
 import android.util.Log;
@@ -12,23 +15,21 @@ import com.estimote.sdk.BeaconManager;
 import com.estimote.sdk.EstimoteSDK;
 import com.estimote.sdk.Region;
 import com.estimote.sdk.Utils;
-import com.example.cossettenavigation.Utilities;
 import com.example.cossettenavigation.map.Floor;
 import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapLoader;
+import com.example.cossettenavigation.map.MapSnapshot;
 import com.example.cossettenavigation.map.Point2D;
 import com.example.cossettenavigation.map.Zone;
-import com.lemmingapex.trilateration.NonLinearLeastSquaresSolver;
-import com.lemmingapex.trilateration.TrilaterationFunction;
-
-import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
-import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import com.example.cossettenavigation.pathfinding.Pathfinder;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * <h1>Global application state</h1>
@@ -59,7 +60,7 @@ public class ApplicationBeaconManager extends Application {
     private final Region ALL_BEACONS_REGION = new Region("All Beacons", null, null, null);
 
     /**
-     * The range for beacons to be used in the location trilateration algorithm (in metres).
+     * The range for beacons to be used to estimate the location (in metres).
      */
     private static double MAX_BEACON_DISTANCE_FOR_TRILATERATION = 5;
 
@@ -74,14 +75,117 @@ public class ApplicationBeaconManager extends Application {
     private BeaconManager beaconManager;
 
     /**
-     * Set of beacons to be tracked over time (for location algorithms).
+     * Beacons tracked over time (for location algorithms), indexed by beacon ID.
+     * Updated by the beacon listeners, and read from any thread (e.g. the activities' timers) without locking.
+     */
+    private volatile TrackedBeaconTable trackedBeaconTable = null;
+
+    /**
+     * Estimates the floor from {@link #trackedBeaconTable}, updated with it.
+     */
+    private volatile FloorClassifier floorClassifier = null;
+
+    /**
+     * Snaps the estimated location onto the map for each location update (only used on the main thread).
+     */
+    private MapMatcher mapMatcher = null;
+
+    /**
+     * Beacon ID -> the measurements of the tracked beacon, or null if not tracked.
+     * Only used by the beacon listeners, on the main thread.
+     */
+    private BeaconTrackingData[] trackingData = new BeaconTrackingData[0];
+
+    /**
+     * Beacons are removed from {@link #trackedBeaconTable} when not detected for this long (in milliseconds).
+     */
+    private static final long TRACKED_BEACON_TIMEOUT = 5000;
+
+    /**
+     * How often {@link #trackedBeaconTable} is checked for beacons that have timed out (in milliseconds).
+     */
+    private static final long TRACKED_BEACON_SWEEP_INTERVAL = 1000;
+
+    /**
+     * Runs the tracked beacon sweeps on the main thread, where the beacon listeners also run.
+     */
+    private Handler handler;
+
+    private final Runnable removeTimedOutTrackedBeaconsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            removeTimedOutTrackedBeacons();
+            handler.postDelayed(this, TRACKED_BEACON_SWEEP_INTERVAL);
+        }
+    };
+
+    /**
+     * Notified of the location when the tracked beacons change, so it doesn't need to be polled.
+     * @see #addLocationListener(LocationListener)
      */
-    private HashMap<Region, BeaconTrackingData> trackedBeacons = new HashMap<>();
+    public interface LocationListener {
+        /**
+         * Called on the main thread, at most once per batch of changes
+         * (a listener that falls behind only gets the latest update).
+         */
+        void onLocationUpdate(LocationUpdate locationUpdate);
+    }
+
+    private final CopyOnWriteArrayList<LocationListener> locationListeners = new CopyOnWriteArrayList<>();
 
     /**
-     * Tasks that will remove beacons from {@link #trackedBeacons} when not detected for a specific amount of time.
+     * True while a location update is posted but hasn't been computed yet
+     * (further changes until then are included in that update).
      */
-    private HashMap<Region, TimerTask> removeTrackedBeaconTimerTasks = new HashMap<>();
+    private boolean isLocationUpdatePending = false;
+
+    private final Runnable publishLocationUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isLocationUpdatePending = false;
+
+            LocationUpdate locationUpdate = createLocationUpdate();
+            latestLocationUpdate = locationUpdate;
+
+            for (LocationListener listener : locationListeners) {
+                listener.onLocationUpdate(locationUpdate);
+            }
+        }
+    };
+
+    private volatile LocationUpdate latestLocationUpdate = null;
+
+    /**
+     * Estimates the location from each ranging measurement, as it arrives.
+     */
+    private PositionFilter positionFilter = null;
+
+    /**
+     * The regions of the beacons being monitored and ranged, or null until the beacon service is ready.
+     * Only used on the main thread.
+     */
+    private ArrayList<Region> scannedRegions = null;
+
+    /**
+     * Rebuilds the tracking structures when the map snapshot has been replaced (e.g. by the loaded database),
+     * so beacons are looked up in the map the rest of the app uses.
+     * If scanning hasn't started yet, it starts with the current snapshot anyway.
+     */
+    private final Runnable updateScanningRunnable = new Runnable() {
+        @Override
+        public void run() {
+            TrackedBeaconTable table = trackedBeaconTable;
+            if (scannedRegions != null && table != null && table.getSnapshot() != Map.getSnapshot()) {
+                Log.v(TAG, "updateScanningRunnable: Map snapshot changed");
+
+                // The beacons may have moved, so the old measurements no longer apply
+                stopScanning();
+                positionFilter.reset();
+                startScanning();
+                publishLocationUpdate();
+            }
+        }
+    };
 
 
     /**
@@ -103,8 +207,34 @@ public class ApplicationBeaconManager extends Application {
 
         createTextToSpeech();
 
-        // Initialize Map class
-        Map map = new Map();
+        positionFilter = new PositionFilter();
+        latestLocationUpdate = createLocationUpdate();
+
+        handler = new Handler(Looper.getMainLooper());
+        handler.postDelayed(removeTimedOutTrackedBeaconsRunnable, TRACKED_BEACON_SWEEP_INTERVAL);
+
+        // Load the map and precompute the shortest paths in the background,
+        // so startup doesn't wait for the database and route requests don't need to search the map
+        // (the fallback map is used until the database is loaded, or if it can't be loaded)
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MapSnapshot mapSnapshot = MapLoader.load(ApplicationBeaconManager.this);
+                if (mapSnapshot != null) {
+                    Map.setSnapshot(mapSnapshot);
+                    handler.post(updateScanningRunnable);
+                }
+
+                InputStream contractionHierarchyAsset = null;
+                try {
+                    contractionHierarchyAsset = getAssets().open(Pathfinder.CONTRACTION_HIERARCHY_ASSET);
+                } catch (IOException e) {
+                    Log.e(TAG, "onCreate(): Contraction hierarchy asset not found", e);
+                }
+
+                Pathfinder.precompute(contractionHierarchyAsset);
+            }
+        }, "Map").start();
 
         // App ID & App Token can be taken from App section of Estimote Cloud.
         //EstimoteSDK.initialize(this, getString(R.string.app_name), getString(R.string.app_name));
@@ -141,6 +271,10 @@ public class ApplicationBeaconManager extends Application {
     public void onTerminate() {
         super.onTerminate();
 
+        handler.removeCallbacks(removeTimedOutTrackedBeaconsRunnable);
+        handler.removeCallbacks(publishLocationUpdateRunnable);
+        handler.removeCallbacks(updateScanningRunnable);
+
         destroyTextToSpeech();
     }
 
@@ -179,15 +313,18 @@ public class ApplicationBeaconManager extends Application {
         beaconManager.setRangingListener(new BeaconManager.RangingListener() {
             @Override
             public void onBeaconsDiscovered(Region region, List<Beacon> list) {
-                Log.v(TAG, "BeaconManager.RangingListener.onBeaconsDiscovered()");
-                Log.v(TAG, region.toString());
-                for (Beacon beacon : list) {
-                    Log.v(TAG, beacon.toString());
+                // Called for every scan cycle, so only formatted when verbose logging is enabled
+                if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                    Log.v(TAG, "BeaconManager.RangingListener.onBeaconsDiscovered()");
+                    Log.v(TAG, region.toString());
+                    for (Beacon beacon : list) {
+                        Log.v(TAG, beacon.toString());
+                    }
                 }
 
                 if (list.size() > 0) {
                     updateTrackedBeacon(region, list.get(0));
-                } else {
+                } else if (Log.isLoggable(TAG, Log.VERBOSE)) {
                     Log.v(TAG, "No beacons in region");
                 }
             }
@@ -197,9 +334,21 @@ public class ApplicationBeaconManager extends Application {
 
 
 
+    /**
+     * Creates the tracking structures for the current map snapshot, and monitors and ranges its beacons.
+     * Only called on the main thread, once the beacon service is ready.
+     */
     private void startScanning() {
+        MapSnapshot mapSnapshot = Map.getSnapshot();
+
+        trackingData = new BeaconTrackingData[mapSnapshot.getBeaconCount()];
+        floorClassifier = new FloorClassifier(mapSnapshot);
+        mapMatcher = new MapMatcher(mapSnapshot);
+        trackedBeaconTable = new TrackedBeaconTable(mapSnapshot);
+
         // Monitor and range all beacons
-        for (com.example.cossettenavigation.map.Beacon beacon : Map.getAllBeacons()) {
+        scannedRegions = new ArrayList<>();
+        for (com.example.cossettenavigation.map.Beacon beacon : mapSnapshot.getAllBeacons()) {
             Region region = new Region(
                     beacon.getName(),
                     beacon.getUUID(),
@@ -208,234 +357,331 @@ public class ApplicationBeaconManager extends Application {
 
             beaconManager.startMonitoring(region);
             beaconManager.startRanging(region);
+            scannedRegions.add(region);
         }
     }
 
+    /**
+     * Stops monitoring and ranging the beacons of the previous snapshot
+     * (the tracking structures are replaced by {@link #startScanning()}).
+     */
+    private void stopScanning() {
+        for (Region region : scannedRegions) {
+            beaconManager.stopRanging(region);
+            beaconManager.stopMonitoring(region);
+        }
+        scannedRegions = null;
+    }
 
 
 
-    private void updateTrackedBeacon(final Region region, Beacon beacon) {
-        Log.v(TAG, "updateTrackedBeacon()");
-
-        Log.v(TAG, String.format(
-                "Beacon: accuracy = %f, proximity = %s, %s",
-                Utils.computeAccuracy(beacon), Utils.computeProximity(beacon), beacon));
 
-        // Add the beacon if it isn't already tracked
-        if (!trackedBeacons.containsKey(region)) {
+    private void updateTrackedBeacon(final Region region, Beacon beacon) {
+        // Called for every ranging packet, so only formatted when verbose logging is enabled
+        boolean isVerbose = Log.isLoggable(TAG, Log.VERBOSE);
+        if (isVerbose) {
+            Log.v(TAG, String.format(
+                    "updateTrackedBeacon(): accuracy = %f, proximity = %s, %s",
+                    Utils.computeAccuracy(beacon), Utils.computeProximity(beacon), beacon));
+        }
 
-            // Try to find the beacon in the map
-            com.example.cossettenavigation.map.Beacon mapBeacon = null;
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null) {
+            return;
+        }
 
-            for (com.example.cossettenavigation.map.Beacon testBeacon : Map.getAllBeacons()) {
-                if (Utilities.areEqual(region, testBeacon)) {
-                    mapBeacon = testBeacon;
-                }
-            }
+        // Try to find the beacon in the map
+        int beaconId = table.getSnapshot().findBeaconId(
+                beacon.getProximityUUID(), beacon.getMajor(), beacon.getMinor());
 
-            if (mapBeacon == null) {
-                Log.e(TAG, String.format(
-                        "updateTrackedBeacon(): Tracked beacon not found in map\nregion = %s\nbeacon = %s",
-                        region, beacon));
-                return;
-            } else {
-                trackedBeacons.put(region, new BeaconTrackingData(mapBeacon));
-            }
+        if (beaconId == -1) {
+            Log.e(TAG, String.format(
+                    "updateTrackedBeacon(): Tracked beacon not found in map\nregion = %s\nbeacon = %s",
+                    region, beacon));
+            return;
         }
 
-        Log.v(TAG, "updateTrackedBeacon(): " + trackedBeacons.get(region).getBeacon().toString());
-
-        // The beacon must now be in the tracked set, so update it with measurements
-        trackedBeacons.get(region).addMeasurements(beacon);
+        // Add the beacon if it isn't already tracked
+        if (trackingData[beaconId] == null) {
+            trackingData[beaconId] = new BeaconTrackingData(table.getBeacon(beaconId));
+        }
 
-        // If a tracked beacon removal timer exists for this region, cancel it
-        if (removeTrackedBeaconTimerTasks.containsKey(region)) {
-            Log.v(TAG, String.format(
-                    "updateTrackedBeacon(): Canceling timer task for \"%s\"",
-                    trackedBeacons.get(region).getBeacon().getName()));
+        if (isVerbose) {
+            Log.v(TAG, "updateTrackedBeacon(): " + table.getBeacon(beaconId));
+        }
 
-            removeTrackedBeaconTimerTasks.get(region).cancel();
-            removeTrackedBeaconTimerTasks.remove(region);
+        // The beacon must now be tracked, so update it with measurements
+        BeaconTrackingData beaconTrackingData = trackingData[beaconId];
+        beaconTrackingData.addMeasurements(beacon);
+        table.update(
+                beaconId,
+                beaconTrackingData.getEstimatedAccuracy(),
+                beaconTrackingData.getLastMeasurementTime());
+        floorClassifier.update(beaconId, beaconTrackingData.getEstimatedAccuracy());
+
+        // Update the estimated location
+        if (beaconTrackingData.getEstimatedAccuracy() <= MAX_BEACON_DISTANCE_FOR_TRILATERATION) {
+            positionFilter.addMeasurement(
+                    beaconTrackingData.getBeacon().getXPosition() * Map.metresPerGridUnit,
+                    beaconTrackingData.getBeacon().getYPosition() * Map.metresPerGridUnit,
+                    beaconTrackingData.getLatestAccuracy(),
+                    SystemClock.elapsedRealtime());
         }
 
-        // Set a timer to remove this tracked beacon in 5 seconds
-        Log.v(TAG, String.format(
-                "updateTrackedBeacon(): Scheduling timer task for \"%s\"",
-                trackedBeacons.get(region).getBeacon().getName()));
-        TimerTask removeTask = new TimerTask() {
-            @Override
-            public void run() {
-                Log.v(TAG, String.format(
-                        "updateTrackedBeacon(): Removing tracking data for \"%s\"",
-                        trackedBeacons.get(region).getBeacon().getName()));
-                removeTrackedBeacon(region);
-            }
-        };
-        new Timer().schedule(removeTask, 5000);
-        removeTrackedBeaconTimerTasks.put(region, removeTask);
+        //Log.v(TAG, beaconTrackingData.toString());
 
-        //Log.v(TAG, trackedBeacons.get(region).toString());
+        publishLocationUpdate();
     }
 
     private void removeTrackedBeacon(Region region) {
-        trackedBeacons.remove(region);
-    }
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null || region.getMajor() == null || region.getMinor() == null) {
+            return;
+        }
 
-    public BeaconTrackingData getBeaconTrackingData(com.example.cossettenavigation.map.Beacon beacon) {
-        return trackedBeacons.get(new Region(
-                beacon.getName(),
-                beacon.getUUID(),
-                beacon.getMajor(),
-                beacon.getMinor()));
+        int beaconId = table.getSnapshot().findBeaconId(
+                region.getProximityUUID(), region.getMajor(), region.getMinor());
+        if (beaconId != -1) {
+            trackingData[beaconId] = null;
+            table.remove(beaconId);
+            floorClassifier.remove(beaconId);
+            publishLocationUpdate();
+        }
     }
 
-    public Pair<Region, BeaconTrackingData> getNearestTrackedBeacon() {
-        double minAccuracy = Double.POSITIVE_INFINITY;
-        Pair<Region, BeaconTrackingData> nearest = null;
+    /**
+     * Removes the tracked beacons that haven't been detected for {@link #TRACKED_BEACON_TIMEOUT}
+     * (checked every {@link #TRACKED_BEACON_SWEEP_INTERVAL}, instead of setting a timer for every measurement).
+     */
+    private void removeTimedOutTrackedBeacons() {
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null) {
+            return;
+        }
 
-        for (HashMap.Entry<Region, BeaconTrackingData> trackedBeacon : trackedBeacons.entrySet()) {
-            if (trackedBeacon.getValue().getEstimatedAccuracy() < minAccuracy) {
-                minAccuracy = trackedBeacon.getValue().getEstimatedAccuracy();
-                nearest = new Pair<>(trackedBeacon.getKey(), trackedBeacon.getValue());
+        long time = SystemClock.elapsedRealtime();
+
+        for (int beaconId = 0; beaconId < trackingData.length; beaconId++) {
+            if (trackingData[beaconId] != null &&
+                    time - trackingData[beaconId].getLastMeasurementTime() > TRACKED_BEACON_TIMEOUT) {
+                Log.v(TAG, String.format(
+                        "removeTimedOutTrackedBeacons(): Removing tracking data for \"%s\"",
+                        trackingData[beaconId].getBeacon().getName()));
+                trackingData[beaconId] = null;
+                table.remove(beaconId);
+                floorClassifier.remove(beaconId);
+                publishLocationUpdate();
             }
         }
-
-        return nearest;
     }
 
+    /**
+     * Publishes a location update to the listeners after a change,
+     * coalescing the changes made before the update runs (e.g. the ranging results of a scan cycle) into one update.
+     */
+    private void publishLocationUpdate() {
+        if (!isLocationUpdatePending) {
+            isLocationUpdatePending = true;
+            handler.post(publishLocationUpdateRunnable);
+        }
+    }
 
+    private LocationUpdate createLocationUpdate() {
+        Pair<com.example.cossettenavigation.map.Beacon, Double> nearestTrackedBeacon = getNearestTrackedBeacon();
 
+        long time = SystemClock.elapsedRealtime();
 
-    public ArrayList<Zone> getNearbyZones() {
-        ArrayList<Zone> nearbyZones = new ArrayList<>();
+        // The floor is reclassified once per location update, however many beacons changed
+        FloorClassifier classifier = floorClassifier;
+        if (classifier != null) {
+            classifier.updateFloor(time);
+        }
 
-        for (HashMap.Entry<Region, BeaconTrackingData> trackedBeacon : trackedBeacons.entrySet()) {
-            if (trackedBeacon.getValue().getEstimatedAccuracy() <= BEACON_RANGE_FOR_NEARBY_ZONE) {
-                ArrayList<Zone> zones = trackedBeacon.getValue().getBeacon().getZones();
+        Floor floor = getFloor();
+        Point2D estimatedLocation = getEstimatedLocation();
 
-                for (Zone zone : zones) {
-                    if (!nearbyZones.contains(zone) && zone.getIsDestination()) {
-                        nearbyZones.add(zone);
-                    }
-                }
+        MapMatch mapMatch = null;
+        if (mapMatcher != null) {
+            if (estimatedLocation != null && floor != null) {
+                mapMatch = mapMatcher.update(
+                        estimatedLocation.x * Map.metresPerGridUnit,
+                        estimatedLocation.y * Map.metresPerGridUnit,
+                        floor.getId(),
+                        time);
+            } else {
+                mapMatcher.reset();
             }
         }
 
-        return nearbyZones;
+        return new LocationUpdate(
+                time,
+                (nearestTrackedBeacon != null) ? nearestTrackedBeacon.first : null,
+                (nearestTrackedBeacon != null) ? nearestTrackedBeacon.second : Double.POSITIVE_INFINITY,
+                floor,
+                estimatedLocation,
+                getNearbyZones(estimatedLocation, floor),
+                mapMatch);
     }
 
-    public boolean getIsTextToSpeechEnabled() {
-        return isTextToSpeechEnabled;
+    /**
+     * @param listener Notified on the main thread when the location changes,
+     * until removed with {@link #removeLocationListener(LocationListener)}.
+     */
+    public void addLocationListener(LocationListener listener) {
+        locationListeners.addIfAbsent(listener);
     }
 
-    public void setIsTextToSpeechEnabled(boolean isTextToSpeechEnabled) {
-        this.isTextToSpeechEnabled = isTextToSpeechEnabled;
+    public void removeLocationListener(LocationListener listener) {
+        locationListeners.remove(listener);
     }
 
     /**
-     * @see <a href="https://github.com/lemmingapex/Trilateration">Trilateration example</a>
-     * @return Estimated location (on map grid), or null if not found.
+     * Constant time, for reading the location without waiting for the next update.
+     * @return The most recent location update (never null once the application is created).
      */
-    public Point2D getEstimatedLocation() {
-        // Get beacon positions and distances
-        // Convert positions to metres
-        // { { x, y }, { x, y }, ... }
-        ArrayList<double[]> positions = new ArrayList<>();
-        ArrayList<Double> distances = new ArrayList<>();
-
-        // Loop through tracked beacons
-        for (HashMap.Entry<Region, BeaconTrackingData> trackedBeacon : trackedBeacons.entrySet()) {
-            if (trackedBeacon.getValue().getEstimatedAccuracy() <= MAX_BEACON_DISTANCE_FOR_TRILATERATION) {
-
-                // Add position and distance (in metres)
-                positions.add(new double[] {
-                        trackedBeacon.getValue().getBeacon().getXPosition() * Map.metresPerGridUnit,
-                        trackedBeacon.getValue().getBeacon().getYPosition() * Map.metresPerGridUnit });
-                distances.add(trackedBeacon.getValue().getEstimatedAccuracy());
-            }
-        }
+    public LocationUpdate getLatestLocationUpdate() {
+        return latestLocationUpdate;
+    }
 
+    /**
+     * Lock-free, so it can be called from any thread.
+     * The beacon may be a copy (e.g. from a path passed in an Intent); it's looked up by its identifiers.
+     * @return The estimated distance of the beacon (in metres),
+     * or infinity if it isn't tracked (or has timed out since the last sweep).
+     */
+    public double getEstimatedAccuracy(com.example.cossettenavigation.map.Beacon beacon) {
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null) {
+            return Double.POSITIVE_INFINITY;
+        }
 
-        // Trilaterate position
+        return table.getEstimatedAccuracy(beacon, getMinMeasurementTime());
+    }
 
-        // If there are 3 or more beacons (required for 2D triangulation)
-        if (positions.size() >= 3) {
-            NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(
-                    new TrilaterationFunction(
-                            Utilities.getDoubleDoubleArray(positions), Utilities.getDoubleArray(distances)),
-                    new LevenbergMarquardtOptimizer());
-            LeastSquaresOptimizer.Optimum optimum = solver.solve();
+    /**
+     * Lock-free, so it can be called from any thread.
+     * @return The nearest tracked beacon and its estimated distance (in metres), or null if none.
+     */
+    public Pair<com.example.cossettenavigation.map.Beacon, Double> getNearestTrackedBeacon() {
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null) {
+            return null;
+        }
 
-            // the answer
-            double[] centroid = optimum.getPoint().toArray();
+        long minTime = getMinMeasurementTime();
+        int beaconId = table.getNearestBeaconId(minTime);
+        if (beaconId == -1) {
+            return null;
+        }
 
-            // error and geometry information; may throw SingularMatrixException depending the threshold argument provided
-            /*RealVector standardDeviation = optimum.getSigma(0);
-            RealMatrix covarianceMatrix = optimum.getCovariances(0);*/
+        return new Pair<>(table.getBeacon(beaconId), table.getEstimatedAccuracy(beaconId, minTime));
+    }
 
-            Point2D estimatedLocation = new Point2D(centroid[0] / Map.metresPerGridUnit,
-                                                    centroid[1] / Map.metresPerGridUnit);
+    /**
+     * Measurements older than this have timed out, even if the sweep hasn't removed them yet.
+     */
+    private long getMinMeasurementTime() {
+        return SystemClock.elapsedRealtime() - TRACKED_BEACON_TIMEOUT;
+    }
 
-            //Log.v(TAG, "getEstimatedLocation(): " + estimatedLocation);
 
-            return estimatedLocation;
 
-        } else {
-/*            Log.v(TAG, String.format(
-                    "getEstimatedLocation(): Not enough beacons within %.1fm to trilaterate location",
-                    MAX_BEACON_DISTANCE_FOR_TRILATERATION));*/
 
-            return null;
-        }
+    public ArrayList<Zone> getNearbyZones() {
+        return getNearbyZones(getEstimatedLocation(), getFloor());
     }
 
+    /**
+     * Finds the zones of the beacons within {@link #BEACON_RANGE_FOR_NEARBY_ZONE} of the estimated location
+     * with the map's spatial index, or of the tracked beacons estimated to be that close if the location is unknown.
+     * @return The destination zones, each once.
+     */
+    private ArrayList<Zone> getNearbyZones(Point2D estimatedLocation, Floor floor) {
+        ArrayList<Zone> nearbyZones = new ArrayList<>();
+        HashSet<Zone> addedZones = new HashSet<>();
 
-    public ArrayList<BeaconTrackingData> getNearestBeacons() {
-        ArrayList<BeaconTrackingData> beacons = new ArrayList<>();
-        for (HashMap.Entry<Region, BeaconTrackingData> trackedBeacon : trackedBeacons.entrySet()){
-            beacons.add(trackedBeacon.getValue());
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table == null) {
+            return nearbyZones;
         }
-        return beacons;
-    }
 
-    public Floor getFloor() {
-        HashMap<Floor, ArrayList<Integer>> floorMatrix = new HashMap();
-        for (HashMap.Entry<Region, BeaconTrackingData> trackedBeacon : trackedBeacons.entrySet()) {
-            Floor floor = trackedBeacon.getValue().getBeacon().getFloor();
-            if (floorMatrix.containsKey(floor)) {
-                ArrayList<Integer> tuple = floorMatrix.get(floor);
-                tuple.set(0, tuple.get(0) + 1);
-                tuple.set(1, tuple.get(1) + (int) Math.pow(trackedBeacon.getValue().getEstimatedAccuracy(), 2));
-                floorMatrix.put(floor, tuple);
-            } else {
-                ArrayList<Integer> tuple = new ArrayList<>(2);
-                tuple.add(0, 1);
-                tuple.add(1, (int) Math.pow(trackedBeacon.getValue().getEstimatedAccuracy(), 2));
-                floorMatrix.put(floor, tuple);
+        MapSnapshot snapshot = table.getSnapshot();
+
+        if (estimatedLocation != null && floor != null && snapshot.contains(floor)) {
+            double x = estimatedLocation.x * Map.metresPerGridUnit;
+            double y = estimatedLocation.y * Map.metresPerGridUnit;
+
+            int[] beaconIds = new int[16];
+            int beaconCount;
+            while ((beaconCount = snapshot.findBeaconIdsWithin(
+                    floor.getId(), x, y, BEACON_RANGE_FOR_NEARBY_ZONE, beaconIds)) == beaconIds.length) {
+                beaconIds = new int[beaconIds.length * 2];
             }
-        }
-        Integer minDiff = Integer.MAX_VALUE;
-        Floor closeFloor = null;
-        for (Floor floor : Map.floors) {
-            if (floorMatrix.containsKey(floor)) {
-                Integer count = floorMatrix.get(floor).get(0);
-                Integer sum = floorMatrix.get(floor).get(1);
-                if (minDiff > sum - count) {
-                    minDiff = sum - count;
-                    closeFloor = floor;
+
+            for (int i = 0; i < beaconCount; i++) {
+                addDestinationZones(snapshot.getBeacon(beaconIds[i]), nearbyZones, addedZones);
+            }
+        } else {
+            long minTime = getMinMeasurementTime();
+            for (int beaconId = 0; beaconId < table.getBeaconCount(); beaconId++) {
+                if (table.getEstimatedAccuracy(beaconId, minTime) <= BEACON_RANGE_FOR_NEARBY_ZONE) {
+                    addDestinationZones(table.getBeacon(beaconId), nearbyZones, addedZones);
                 }
             }
         }
-        return closeFloor;
+
+        return nearbyZones;
+    }
+
+    private static void addDestinationZones(com.example.cossettenavigation.map.Beacon beacon,
+                                            ArrayList<Zone> zones,
+                                            HashSet<Zone> addedZones) {
+        for (Zone zone : beacon.getZones()) {
+            if (zone.getIsDestination() && addedZones.add(zone)) {
+                zones.add(zone);
+            }
+        }
+    }
+
+    public boolean getIsTextToSpeechEnabled() {
+        return isTextToSpeechEnabled;
+    }
+
+    public void setIsTextToSpeechEnabled(boolean isTextToSpeechEnabled) {
+        this.isTextToSpeechEnabled = isTextToSpeechEnabled;
+    }
+
+    /**
+     * Constant time; the estimate is updated as measurements arrive.
+     * @return Estimated location (on map grid), or null if not found.
+     * @see PositionFilter
+     */
+    public Point2D getEstimatedLocation() {
+        return positionFilter.getEstimatedLocation(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Constant time; the floor is updated with each location update.
+     * @return Estimated floor, or null if not found.
+     * @see FloorClassifier
+     */
+    public Floor getFloor() {
+        FloorClassifier classifier = floorClassifier;
+        return (classifier != null) ? classifier.getFloor() : null;
     }
 
     public void logTrackedBeacons() {
         String string = "logTrackedBeacons():\n";
 
-        for (java.util.Map.Entry<Region, BeaconTrackingData> beacon : trackedBeacons.entrySet()) {
-            string += String.format(
-                    "%s : %s\n",
-                    beacon.getValue(), beacon.getKey());
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table != null) {
+            for (int beaconId = 0; beaconId < table.getBeaconCount(); beaconId++) {
+                if (table.isTracked(beaconId)) {
+                    string += String.format(
+                            "%s : %.2f m\n",
+                            table.getBeacon(beaconId), table.getEstimatedAccuracy(beaconId));
+                }
+            }
         }
 
         Log.v(TAG, string);
@@ -446,13 +692,18 @@ public class ApplicationBeaconManager extends Application {
 
         String string = "";
 
-        for (java.util.Map.Entry<Region, BeaconTrackingData> entry : trackedBeacons.entrySet()) {
-            string += String.format(
-                    "%s : %.2f m\n",
-                    entry.getKey().getIdentifier(), entry.getValue().getEstimatedAccuracy());
+        TrackedBeaconTable table = trackedBeaconTable;
+        if (table != null) {
+            for (int beaconId = 0; beaconId < table.getBeaconCount(); beaconId++) {
+                if (table.isTracked(beaconId)) {
+                    string += String.format(
+                            "%s : %.2f m\n",
+                            table.getBeacon(beaconId).getName(), table.getEstimatedAccuracy(beaconId));
+                }
+            }
         }
 
-        Point2D estimatedLocation = getEstimatedLocation();
+        Point2D estimatedLocation = getLatestLocationUpdate().getEstimatedLocation();
         if (estimatedLocation == null) {
             string += "Location Unavailable";
         } else {
@@ -1,46 +1,111 @@
 package com.example.cossettenavigation.beacons;
 
+import android.os.SystemClock;
+
 import com.estimote.sdk.Beacon;
 import com.estimote.sdk.Utils;
-
-import java.util.ArrayList;
+import com.example.cossettenavigation.map.PathLossModel;
 
 /**
  * A collection of data for tracking a specific beacon, to be stored, updated, and queried over time.
+ *
+ * <p>
+ *     The most recent measurements are kept in fixed-size ring buffers,
+ *     and the estimated accuracy is updated as each measurement is added,
+ *     so adding measurements doesn't allocate and reading the estimate is constant time.
+ * </p>
+ *
+ * <p>
+ *     Distances are computed with the beacon's calibrated {@link PathLossModel} if it has one,
+ *     or else with the Estimote SDK's model.
+ *     Calibrated distances are more accurate, so fewer measurements are kept by default,
+ *     and the estimate reacts faster to movement.
+ * </p>
  */
 public class BeaconTrackingData {
 
     private static final String TAG = "BeaconTrackingData";
 
+    /**
+     * The default number of measurements to keep.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 5;
+
+    /**
+     * The default number of measurements to keep for a calibrated beacon.
+     */
+    public static final int CALIBRATED_WINDOW_SIZE = 3;
+
+    /**
+     * Each measurement has this many times the weight of the one before it.
+     */
+    private static final double WEIGHT_RATIO = 1.5;
+
     private com.example.cossettenavigation.map.Beacon beacon;
 
     /**
-     * Oldest measurements first, newest measurements last.
+     * Ring buffer; the oldest measurement is at {@link #oldestIndex}.
+     */
+    private final double[] accuracyMeasurements;
+
+    /**
+     * Ring buffer; the oldest measurement is at {@link #oldestIndex}.
+     */
+    private final Utils.Proximity[] proximityMeasurements;
+
+    private int measurementCount = 0;
+    private int oldestIndex = 0;
+
+    /**
+     * Weighted sum of the accuracy measurements, and sum of the weights,
+     * where the newest measurement has a weight of 1.
+     */
+    private double weightedAccuracySum = 0;
+    private double weightSum = 0;
+
+    /**
+     * The weight of the oldest measurement once the buffers are full.
      */
-    private ArrayList<Double> accuracyMeasurements = new ArrayList<>();
+    private final double oldestWeight;
+
+    private double estimatedAccuracy = Double.POSITIVE_INFINITY;
 
     /**
-     * Oldest measurements first, newest measurements last.
+     * Time of the last measurement (in milliseconds, from {@link SystemClock#elapsedRealtime()}).
      */
-    private ArrayList<Utils.Proximity> proximityMeasurements = new ArrayList<>();
+    private long lastMeasurementTime = 0;
 
 
 
 
     public BeaconTrackingData(com.example.cossettenavigation.map.Beacon beacon) {
+        this(beacon, (beacon.getPathLossModel() != null) ? CALIBRATED_WINDOW_SIZE : DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize The number of measurements to keep.
+     */
+    public BeaconTrackingData(com.example.cossettenavigation.map.Beacon beacon, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+
         this.beacon = beacon;
+        accuracyMeasurements = new double[windowSize];
+        proximityMeasurements = new Utils.Proximity[windowSize];
+        oldestWeight = Math.pow(WEIGHT_RATIO, -(windowSize - 1));
     }
 
 
     @Override
     public String toString() {
         String string = "BeaconTrackingData { accuracyMeasurements = { ";
-        for (Double accuracy : accuracyMeasurements) {
-            string += accuracy + ", ";
+        for (int i = 0; i < measurementCount; i++) {
+            string += accuracyMeasurements[getIndex(i)] + ", ";
         }
         string += "}, proximityMeasurements = { ";
-        for (Utils.Proximity proximity : proximityMeasurements) {
-            string += proximity + ", ";
+        for (int i = 0; i < measurementCount; i++) {
+            string += proximityMeasurements[getIndex(i)] + ", ";
         }
         string += "}, estimatedAccuracy = " + getEstimatedAccuracy() + " }";
 
@@ -52,46 +117,101 @@ public class BeaconTrackingData {
         return beacon;
     }
 
+    public int getWindowSize() {
+        return accuracyMeasurements.length;
+    }
+
     public void addMeasurements(Beacon beacon) {
 /*        Log.v(TAG, String.format(
                 "addMeasurements(): \"%s\", \"%s\"",
                 this.beacon.getName(), this.beacon.getDescription()));*/
 
-        // Delete old measurements (keep a maximum of 5)
-        if (accuracyMeasurements.size() >= 5) {
-            accuracyMeasurements.remove(0);
+        lastMeasurementTime = SystemClock.elapsedRealtime();
+
+        PathLossModel pathLossModel = this.beacon.getPathLossModel();
+        if (pathLossModel == null) {
+            addMeasurements(Utils.computeAccuracy(beacon), Utils.computeProximity(beacon));
+        } else {
+            addMeasurements(pathLossModel.getDistance(beacon.getRssi()), Utils.computeProximity(beacon));
         }
-        if (proximityMeasurements.size() >= 5) {
-            proximityMeasurements.remove(0);
+    }
+
+    void addMeasurements(double accuracy, Utils.Proximity proximity) {
+        int windowSize = accuracyMeasurements.length;
+        int index;
+
+        if (measurementCount < windowSize) {
+            index = getIndex(measurementCount);
+            measurementCount++;
+        } else {
+            // Replace the oldest measurements
+            index = oldestIndex;
+            oldestIndex = (oldestIndex + 1) % windowSize;
+
+            weightedAccuracySum -= accuracyMeasurements[index] * oldestWeight;
+            weightSum -= oldestWeight;
         }
 
-        // Add new measurements
-        accuracyMeasurements.add(Utils.computeAccuracy(beacon));
-        proximityMeasurements.add(Utils.computeProximity(beacon));
+        accuracyMeasurements[index] = accuracy;
+        proximityMeasurements[index] = proximity;
+
+        // Newer measurements have greater weights
+        weightedAccuracySum = (weightedAccuracySum / WEIGHT_RATIO) + accuracy;
+        weightSum = (weightSum / WEIGHT_RATIO) + 1;
+
+        // Recompute the sums once per window so rounding errors don't accumulate,
+        // and whenever a non-finite measurement would otherwise leave them NaN
+        if ((oldestIndex == 0 && measurementCount == windowSize)
+                || Double.isNaN(weightedAccuracySum) || Double.isInfinite(weightedAccuracySum)) {
+            recomputeSums();
+        }
+
+        estimatedAccuracy = weightedAccuracySum / weightSum;
+    }
+
+    /**
+     * @return Time of the last measurement (in milliseconds, from {@link SystemClock#elapsedRealtime()}).
+     */
+    public long getLastMeasurementTime() {
+        return lastMeasurementTime;
     }
 
     /**
+     * Uses a weighted average of the measurements, where newer measurements have greater weights.
      * @return The estimated distance of the beacon from the device (in metres).
      */
     public double getEstimatedAccuracy() {
-        // Use a weighted average to estimate the distance
-        // Newer measurements have greater weights
-
-        double numerator = 0;
-        double denominator = 0;
+        return estimatedAccuracy;
+    }
 
-        double weight = 1;
-        for (int i = 0; i < accuracyMeasurements.size(); i++) {
-            numerator += (accuracyMeasurements.get(i) * weight);
-            denominator += weight;
 
-            weight *= 1.5;
+    /**
+     * @return The most recently measured distance of the beacon from the device (in metres),
+     * or infinity if there are no measurements.
+     */
+    public double getLatestAccuracy() {
+        if (measurementCount == 0) {
+            return Double.POSITIVE_INFINITY;
         }
+        return accuracyMeasurements[getIndex(measurementCount - 1)];
+    }
 
-        if (denominator == 0) {
-            return Double.POSITIVE_INFINITY;
-        } else {
-            return numerator / denominator;
+
+    /**
+     * @param age 0 for the oldest measurement.
+     * @return The index of the measurement in the ring buffers.
+     */
+    private int getIndex(int age) {
+        return (oldestIndex + age) % accuracyMeasurements.length;
+    }
+
+    private void recomputeSums() {
+        weightedAccuracySum = 0;
+        weightSum = 0;
+
+        for (int i = 0; i < measurementCount; i++) {
+            weightedAccuracySum = (weightedAccuracySum / WEIGHT_RATIO) + accuracyMeasurements[getIndex(i)];
+            weightSum = (weightSum / WEIGHT_RATIO) + 1;
         }
     }
 
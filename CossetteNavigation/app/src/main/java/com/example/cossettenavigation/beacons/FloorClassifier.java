@@ -0,0 +1,211 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.Floor;
+import com.example.cossettenavigation.map.MapSnapshot;
+
+/**
+ * <h1>Floor classifier</h1>
+ *
+ * <p>
+ *     Estimates the floor from the tracked beacons.
+ *     Each tracked beacon is evidence for its floor, weighted by <code>1 / distance^2</code>
+ *     (so a nearby beacon outweighs several distant ones, e.g. heard through the ceiling).
+ *     The evidence for each floor is kept up to date as each beacon is updated,
+ *     so the floor is known without going through the tracked beacons.
+ * </p>
+ *
+ * <p>
+ *     The floor is reclassified once per location update ({@link #updateFloor(long)}), not per beacon update,
+ *     and only changes when another floor has had {@link #SWITCH_EVIDENCE_RATIO} times the evidence
+ *     at every location update for {@link #SWITCH_DWELL_TIME} (hysteresis),
+ *     so it doesn't flap between floors when the evidence is close (e.g. near stairs),
+ *     however many beacons are in range.
+ * </p>
+ *
+ * <p>
+ *     Only updated by the thread that tracks beacons, but the floor can be read from any thread.
+ * </p>
+ */
+class FloorClassifier {
+
+    /**
+     * Distances are at least this (in metres), so a beacon measured at ~0m doesn't give unbounded evidence.
+     */
+    static final double MIN_DISTANCE = 0.5;
+
+    /**
+     * How many times the evidence of the current floor another floor needs to switch to it.
+     */
+    static final double SWITCH_EVIDENCE_RATIO = 1.5;
+
+    /**
+     * How long another floor needs to keep enough evidence to switch to it (in milliseconds).
+     */
+    static final long SWITCH_DWELL_TIME = 2000;
+
+    /**
+     * The evidence is recomputed from the beacons' weights this often (in updates),
+     * so rounding errors from adding and subtracting weights don't build up.
+     */
+    private static final int RECOMPUTE_PERIOD = 1024;
+
+    private final MapSnapshot snapshot;
+
+    /**
+     * Beacon ID -> evidence for the beacon's floor, or 0 if not tracked.
+     */
+    private final double[] beaconWeights;
+
+    /**
+     * Floor ID -> sum of the weights of the floor's tracked beacons.
+     */
+    private final double[] floorEvidence;
+
+    /**
+     * Floor ID -> number of tracked beacons (so the evidence is exactly 0 without any, despite rounding errors).
+     */
+    private final int[] floorBeaconCounts;
+
+    private volatile int floorId = -1;
+
+    /**
+     * The floor with enough evidence to replace {@link #floorId}, and since when.
+     */
+    private int candidateFloorId = -1;
+    private long candidateTime = 0;
+
+    private int updatesSinceRecompute = 0;
+
+
+
+
+    FloorClassifier(MapSnapshot snapshot) {
+        this.snapshot = snapshot;
+
+        beaconWeights = new double[snapshot.getBeaconCount()];
+        floorEvidence = new double[snapshot.getFloors().size()];
+        floorBeaconCounts = new int[floorEvidence.length];
+    }
+
+
+    /**
+     * @param estimatedAccuracy Estimated distance of the beacon (in metres), or infinity if not tracked.
+     */
+    void update(int beaconId, double estimatedAccuracy) {
+        int beaconFloorId = snapshot.getBeaconFloorId(beaconId);
+        double weight = getWeight(estimatedAccuracy);
+
+        if (beaconWeights[beaconId] == 0 && weight > 0) {
+            floorBeaconCounts[beaconFloorId]++;
+        } else if (beaconWeights[beaconId] > 0 && weight == 0) {
+            floorBeaconCounts[beaconFloorId]--;
+        }
+
+        if (floorBeaconCounts[beaconFloorId] == 0) {
+            floorEvidence[beaconFloorId] = 0;
+        } else {
+            floorEvidence[beaconFloorId] += weight - beaconWeights[beaconId];
+        }
+        beaconWeights[beaconId] = weight;
+
+        if (++updatesSinceRecompute >= RECOMPUTE_PERIOD) {
+            recomputeEvidence();
+        }
+    }
+
+    void remove(int beaconId) {
+        update(beaconId, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Constant time.
+     * @return The estimated floor ID, or -1 if no beacons are tracked.
+     */
+    int getFloorId() {
+        return floorId;
+    }
+
+    /**
+     * Constant time.
+     * @return The estimated floor, or null if no beacons are tracked.
+     */
+    Floor getFloor() {
+        int floorId = this.floorId;
+        return (floorId != -1) ? snapshot.getFloor(floorId) : null;
+    }
+
+    /**
+     * @return Evidence for the floor (the sum of the weights of its tracked beacons).
+     */
+    double getEvidence(int floorId) {
+        return floorEvidence[floorId];
+    }
+
+    /**
+     * Reclassifies the floor from the current evidence. Called once per location update.
+     * @param time The time of the location update (in milliseconds).
+     */
+    void updateFloor(long time) {
+        int bestFloorId = -1;
+        double bestEvidence = 0;
+        for (int i = 0; i < floorEvidence.length; i++) {
+            if (floorEvidence[i] > bestEvidence) {
+                bestFloorId = i;
+                bestEvidence = floorEvidence[i];
+            }
+        }
+
+        // No beacons tracked
+        if (bestFloorId == -1) {
+            floorId = -1;
+            candidateFloorId = -1;
+            return;
+        }
+
+        // Nothing to switch from
+        if (floorId == -1 || floorEvidence[floorId] <= 0) {
+            floorId = bestFloorId;
+            candidateFloorId = -1;
+            return;
+        }
+
+        if (bestFloorId == floorId || bestEvidence < floorEvidence[floorId] * SWITCH_EVIDENCE_RATIO) {
+            candidateFloorId = -1;
+            return;
+        }
+
+        if (bestFloorId != candidateFloorId) {
+            candidateFloorId = bestFloorId;
+            candidateTime = time;
+        }
+
+        if (time - candidateTime >= SWITCH_DWELL_TIME) {
+            floorId = candidateFloorId;
+            candidateFloorId = -1;
+        }
+    }
+
+
+
+
+    static double getWeight(double estimatedAccuracy) {
+        if (Double.isNaN(estimatedAccuracy) || Double.isInfinite(estimatedAccuracy)) {
+            return 0;
+        }
+
+        double distance = Math.max(estimatedAccuracy, MIN_DISTANCE);
+        return 1 / (distance * distance);
+    }
+
+    private void recomputeEvidence() {
+        updatesSinceRecompute = 0;
+
+        for (int i = 0; i < floorEvidence.length; i++) {
+            floorEvidence[i] = 0;
+        }
+        for (int beaconId = 0; beaconId < beaconWeights.length; beaconId++) {
+            floorEvidence[snapshot.getBeaconFloorId(beaconId)] += beaconWeights[beaconId];
+        }
+    }
+
+}
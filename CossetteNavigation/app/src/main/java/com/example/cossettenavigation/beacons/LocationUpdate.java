@@ -0,0 +1,128 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Floor;
+import com.example.cossettenavigation.map.Point2D;
+import com.example.cossettenavigation.map.Zone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h1>Location update</h1>
+ *
+ * <p>
+ *     Everything known about the location at one time, computed once when the tracked beacons change
+ *     and shared by all the listeners, so each doesn't recompute it.
+ * </p>
+ *
+ * <p>
+ *     Immutable, so it can be kept and read from any thread.
+ * </p>
+ *
+ * @see ApplicationBeaconManager#addLocationListener(ApplicationBeaconManager.LocationListener)
+ */
+public class LocationUpdate {
+
+    private final long time;
+
+    private final Beacon nearestBeacon;
+    private final double nearestBeaconAccuracy;
+
+    private final Floor floor;
+
+    private final Point2D estimatedLocation;
+
+    private final List<Zone> nearbyZones;
+
+    private final MapMatch mapMatch;
+
+
+
+
+    LocationUpdate(long time,
+                   Beacon nearestBeacon,
+                   double nearestBeaconAccuracy,
+                   Floor floor,
+                   Point2D estimatedLocation,
+                   ArrayList<Zone> nearbyZones,
+                   MapMatch mapMatch) {
+        this.time = time;
+        this.nearestBeacon = nearestBeacon;
+        this.nearestBeaconAccuracy = nearestBeaconAccuracy;
+        this.floor = floor;
+        this.estimatedLocation =
+                (estimatedLocation != null) ? new Point2D(estimatedLocation.x, estimatedLocation.y) : null;
+        this.nearbyZones = Collections.unmodifiableList(new ArrayList<>(nearbyZones));
+        this.mapMatch = mapMatch;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s { time = %d, nearestBeacon = %s, nearestBeaconAccuracy = %.2f, floor = %s, estimatedLocation = %s, nearbyZones = %d, mapMatch = %s }",
+                getClass().getSimpleName(),
+                time,
+                (nearestBeacon != null) ? nearestBeacon.getName() : null,
+                nearestBeaconAccuracy,
+                (floor != null) ? floor.getName() : null,
+                estimatedLocation,
+                nearbyZones.size(),
+                mapMatch);
+    }
+
+
+    /**
+     * @return Time the update was computed ({@link android.os.SystemClock#elapsedRealtime()}).
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The nearest tracked beacon, or null if none.
+     */
+    public Beacon getNearestBeacon() {
+        return nearestBeacon;
+    }
+
+    /**
+     * @return The estimated distance of the nearest beacon (in metres), or infinity if none.
+     */
+    public double getNearestBeaconAccuracy() {
+        return nearestBeaconAccuracy;
+    }
+
+    /**
+     * @return The estimated floor, or null if not found.
+     */
+    public Floor getFloor() {
+        return floor;
+    }
+
+    /**
+     * @return Estimated location (on map grid), or null if not found.
+     * A copy, so changing it doesn't change the update.
+     */
+    public Point2D getEstimatedLocation() {
+        return (estimatedLocation != null) ? new Point2D(estimatedLocation.x, estimatedLocation.y) : null;
+    }
+
+    /**
+     * @return Destination zones near the location (unmodifiable).
+     */
+    public List<Zone> getNearbyZones() {
+        return nearbyZones;
+    }
+
+    /**
+     * @return The estimated location snapped onto the edges between anchor beacons, or null if not found.
+     * @see MapMatcher
+     */
+    public MapMatch getMapMatch() {
+        return mapMatch;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Point2D;
+import com.example.cossettenavigation.map.Zone;
+
+/**
+ * <h1>Map match</h1>
+ *
+ * <p>
+ *     The estimated location snapped onto the map:
+ *     the edge between two anchor beacons (through a zone) the user is most likely on,
+ *     and how far along it they are.
+ * </p>
+ *
+ * <p>
+ *     Immutable, so it can be kept and read from any thread.
+ * </p>
+ *
+ * @see MapMatcher
+ */
+public class MapMatch {
+
+    private final Beacon startBeacon;
+    private final Beacon endBeacon;
+    private final Zone zone;
+
+    private final double offset;
+    private final double length;
+
+    private final int matchCount;
+
+
+
+
+    MapMatch(Beacon startBeacon, Beacon endBeacon, Zone zone, double offset, double length, int matchCount) {
+        this.startBeacon = startBeacon;
+        this.endBeacon = endBeacon;
+        this.zone = zone;
+        this.offset = offset;
+        this.length = length;
+        this.matchCount = matchCount;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s { %s -> %s (%s), offset = %.1f m / %.1f m, matchCount = %d }",
+                getClass().getSimpleName(),
+                startBeacon.getName(), endBeacon.getName(), zone.getName(), offset, length, matchCount);
+    }
+
+
+    public Beacon getStartBeacon() {
+        return startBeacon;
+    }
+
+    public Beacon getEndBeacon() {
+        return endBeacon;
+    }
+
+    /**
+     * @return The zone connecting the beacons (e.g. a hallway).
+     */
+    public Zone getZone() {
+        return zone;
+    }
+
+    /**
+     * @return Distance along the edge from the start beacon (in metres).
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Length of the edge (in metres), which is 0 between beacons at the same position on different floors.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * @return The beacon at the end of the edge the location is nearest to.
+     */
+    public Beacon getNearerBeacon() {
+        return (offset <= length / 2) ? startBeacon : endBeacon;
+    }
+
+    /**
+     * @return The location on the edge (on map grid).
+     */
+    public Point2D getMatchedLocation() {
+        double fraction = (length > 0) ? (offset / length) : 0;
+        return new Point2D(
+                startBeacon.getXPosition() + (fraction * (endBeacon.getXPosition() - startBeacon.getXPosition())),
+                startBeacon.getYPosition() + (fraction * (endBeacon.getYPosition() - startBeacon.getYPosition())));
+    }
+
+    /**
+     * @return For how many updates in a row the location has been matched to this edge
+     * (higher is more certain).
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * Compares beacon IDs, so copies of the beacons (e.g. from a path passed in an Intent) match too.
+     * @return True if the edge is between these beacons (in either direction).
+     */
+    public boolean connects(Beacon beaconOne, Beacon beaconTwo) {
+        return (startBeacon.getId() == beaconOne.getId() && endBeacon.getId() == beaconTwo.getId()) ||
+                (startBeacon.getId() == beaconTwo.getId() && endBeacon.getId() == beaconOne.getId());
+    }
+
+}
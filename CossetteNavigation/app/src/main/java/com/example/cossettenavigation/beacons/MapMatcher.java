@@ -0,0 +1,347 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.MapSnapshot;
+
+/**
+ * <h1>Map matcher</h1>
+ *
+ * <p>
+ *     Snaps the stream of estimated locations onto the edges between anchor beacons
+ *     (the zones connecting them, e.g. hallways), so the location can't be inside walls
+ *     and doesn't jump between edges when the estimate is noisy.
+ * </p>
+ *
+ * <p>
+ *     Each edge is a state of a hidden Markov model, solved online with the Viterbi algorithm:
+ *     an edge is more likely the closer the estimate is to it
+ *     ({@link #LOCATION_STANDARD_DEVIATION}),
+ *     and moving to another edge is less likely than staying on the same one,
+ *     especially if the edges don't share an anchor beacon
+ *     ({@link #ADJACENT_EDGE_PENALTY}, {@link #OTHER_EDGE_PENALTY}).
+ *     Only the edges within {@link #SEARCH_RADIUS} of the estimate are considered.
+ *     They're found from the anchor beacons near the estimate with the map's spatial index
+ *     (searching further by half the longest edge, so the middle of a long edge is still found),
+ *     so each update is independent of the size of the map.
+ * </p>
+ *
+ * <p>
+ *     Not thread-safe; {@link ApplicationBeaconManager} only uses it on the main thread.
+ * </p>
+ */
+public class MapMatcher {
+
+    /**
+     * Standard deviation of the estimated location from the edge the user is on (in metres).
+     */
+    static final double LOCATION_STANDARD_DEVIATION = 3;
+
+    /**
+     * Edges within this distance of the estimate are considered (in metres).
+     */
+    static final double SEARCH_RADIUS = 20;
+
+    /**
+     * Log likelihood penalty for moving to an edge that shares an anchor beacon with the previous edge.
+     */
+    static final double ADJACENT_EDGE_PENALTY = 2;
+
+    /**
+     * Log likelihood penalty for moving to any other edge (e.g. after missing updates).
+     */
+    static final double OTHER_EDGE_PENALTY = 8;
+
+    /**
+     * The previous matches are forgotten if there's no update for this long (in milliseconds).
+     */
+    static final long MAX_UPDATE_INTERVAL = 10000;
+
+    private final MapSnapshot snapshot;
+
+    /**
+     * Edge -> anchor beacon IDs (start < end) and zone ID, one for each pair of connections between anchor beacons.
+     */
+    private final int[] edgeStartIds;
+    private final int[] edgeEndIds;
+    private final int[] edgeZoneIds;
+
+    /**
+     * Anchor beacon ID -> index of its first edge in {@link #anchorEdges} (length is the number of anchor beacons + 1).
+     */
+    private final int[] anchorEdgeOffsets;
+    private final int[] anchorEdges;
+
+    /**
+     * Anchor beacons within this distance of the estimate are searched for edges (in metres):
+     * a point within {@link #SEARCH_RADIUS} of an edge is within this distance of its nearer anchor beacon.
+     */
+    private final double anchorSearchRadius;
+
+    /**
+     * Candidate edges and their log likelihoods, of the previous update and the current update.
+     */
+    private int[] previousEdges;
+    private double[] previousScores;
+    private int previousCount = 0;
+    private long previousTime = 0;
+
+    private int[] edges;
+    private double[] scores;
+
+    /**
+     * Edge -> true while it's in {@link #edges}.
+     */
+    private final boolean[] isCandidate;
+
+    private int[] beaconIds = new int[16];
+
+    private int matchedEdge = -1;
+    private int matchCount = 0;
+
+
+
+
+    public MapMatcher(MapSnapshot snapshot) {
+        this.snapshot = snapshot;
+
+        int anchorBeaconCount = snapshot.getAnchorBeaconCount();
+
+        // Each edge is connected in both directions, so keep the direction from the lower ID
+        int edgeCount = 0;
+        for (int anchorBeaconId = 0; anchorBeaconId < anchorBeaconCount; anchorBeaconId++) {
+            for (int connection = snapshot.getConnectionOffset(anchorBeaconId);
+                 connection < snapshot.getConnectionOffset(anchorBeaconId + 1);
+                 connection++) {
+                if (anchorBeaconId < snapshot.getConnectionTarget(connection)) {
+                    edgeCount++;
+                }
+            }
+        }
+
+        edgeStartIds = new int[edgeCount];
+        edgeEndIds = new int[edgeCount];
+        edgeZoneIds = new int[edgeCount];
+        anchorEdgeOffsets = new int[anchorBeaconCount + 1];
+
+        int edge = 0;
+        for (int anchorBeaconId = 0; anchorBeaconId < anchorBeaconCount; anchorBeaconId++) {
+            for (int connection = snapshot.getConnectionOffset(anchorBeaconId);
+                 connection < snapshot.getConnectionOffset(anchorBeaconId + 1);
+                 connection++) {
+                int target = snapshot.getConnectionTarget(connection);
+                if (anchorBeaconId < target) {
+                    edgeStartIds[edge] = anchorBeaconId;
+                    edgeEndIds[edge] = target;
+                    edgeZoneIds[edge] = snapshot.getConnectionZoneId(connection);
+                    anchorEdgeOffsets[anchorBeaconId + 1]++;
+                    anchorEdgeOffsets[target + 1]++;
+                    edge++;
+                }
+            }
+        }
+
+        // Edges of each anchor beacon, in compressed sparse rows
+        for (int anchorBeaconId = 0; anchorBeaconId < anchorBeaconCount; anchorBeaconId++) {
+            anchorEdgeOffsets[anchorBeaconId + 1] += anchorEdgeOffsets[anchorBeaconId];
+        }
+
+        anchorEdges = new int[2 * edgeCount];
+        int[] fillCounts = new int[anchorBeaconCount];
+        for (edge = 0; edge < edgeCount; edge++) {
+            anchorEdges[anchorEdgeOffsets[edgeStartIds[edge]] + fillCounts[edgeStartIds[edge]]++] = edge;
+            anchorEdges[anchorEdgeOffsets[edgeEndIds[edge]] + fillCounts[edgeEndIds[edge]]++] = edge;
+        }
+
+        double maxEdgeLength = 0;
+        for (edge = 0; edge < edgeCount; edge++) {
+            maxEdgeLength = Math.max(maxEdgeLength, getLength(edge));
+        }
+        anchorSearchRadius = SEARCH_RADIUS + (maxEdgeLength / 2);
+
+        previousEdges = new int[edgeCount];
+        previousScores = new double[edgeCount];
+        edges = new int[edgeCount];
+        scores = new double[edgeCount];
+        isCandidate = new boolean[edgeCount];
+    }
+
+
+    /**
+     * @param x Estimated location (in metres).
+     * @param y Estimated location (in metres).
+     * @param floorId Estimated floor.
+     * @param time Time of the estimate (in milliseconds).
+     * @return The most likely edge and the location on it, or null if there are no edges near the estimate.
+     */
+    public MapMatch update(double x, double y, int floorId, long time) {
+        if (time - previousTime > MAX_UPDATE_INTERVAL) {
+            reset();
+        }
+
+        int count = findCandidateEdges(x, y, floorId);
+        if (count == 0) {
+            reset();
+            return null;
+        }
+
+        int bestEdge = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < count; i++) {
+            int edge = edges[i];
+            double distance = getDistance(edge, x, y);
+            double emissionScore = -(distance * distance) /
+                    (2 * LOCATION_STANDARD_DEVIATION * LOCATION_STANDARD_DEVIATION);
+
+            // Most likely previous edge to have come from (any edge at the start)
+            double transitionScore = (previousCount == 0) ? 0 : Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < previousCount; j++) {
+                transitionScore = Math.max(
+                        transitionScore,
+                        previousScores[j] + getTransitionScore(previousEdges[j], edge));
+            }
+
+            scores[i] = emissionScore + transitionScore;
+            if (scores[i] > bestScore) {
+                bestEdge = edge;
+                bestScore = scores[i];
+            }
+        }
+
+        // Keep the scores relative to the best, so they don't grow without bound
+        for (int i = 0; i < count; i++) {
+            scores[i] -= bestScore;
+            isCandidate[edges[i]] = false;
+        }
+
+        int[] swapEdges = previousEdges;
+        previousEdges = edges;
+        edges = swapEdges;
+
+        double[] swapScores = previousScores;
+        previousScores = scores;
+        scores = swapScores;
+
+        previousCount = count;
+        previousTime = time;
+
+        matchCount = (bestEdge == matchedEdge) ? matchCount + 1 : 1;
+        matchedEdge = bestEdge;
+
+        return createMatch(bestEdge, x, y);
+    }
+
+    /**
+     * Forgets the previous matches (e.g. when the location is lost).
+     */
+    public void reset() {
+        previousCount = 0;
+        matchedEdge = -1;
+        matchCount = 0;
+    }
+
+    int getEdgeCount() {
+        return edgeStartIds.length;
+    }
+
+
+
+
+    /**
+     * Fills {@link #edges} with the edges within {@link #SEARCH_RADIUS} of the location (each once).
+     * @return The number of edges.
+     */
+    private int findCandidateEdges(double x, double y, int floorId) {
+        int beaconCount;
+        while ((beaconCount = snapshot.findBeaconIdsWithin(floorId, x, y, anchorSearchRadius, beaconIds)) ==
+                beaconIds.length) {
+            beaconIds = new int[beaconIds.length * 2];
+        }
+
+        int count = 0;
+        for (int i = 0; i < beaconCount; i++) {
+            int beaconId = beaconIds[i];
+            if (beaconId >= snapshot.getAnchorBeaconCount()) {
+                continue;
+            }
+
+            for (int j = anchorEdgeOffsets[beaconId]; j < anchorEdgeOffsets[beaconId + 1]; j++) {
+                int edge = anchorEdges[j];
+                if (!isCandidate[edge] && getDistance(edge, x, y) <= SEARCH_RADIUS) {
+                    isCandidate[edge] = true;
+                    edges[count++] = edge;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private double getTransitionScore(int previousEdge, int edge) {
+        if (previousEdge == edge) {
+            return 0;
+        }
+
+        if (    (edgeStartIds[previousEdge] == edgeStartIds[edge]) ||
+                (edgeStartIds[previousEdge] == edgeEndIds[edge]) ||
+                (edgeEndIds[previousEdge] == edgeStartIds[edge]) ||
+                (edgeEndIds[previousEdge] == edgeEndIds[edge]) ) {
+            return -ADJACENT_EDGE_PENALTY;
+        }
+
+        return -OTHER_EDGE_PENALTY;
+    }
+
+    /**
+     * @return How far along the edge the closest point to the location is, from 0 (start) to 1 (end).
+     */
+    private double getFraction(int edge, double x, double y) {
+        double startX = snapshot.getBeaconXPosition(edgeStartIds[edge]);
+        double startY = snapshot.getBeaconYPosition(edgeStartIds[edge]);
+        double dx = snapshot.getBeaconXPosition(edgeEndIds[edge]) - startX;
+        double dy = snapshot.getBeaconYPosition(edgeEndIds[edge]) - startY;
+
+        double lengthSquared = (dx * dx) + (dy * dy);
+        if (lengthSquared == 0) {
+            return 0;
+        }
+
+        double fraction = (((x - startX) * dx) + ((y - startY) * dy)) / lengthSquared;
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * @return Distance from the location to the closest point on the edge (in metres).
+     */
+    private double getDistance(int edge, double x, double y) {
+        double fraction = getFraction(edge, x, y);
+
+        double startX = snapshot.getBeaconXPosition(edgeStartIds[edge]);
+        double startY = snapshot.getBeaconYPosition(edgeStartIds[edge]);
+        double pointX = startX + (fraction * (snapshot.getBeaconXPosition(edgeEndIds[edge]) - startX));
+        double pointY = startY + (fraction * (snapshot.getBeaconYPosition(edgeEndIds[edge]) - startY));
+
+        return Math.hypot(x - pointX, y - pointY);
+    }
+
+    /**
+     * @return Length of the edge (in metres).
+     */
+    private double getLength(int edge) {
+        return Math.hypot(
+                snapshot.getBeaconXPosition(edgeEndIds[edge]) - snapshot.getBeaconXPosition(edgeStartIds[edge]),
+                snapshot.getBeaconYPosition(edgeEndIds[edge]) - snapshot.getBeaconYPosition(edgeStartIds[edge]));
+    }
+
+    private MapMatch createMatch(int edge, double x, double y) {
+        double length = getLength(edge);
+
+        return new MapMatch(
+                snapshot.getBeacon(edgeStartIds[edge]),
+                snapshot.getBeacon(edgeEndIds[edge]),
+                snapshot.getZone(edgeZoneIds[edge]),
+                getFraction(edge, x, y) * length,
+                length,
+                matchCount);
+    }
+
+}
@@ -0,0 +1,305 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+import com.example.cossettenavigation.map.Point2D;
+
+/**
+ * <h1>Position filter</h1>
+ *
+ * <p>
+ *     Estimates the device's position from a stream of beacon distance measurements,
+ *     using an extended Kalman filter.
+ * </p>
+ *
+ * <p>
+ *     The state is the position (in metres), with a random walk motion model:
+ *     the uncertainty grows with the time since the last measurement, at a rate based on walking speed.
+ *     Each distance measurement is applied on its own (as a scalar update, linearized at the current estimate),
+ *     so adding a measurement and reading the estimate are both constant time,
+ *     and no least squares problem needs to be solved.
+ * </p>
+ *
+ * <p>
+ *     The first measurement places the estimate at that beacon, with an uncertainty of the measured distance.
+ *     Estimates are clamped to the area around the map's beacons
+ *     (which may have negative positions, e.g. the elevators).
+ * </p>
+ *
+ * <p>
+ *     Methods are synchronized, since measurements are added by the beacon listeners
+ *     while the estimate is read by the UI.
+ * </p>
+ */
+public class PositionFilter {
+
+    private static final String TAG = "PositionFilter";
+
+    /**
+     * How fast the variance of each coordinate grows between measurements (in square metres per second).
+     */
+    private static final double PROCESS_NOISE = 1.0;
+
+    /**
+     * The standard deviation of a distance measurement is
+     * <code>MEASUREMENT_NOISE_BASE + MEASUREMENT_NOISE_PER_METRE * distance</code> (in metres),
+     * since measurements of farther beacons are less accurate.
+     */
+    private static final double MEASUREMENT_NOISE_BASE = 0.5;
+    private static final double MEASUREMENT_NOISE_PER_METRE = 0.5;
+
+    /**
+     * Measurements taken closer than this to the estimate (in metres) don't give a direction, so are skipped.
+     */
+    private static final double MIN_DISTANCE_TO_ESTIMATE = 1e-6;
+
+    /**
+     * No estimate is given if there hasn't been a measurement for this long (in milliseconds).
+     */
+    public static final long MAX_ESTIMATE_AGE = 5000;
+
+    /**
+     * No estimate is given if the standard deviation of either coordinate is greater than this (in metres).
+     */
+    public static final double MAX_ESTIMATE_STANDARD_DEVIATION = 5;
+
+    /**
+     * Estimates can be this far outside the map's beacons (in metres), e.g. in a room past the last beacon.
+     */
+    public static final double BOUNDS_MARGIN = 10;
+
+    private boolean isInitialized = false;
+
+    /**
+     * Time of the last measurement (in milliseconds).
+     */
+    private long lastUpdateTime;
+
+    /**
+     * Estimated position (in metres).
+     */
+    private double x;
+    private double y;
+
+    /**
+     * Covariance matrix of the estimated position, <code>{ { varianceX, covarianceXY }, { covarianceXY, varianceY } }</code>
+     * (in square metres).
+     */
+    private double varianceX;
+    private double varianceY;
+    private double covarianceXY;
+
+    /**
+     * Bounds of the estimate (in metres).
+     */
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+
+
+
+    /**
+     * Bounds estimates by the current map's beacons.
+     */
+    public PositionFilter() {
+        this(Map.getSnapshot());
+    }
+
+    /**
+     * Bounds estimates by the positions of the snapshot's beacons, plus {@link #BOUNDS_MARGIN}
+     * (or by the map grid if it has no beacons).
+     */
+    public PositionFilter(MapSnapshot snapshot) {
+        this(getBounds(snapshot));
+    }
+
+    /**
+     * @param minX Minimum x position (in metres).
+     * @param minY Minimum y position (in metres).
+     * @param maxX Maximum x position (in metres).
+     * @param maxY Maximum y position (in metres).
+     */
+    public PositionFilter(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    private PositionFilter(double[] bounds) {
+        this(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%s { isInitialized = %b, x = %.2f m, y = %.2f m, varianceX = %.2f, varianceY = %.2f, covarianceXY = %.2f }",
+                getClass().getSimpleName(), isInitialized, x, y, varianceX, varianceY, covarianceXY);
+    }
+
+
+    /**
+     * Updates the estimate with a measured distance to a beacon.
+     * @param beaconX Beacon's x position (in metres).
+     * @param beaconY Beacon's y position (in metres).
+     * @param distance Measured distance to the beacon (in metres).
+     * @param time Time of the measurement (in milliseconds), e.g. {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    public synchronized void addMeasurement(double beaconX, double beaconY, double distance, long time) {
+        if (Double.isNaN(distance) || Double.isInfinite(distance) || distance < 0) {
+            return;
+        }
+
+        double measurementStandardDeviation = MEASUREMENT_NOISE_BASE + (MEASUREMENT_NOISE_PER_METRE * distance);
+        double measurementVariance = measurementStandardDeviation * measurementStandardDeviation;
+
+        if (!isInitialized) {
+            x = beaconX;
+            y = beaconY;
+            varianceX = varianceY = measurementVariance + (distance * distance);
+            covarianceXY = 0;
+
+            isInitialized = true;
+            lastUpdateTime = time;
+            clamp();
+            return;
+        }
+
+
+        // Predict
+
+        double elapsedSeconds = Math.max(0, time - lastUpdateTime) / 1000.0;
+        varianceX += PROCESS_NOISE * elapsedSeconds;
+        varianceY += PROCESS_NOISE * elapsedSeconds;
+        lastUpdateTime = Math.max(lastUpdateTime, time);
+
+
+        // Update
+
+        double dx = x - beaconX;
+        double dy = y - beaconY;
+        double predictedDistance = Math.sqrt((dx * dx) + (dy * dy));
+        if (predictedDistance < MIN_DISTANCE_TO_ESTIMATE) {
+            return;
+        }
+
+        // Jacobian of the distance with respect to the position
+        double hx = dx / predictedDistance;
+        double hy = dy / predictedDistance;
+
+        // P * H^T
+        double phx = (varianceX * hx) + (covarianceXY * hy);
+        double phy = (covarianceXY * hx) + (varianceY * hy);
+
+        double innovationVariance = (hx * phx) + (hy * phy) + measurementVariance;
+
+        // Kalman gain
+        double kx = phx / innovationVariance;
+        double ky = phy / innovationVariance;
+
+        double innovation = distance - predictedDistance;
+        x += kx * innovation;
+        y += ky * innovation;
+
+        // P = (I - K * H) * P
+        varianceX -= kx * phx;
+        covarianceXY -= kx * phy;
+        varianceY -= ky * phy;
+
+        clamp();
+    }
+
+    /**
+     * Forgets the estimate.
+     */
+    public synchronized void reset() {
+        isInitialized = false;
+    }
+
+
+    /**
+     * @param time Current time (in milliseconds).
+     * @return Estimated location (on map grid), or null if there isn't a recent and accurate enough estimate.
+     */
+    public synchronized Point2D getEstimatedLocation(long time) {
+        if (!hasEstimate(time)) {
+            return null;
+        }
+
+        return new Point2D(x / Map.metresPerGridUnit, y / Map.metresPerGridUnit);
+    }
+
+    /**
+     * @param time Current time (in milliseconds).
+     */
+    public synchronized boolean hasEstimate(long time) {
+        double maxVariance = MAX_ESTIMATE_STANDARD_DEVIATION * MAX_ESTIMATE_STANDARD_DEVIATION;
+
+        return isInitialized
+                && (time - lastUpdateTime) <= MAX_ESTIMATE_AGE
+                && varianceX <= maxVariance
+                && varianceY <= maxVariance;
+    }
+
+    /**
+     * @return The variance of the estimated x position as of the last measurement (in square metres).
+     */
+    public synchronized double getVarianceX() {
+        return varianceX;
+    }
+
+    /**
+     * @return The variance of the estimated y position as of the last measurement (in square metres).
+     */
+    public synchronized double getVarianceY() {
+        return varianceY;
+    }
+
+    /**
+     * @return The covariance of the estimated x and y positions as of the last measurement (in square metres).
+     */
+    public synchronized double getCovarianceXY() {
+        return covarianceXY;
+    }
+
+
+    /**
+     * @return <code>{ minX, minY, maxX, maxY }</code> (in metres).
+     */
+    private static double[] getBounds(MapSnapshot snapshot) {
+        if (snapshot.getBeaconCount() == 0) {
+            return new double[] {
+                    0,
+                    0,
+                    snapshot.getGridWidth() * Map.metresPerGridUnit,
+                    snapshot.getGridHeight() * Map.metresPerGridUnit };
+        }
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+
+        for (int beaconId = 0; beaconId < snapshot.getBeaconCount(); beaconId++) {
+            minX = Math.min(minX, snapshot.getBeaconXPosition(beaconId));
+            minY = Math.min(minY, snapshot.getBeaconYPosition(beaconId));
+            maxX = Math.max(maxX, snapshot.getBeaconXPosition(beaconId));
+            maxY = Math.max(maxY, snapshot.getBeaconYPosition(beaconId));
+        }
+
+        return new double[] {
+                minX - BOUNDS_MARGIN,
+                minY - BOUNDS_MARGIN,
+                maxX + BOUNDS_MARGIN,
+                maxY + BOUNDS_MARGIN };
+    }
+
+    private void clamp() {
+        x = Math.max(minX, Math.min(maxX, x));
+        y = Math.max(minY, Math.min(maxY, y));
+    }
+
+}
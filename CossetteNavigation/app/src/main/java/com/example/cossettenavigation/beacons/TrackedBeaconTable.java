@@ -0,0 +1,176 @@
+package com.example.cossettenavigation.beacons;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.MapSnapshot;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>Tracked beacon table</h1>
+ *
+ * <p>
+ *     The state of each tracked beacon (estimated distance and time of the last measurement),
+ *     indexed by beacon ID, shared between the thread that tracks beacons (the only writer)
+ *     and any number of reader threads (e.g. UI timers).
+ * </p>
+ *
+ * <p>
+ *     Readers don't lock or copy:
+ *     each slot has a sequence number that the writer makes odd while it changes the slot and even when it's done,
+ *     so a reader retries if the sequence number was odd or changed while it read the slot
+ *     (a seqlock).
+ *     The values are kept in atomic arrays, so the reads can't be reordered around the sequence number reads.
+ * </p>
+ *
+ * @see ApplicationBeaconManager
+ */
+class TrackedBeaconTable {
+
+    private static final long NOT_TRACKED_ACCURACY_BITS = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+    private final MapSnapshot snapshot;
+
+    /**
+     * Beacon ID -> sequence number, odd while the slot is being written.
+     */
+    private final AtomicIntegerArray sequences;
+
+    /**
+     * Beacon ID -> raw bits of the estimated distance (in metres), or infinity if not tracked.
+     */
+    private final AtomicLongArray accuracies;
+
+    /**
+     * Beacon ID -> time of the last measurement (in milliseconds).
+     */
+    private final AtomicLongArray lastMeasurementTimes;
+
+
+
+
+    TrackedBeaconTable(MapSnapshot snapshot) {
+        this.snapshot = snapshot;
+
+        int beaconCount = snapshot.getBeaconCount();
+        sequences = new AtomicIntegerArray(beaconCount);
+        accuracies = new AtomicLongArray(beaconCount);
+        lastMeasurementTimes = new AtomicLongArray(beaconCount);
+
+        for (int beaconId = 0; beaconId < beaconCount; beaconId++) {
+            accuracies.set(beaconId, NOT_TRACKED_ACCURACY_BITS);
+        }
+    }
+
+
+    /**
+     * The map whose beacons are tracked.
+     */
+    MapSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    int getBeaconCount() {
+        return sequences.length();
+    }
+
+
+
+
+    /**
+     * Only called by the writer thread.
+     * @param estimatedAccuracy Estimated distance of the beacon (in metres).
+     * @param time Time of the last measurement (in milliseconds).
+     */
+    void update(int beaconId, double estimatedAccuracy, long time) {
+        int sequence = sequences.get(beaconId);
+        sequences.set(beaconId, sequence + 1);
+
+        accuracies.set(beaconId, Double.doubleToRawLongBits(estimatedAccuracy));
+        lastMeasurementTimes.set(beaconId, time);
+
+        sequences.set(beaconId, sequence + 2);
+    }
+
+    /**
+     * Only called by the writer thread.
+     */
+    void remove(int beaconId) {
+        update(beaconId, Double.POSITIVE_INFINITY, 0);
+    }
+
+
+
+
+    /**
+     * A beacon's estimated distance is never infinite while it's tracked.
+     */
+    boolean isTracked(int beaconId) {
+        return accuracies.get(beaconId) != NOT_TRACKED_ACCURACY_BITS;
+    }
+
+    /**
+     * @return The estimated distance of the beacon (in metres), or infinity if it isn't tracked.
+     */
+    double getEstimatedAccuracy(int beaconId) {
+        return Double.longBitsToDouble(accuracies.get(beaconId));
+    }
+
+    /**
+     * @return The estimated distance of the beacon (in metres), or infinity if it isn't tracked
+     * or hasn't been measured since <code>minTime</code>.
+     */
+    double getEstimatedAccuracy(int beaconId, long minTime) {
+        while (true) {
+            int sequence = sequences.get(beaconId);
+            long accuracyBits = accuracies.get(beaconId);
+            long lastMeasurementTime = lastMeasurementTimes.get(beaconId);
+
+            if ((sequence & 1) == 0 && sequences.get(beaconId) == sequence) {
+                return (lastMeasurementTime >= minTime) ?
+                        Double.longBitsToDouble(accuracyBits) : Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * Looks the beacon up by its identifiers, so a copy (e.g. from a deserialized path) is found too.
+     * @return The estimated distance of the beacon (in metres), or infinity if it isn't in the map,
+     * isn't tracked, or hasn't been measured since <code>minTime</code>.
+     */
+    double getEstimatedAccuracy(Beacon beacon, long minTime) {
+        int beaconId = snapshot.findBeaconId(beacon);
+        return (beaconId != -1) ? getEstimatedAccuracy(beaconId, minTime) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return The time of the beacon's last measurement (in milliseconds), or 0 if it isn't tracked.
+     */
+    long getLastMeasurementTime(int beaconId) {
+        return lastMeasurementTimes.get(beaconId);
+    }
+
+    /**
+     * @return The ID of the tracked beacon with the smallest estimated distance
+     * (of those measured since <code>minTime</code>), or -1 if none.
+     */
+    int getNearestBeaconId(long minTime) {
+        int nearestBeaconId = -1;
+        double minAccuracy = Double.POSITIVE_INFINITY;
+
+        for (int beaconId = 0; beaconId < getBeaconCount(); beaconId++) {
+            double accuracy = getEstimatedAccuracy(beaconId, minTime);
+            if (accuracy < minAccuracy) {
+                minAccuracy = accuracy;
+                nearestBeaconId = beaconId;
+            }
+        }
+
+        return nearestBeaconId;
+    }
+
+    Beacon getBeacon(int beaconId) {
+        return snapshot.getBeacon(beaconId);
+    }
+
+}
@@ -22,6 +22,16 @@ public abstract class Beacon implements Serializable {
     protected int major;
     protected int minor;
 
+    /**
+     * Index in the {@link MapSnapshot} this beacon is part of, or -1 if none.
+     */
+    private int id = -1;
+
+    /**
+     * Calibrated model for converting the beacon's signal strength to a distance, or null if not calibrated.
+     */
+    private PathLossModel pathLossModel = null;
+
 
 
 
@@ -129,6 +139,22 @@ public abstract class Beacon implements Serializable {
         return minor;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public PathLossModel getPathLossModel() {
+        return pathLossModel;
+    }
+
+    void setPathLossModel(PathLossModel pathLossModel) {
+        this.pathLossModel = pathLossModel;
+    }
+
     public abstract ArrayList<Zone> getZones();
 
 }
@@ -0,0 +1,213 @@
+package com.example.cossettenavigation.map;
+
+/**
+ * <h1>Beacon grid</h1>
+ *
+ * <p>
+ *     Finds the beacons on a floor within a radius of a position
+ *     by only looking at the beacons in nearby cells, instead of every beacon in the map.
+ * </p>
+ *
+ * <p>
+ *     Each floor is divided into square cells of equal size,
+ *     chosen so there are about {@link #BEACONS_PER_CELL} beacons per cell,
+ *     and the beacon IDs in each cell are stored in compressed sparse rows.
+ *     Queries don't allocate; the results are written to arrays given by the caller.
+ * </p>
+ *
+ * @see MapSnapshot#findBeaconIdsWithin(int, double, double, double, int[])
+ */
+class BeaconGrid {
+
+    private static final double BEACONS_PER_CELL = 2;
+
+    /**
+     * Cells are at least this wide (in metres), so beacons at the same position don't give tiny cells.
+     */
+    private static final double MIN_CELL_SIZE = 1;
+
+    /**
+     * Beacon ID -> position (in metres).
+     */
+    private final double[] xPositions;
+    private final double[] yPositions;
+
+    /**
+     * Floor ID -> position of the floor's first cell, cell size (in metres), and number of cells.
+     */
+    private final double[] floorMinXs;
+    private final double[] floorMinYs;
+    private final double[] floorCellSizes;
+    private final int[] floorColumnCounts;
+    private final int[] floorRowCounts;
+
+    /**
+     * Floor ID -> index of the floor's first cell in {@link #cellOffsets}.
+     */
+    private final int[] floorCellStarts;
+
+    /**
+     * Cell index -> index of its first beacon in {@link #cellBeaconIds} (length is the number of cells + 1).
+     */
+    private final int[] cellOffsets;
+
+    private final int[] cellBeaconIds;
+
+
+
+
+    /**
+     * @param xPositions Beacon ID -> x position (in metres).
+     * @param yPositions Beacon ID -> y position (in metres).
+     * @param floorIds Beacon ID -> floor ID.
+     */
+    BeaconGrid(double[] xPositions, double[] yPositions, int[] floorIds, int floorCount) {
+        this.xPositions = xPositions;
+        this.yPositions = yPositions;
+
+        int beaconCount = floorIds.length;
+
+        // Bounds and number of beacons of each floor
+        floorMinXs = new double[floorCount];
+        floorMinYs = new double[floorCount];
+        double[] floorMaxXs = new double[floorCount];
+        double[] floorMaxYs = new double[floorCount];
+        int[] floorBeaconCounts = new int[floorCount];
+
+        for (int floorId = 0; floorId < floorCount; floorId++) {
+            floorMinXs[floorId] = Double.POSITIVE_INFINITY;
+            floorMinYs[floorId] = Double.POSITIVE_INFINITY;
+            floorMaxXs[floorId] = Double.NEGATIVE_INFINITY;
+            floorMaxYs[floorId] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int beaconId = 0; beaconId < beaconCount; beaconId++) {
+            int floorId = floorIds[beaconId];
+            floorMinXs[floorId] = Math.min(floorMinXs[floorId], xPositions[beaconId]);
+            floorMinYs[floorId] = Math.min(floorMinYs[floorId], yPositions[beaconId]);
+            floorMaxXs[floorId] = Math.max(floorMaxXs[floorId], xPositions[beaconId]);
+            floorMaxYs[floorId] = Math.max(floorMaxYs[floorId], yPositions[beaconId]);
+            floorBeaconCounts[floorId]++;
+        }
+
+        // Cell sizes
+        floorCellSizes = new double[floorCount];
+        floorColumnCounts = new int[floorCount];
+        floorRowCounts = new int[floorCount];
+        floorCellStarts = new int[floorCount + 1];
+
+        for (int floorId = 0; floorId < floorCount; floorId++) {
+            int columnCount = 1;
+            int rowCount = 1;
+            double cellSize = MIN_CELL_SIZE;
+
+            if (floorBeaconCounts[floorId] > 0) {
+                double width = floorMaxXs[floorId] - floorMinXs[floorId];
+                double height = floorMaxYs[floorId] - floorMinYs[floorId];
+
+                // Treat a floor with all its beacons in a line as one cell wide
+                double area = Math.max(width, MIN_CELL_SIZE) * Math.max(height, MIN_CELL_SIZE);
+                cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt(area * BEACONS_PER_CELL / floorBeaconCounts[floorId]));
+
+                columnCount = (int) (width / cellSize) + 1;
+                rowCount = (int) (height / cellSize) + 1;
+            } else {
+                floorMinXs[floorId] = 0;
+                floorMinYs[floorId] = 0;
+            }
+
+            floorCellSizes[floorId] = cellSize;
+            floorColumnCounts[floorId] = columnCount;
+            floorRowCounts[floorId] = rowCount;
+            floorCellStarts[floorId + 1] = floorCellStarts[floorId] + (columnCount * rowCount);
+        }
+
+        // First pass - count the beacons in each cell
+        int[] beaconCells = new int[beaconCount];
+        cellOffsets = new int[floorCellStarts[floorCount] + 1];
+
+        for (int beaconId = 0; beaconId < beaconCount; beaconId++) {
+            int floorId = floorIds[beaconId];
+            beaconCells[beaconId] = floorCellStarts[floorId] + getCellIndex(
+                    floorId,
+                    getColumn(floorId, xPositions[beaconId]),
+                    getRow(floorId, yPositions[beaconId]));
+            cellOffsets[beaconCells[beaconId] + 1]++;
+        }
+        for (int cell = 0; cell < cellOffsets.length - 1; cell++) {
+            cellOffsets[cell + 1] += cellOffsets[cell];
+        }
+
+        // Second pass - fill in the beacons
+        cellBeaconIds = new int[beaconCount];
+        int[] cellFillCounts = new int[cellOffsets.length - 1];
+
+        for (int beaconId = 0; beaconId < beaconCount; beaconId++) {
+            int cell = beaconCells[beaconId];
+            cellBeaconIds[cellOffsets[cell] + cellFillCounts[cell]] = beaconId;
+            cellFillCounts[cell]++;
+        }
+    }
+
+
+    /**
+     * @param result Filled with the IDs of the beacons (in no particular order).
+     * @return The number of beacons on the floor within <code>radius</code> (in metres) of the position,
+     * or <code>result.length</code> if there are more than fit in <code>result</code>.
+     */
+    int findBeaconIdsWithin(int floorId, double x, double y, double radius, int[] result) {
+        int count = 0;
+        double radiusSquared = radius * radius;
+
+        int minColumn = Math.max(0, getColumn(floorId, x - radius));
+        int maxColumn = Math.min(floorColumnCounts[floorId] - 1, getColumn(floorId, x + radius));
+        int minRow = Math.max(0, getRow(floorId, y - radius));
+        int maxRow = Math.min(floorRowCounts[floorId] - 1, getRow(floorId, y + radius));
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int cell = floorCellStarts[floorId] + getCellIndex(floorId, column, row);
+
+                for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+                    int beaconId = cellBeaconIds[i];
+                    if (getDistanceSquared(beaconId, x, y) <= radiusSquared) {
+                        if (count == result.length) {
+                            return count;
+                        }
+                        result[count++] = beaconId;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+
+
+    private double getDistanceSquared(int beaconId, double x, double y) {
+        double dx = xPositions[beaconId] - x;
+        double dy = yPositions[beaconId] - y;
+        return (dx * dx) + (dy * dy);
+    }
+
+    /**
+     * @return The column of the x position (may be outside the floor's columns).
+     */
+    private int getColumn(int floorId, double x) {
+        return (int) Math.floor((x - floorMinXs[floorId]) / floorCellSizes[floorId]);
+    }
+
+    /**
+     * @return The row of the y position (may be outside the floor's rows).
+     */
+    private int getRow(int floorId, double y) {
+        return (int) Math.floor((y - floorMinYs[floorId]) / floorCellSizes[floorId]);
+    }
+
+    private int getCellIndex(int floorId, int column, int row) {
+        return (row * floorColumnCounts[floorId]) + column;
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.example.cossettenavigation.map;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <h1>Beacon index</h1>
+ *
+ * <p>
+ *     Finds a beacon's ID from its identifiers (UUID, major, minor) in constant time, without allocating,
+ *     so every ranging result can be matched to the map.
+ * </p>
+ *
+ * <p>
+ *     The UUIDs are interned (a venue normally has only one or two),
+ *     and each beacon is keyed by its UUID's index, major, and minor packed into a <code>long</code>,
+ *     in an open-addressing hash table with linear probing.
+ * </p>
+ *
+ * @see MapSnapshot#findBeaconId(UUID, int, int)
+ */
+class BeaconIndex {
+
+    private static final String TAG = "BeaconIndex";
+
+    private static final long EMPTY_KEY = -1;
+
+    /**
+     * UUID index -> UUID.
+     */
+    private final UUID[] uuids;
+
+    /**
+     * Slot -> packed key, or {@link #EMPTY_KEY}.
+     */
+    private final long[] keys;
+
+    /**
+     * Slot -> beacon ID.
+     */
+    private final int[] beaconIds;
+
+    private final int mask;
+
+
+
+
+    BeaconIndex(List<Beacon> beacons) {
+        // Intern the UUIDs
+        ArrayList<UUID> uuidList = new ArrayList<>();
+        for (Beacon beacon : beacons) {
+            if (!uuidList.contains(beacon.getUUID())) {
+                uuidList.add(beacon.getUUID());
+            }
+        }
+        uuids = uuidList.toArray(new UUID[uuidList.size()]);
+
+        // Keep the table at most half full, so probe sequences stay short
+        int capacity = 2;
+        while (capacity < 2 * beacons.size()) {
+            capacity *= 2;
+        }
+        mask = capacity - 1;
+
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        beaconIds = new int[capacity];
+
+        for (int beaconId = 0; beaconId < beacons.size(); beaconId++) {
+            Beacon beacon = beacons.get(beaconId);
+            if (!isValid(beacon.getMajor(), beacon.getMinor())) {
+                Log.e(TAG, "BeaconIndex(): Major or minor out of range\n" + beacon);
+                continue;
+            }
+
+            long key = getKey(getUUIDIndex(beacon.getUUID()), beacon.getMajor(), beacon.getMinor());
+
+            int slot = getSlot(key);
+            while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (keys[slot] == key) {
+                Log.e(TAG, "BeaconIndex(): Duplicate beacon identifiers\n" + beacon);
+                continue;
+            }
+
+            keys[slot] = key;
+            beaconIds[slot] = beaconId;
+        }
+    }
+
+
+    /**
+     * @return The beacon ID, or -1 if no beacon has these identifiers.
+     */
+    int findBeaconId(UUID uuid, int major, int minor) {
+        int uuidIndex = getUUIDIndex(uuid);
+        if (uuidIndex == -1 || !isValid(major, minor)) {
+            return -1;
+        }
+
+        long key = getKey(uuidIndex, major, minor);
+        for (int slot = getSlot(key); keys[slot] != EMPTY_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return beaconIds[slot];
+            }
+        }
+        return -1;
+    }
+
+
+    private int getUUIDIndex(UUID uuid) {
+        // Usually the same object as in the map, but compare the values anyway
+        for (int i = 0; i < uuids.length; i++) {
+            if (uuids[i] == uuid) {
+                return i;
+            }
+        }
+        for (int i = 0; i < uuids.length; i++) {
+            if (uuids[i].equals(uuid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Major and minor are both unsigned 16-bit values.
+     */
+    private static boolean isValid(int major, int minor) {
+        return (major & ~0xFFFF) == 0 && (minor & ~0xFFFF) == 0;
+    }
+
+    private static long getKey(int uuidIndex, int major, int minor) {
+        return ((long) uuidIndex << 32) | ((long) major << 16) | minor;
+    }
+
+    private int getSlot(long key) {
+        // Mix the bits (from MurmurHash3), since majors and minors are often sequential
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+}
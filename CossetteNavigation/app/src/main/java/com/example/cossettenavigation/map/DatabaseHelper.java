@@ -5,14 +5,22 @@ import android.content.Context;
 import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
 
 /**
- * <h1>[Unused]</h1>
+ * <h1>Map database</h1>
+ *
+ * <p>
+ *     Copies <code>assets/databases/map.db</code> on first use, and again whenever {@link #DB_VERSION} is increased
+ *     (the database is read-only, so it is replaced rather than upgraded).
+ * </p>
+ *
+ * @see MapLoader
  */
 public class DatabaseHelper extends SQLiteAssetHelper {
 
     private static final String DB_NAME = "map.db";
-    private static final int DB_VERSION = 1;
+    static final int DB_VERSION = 3;
 
     public DatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        setForcedUpgrade();
     }
 }
@@ -4,6 +4,7 @@ import com.example.cossettenavigation.Utilities;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * A floor of the building.
@@ -20,6 +21,16 @@ public class Floor implements Serializable {
 
     private ArrayList<Zone> zones = new ArrayList<>();
 
+    /**
+     * The beacons and zones already added, so large floors don't search the lists for duplicates.
+     */
+    private HashSet<Object> members = new HashSet<>();
+
+    /**
+     * Index in the {@link MapSnapshot} this floor is part of, or -1 if none.
+     */
+    private int id = -1;
+
 
     /**
      * Constructor using an absolute position.
@@ -58,6 +69,14 @@ public class Floor implements Serializable {
         return zPosition;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     public ArrayList<AnchorBeacon> getAnchorBeacons() {
         return anchorBeacons;
     }
@@ -79,19 +98,19 @@ public class Floor implements Serializable {
 
 
     public void addAnchorBeacon(AnchorBeacon anchorBeacon) {
-        if (!this.anchorBeacons.contains(anchorBeacon)) {
+        if (members.add(anchorBeacon)) {
             this.anchorBeacons.add(anchorBeacon);
         }
     }
 
     public void addSupportBeacon(SupportBeacon supportBeacon) {
-        if (!this.supportBeacons.contains(supportBeacon)) {
+        if (members.add(supportBeacon)) {
             this.supportBeacons.add(supportBeacon);
         }
     }
 
     public void addZone(Zone zone) {
-        if (!this.zones.contains(zone)) {
+        if (members.add(zone)) {
             this.zones.add(zone);
         }
     }
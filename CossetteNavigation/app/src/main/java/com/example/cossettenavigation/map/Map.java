@@ -2,7 +2,8 @@ package com.example.cossettenavigation.map;
 
 import android.util.Log;
 
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * <h1>Mapping data</h1>
@@ -33,6 +34,15 @@ import java.util.ArrayList;
  *     Key areas within a floor or building
  *     (e.g. hallways, floors, rectangular spaces, stairs, elevators).
  * </p>
+ *
+ * <h2>Snapshot</h2>
+ * <p>
+ *     All of the above is published as one immutable {@link MapSnapshot},
+ *     which can be read from any thread and replaced as a whole (e.g. when a new map is loaded).
+ *     The venue is loaded from the map database by {@link MapLoader};
+ *     until then (or if it can't be loaded), a copy of the database bundled with the code is used
+ *     ({@link #FALLBACK_MAP_RESOURCE}).
+ * </p>
  */
 public class Map {
 
@@ -44,44 +54,67 @@ public class Map {
     private static final double ELEVATOR_TRAVEL_SPEED = 0.5;
 
     /**
-     * Default UUID of Estimote beacons.
+     * The map database saved as a {@link MapFile} (a resource in this package, written by <code>MapAssetWriter</code>),
+     * used until a map is loaded or if the database can't be loaded.
      */
-    private static final String DEFAULT_UUID = "B9407F30-F5F8-466E-AFF9-25556B57FE6D";
+    static final String FALLBACK_MAP_RESOURCE = "fallback_map.bin";
 
-    public static ArrayList<Floor> floors = new ArrayList<>();
-    public static ArrayList<AnchorBeacon> anchorBeacons = new ArrayList<>();
-    public static ArrayList<SupportBeacon> supportBeacons = new ArrayList<>();
-    public static ArrayList<Zone> zones = new ArrayList<>();
+    /**
+     * The resource is part of the app, so it isn't tied to an app version.
+     */
+    static final int FALLBACK_MAP_APP_VERSION = 0;
 
     /*
         Grid properties
 
         Originally, the grid was defined with arbitrary units.
         Eventually, the grid was simplified to make 1 unit equal to 1 metre.
+        The grid dimensions are part of the snapshot.
      */
-    public static double gridWidth = 1;
-    public static double gridHeight = 1;
-    public static double metresPerGridUnit = 1;
+    public static final double metresPerGridUnit = 1;
 
+    /**
+     * The current mapping data, replaced as a whole so readers never see a partially updated map.
+     * Null until a map is loaded ({@link MapLoader}) or the fallback map is first needed.
+     */
+    private static volatile MapSnapshot snapshot;
 
 
 
-    public static ArrayList<Beacon> getAllBeacons() {
-        ArrayList<Beacon> allBeacons = new ArrayList<>();
-        allBeacons.addAll(anchorBeacons);
-        allBeacons.addAll(supportBeacons);
-        return allBeacons;
-    }
 
-    private static void setGridDimensions() {
-        for (Beacon beacon : getAllBeacons()) {
-            if (beacon.getXPosition() > gridWidth) {
-                gridWidth = beacon.getXPosition();
-            }
-            if (beacon.getYPosition() > gridHeight) {
-                gridHeight = beacon.getYPosition();
+    /**
+     * @return The current mapping data, or the fallback map if none has been loaded.
+     */
+    public static MapSnapshot getSnapshot() {
+        MapSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            synchronized (Map.class) {
+                if (snapshot == null) {
+                    snapshot = readFallbackSnapshot();
+                }
+                currentSnapshot = snapshot;
             }
         }
+        return currentSnapshot;
+    }
+
+    /**
+     * Replaces the mapping data. Anything derived from the previous snapshot
+     * (e.g. the pathfinding graph) is rebuilt the next time it is used.
+     */
+    public static void setSnapshot(MapSnapshot snapshot) {
+        if (snapshot == null) {
+            Log.e(TAG, "setSnapshot(): Snapshot is null");
+            return;
+        }
+        Map.snapshot = snapshot;
+    }
+
+    /**
+     * @return All beacons of the current snapshot (anchor beacons, then support beacons).
+     */
+    public static List<Beacon> getAllBeacons() {
+        return getSnapshot().getAllBeacons();
     }
 
 
@@ -110,6 +143,13 @@ public class Map {
                         beaconTwo.getFloor().getZPosition()) );
     }
 
+    /**
+     * @return The fastest average speed of any zone type (in metres/second).
+     */
+    public static double getMaximumTravelSpeed() {
+        return Math.max(WALKING_TRAVEL_SPEED, Math.max(STAIRS_TRAVEL_SPEED, ELEVATOR_TRAVEL_SPEED));
+    }
+
     /**
      * @return The estimated travel time between the two beacons in a straight line.
      */
@@ -157,238 +197,24 @@ public class Map {
 
 
 
-    private static Floor addFloor(Floor floor) {
-        floors.add(floor);
-        return floor;
-    }
-
-    private static AnchorBeacon addAnchorBeacon(AnchorBeacon anchorBeacon) {
-        anchorBeacons.add(anchorBeacon);
-        return anchorBeacon;
-    }
-
-    private static SupportBeacon addSupportBeacon(SupportBeacon supportBeacon) {
-        supportBeacons.add(supportBeacon);
-        return supportBeacon;
-    }
-
-    private static Zone addZone(Zone zone) {
-        zones.add(zone);
-        return zone;
-    }
-
-
-
-
-    /*
-        Define floors, beacons, and zones
-
-        1. define floors
-        2. define beacons -> associate with floors
-        3. define zones -> add beacons
+    /**
+     * Loads {@link #FALLBACK_MAP_RESOURCE}.
+     * @throws IllegalStateException If the resource is missing or was saved from another database version.
      */
-    static {
-        //Log.v(TAG, "static {}");
-
-
-        // Start floor 1
-
-        Floor floor1 = addFloor(new Floor("Floor 1", 0));
-
-        AnchorBeacon white17 = addAnchorBeacon(new AnchorBeacon(
-                "white17",
-                "Front Entrance",
-                floor1,
-                5, 0,
-                DEFAULT_UUID, 46447, 25300));
-
-        SupportBeacon white5 = addSupportBeacon(new SupportBeacon(
-                "white5",
-                "Trophy Case",
-                floor1,
-                white17, -5, 8,
-                DEFAULT_UUID, 33753, 28870));
-
-        AnchorBeacon white10 = addAnchorBeacon(new AnchorBeacon(
-                "white10",
-                "Dynamite Stairs",
-                floor1,
-                white5, 2, 15,
-                DEFAULT_UUID, 65261, 60647));
+    private static MapSnapshot readFallbackSnapshot() {
+        //Log.v(TAG, "readFallbackSnapshot()");
 
-        AnchorBeacon white3 = addAnchorBeacon(new AnchorBeacon(
-                "white3",
-                "Grenade",
-                floor1,
-                white10, -2,20,
-                DEFAULT_UUID, 9953, 12088));
-
-        AnchorBeacon white11 = addAnchorBeacon(new AnchorBeacon(
-                "white11",
-                "Floor 1 Elevator",
-                floor1,
-                white10, -5, 0,
-                DEFAULT_UUID, 18120, 25600));
-
-        // End floor 1
-
-
-        // Start floor 2
-
-        Floor floor2 = addFloor(new Floor("Floor 2", floor1, 3));
-
-        AnchorBeacon white15 = addAnchorBeacon(new AnchorBeacon(
-                "white15",
-                "Health Lab Staircase",
-                floor2,
-                white10, 2, 0,
-                DEFAULT_UUID, 2949, 35856));
-
-        AnchorBeacon white1 = addAnchorBeacon(new AnchorBeacon(
-                "white1",
-                "Health Lab Corridor",
-                floor2,
-                white15, 0, -8,
-                DEFAULT_UUID, 6607, 59029));
-
-        AnchorBeacon white25 = addAnchorBeacon(new AnchorBeacon(
-                "white25",
-                "East Staircase",
-                floor2,
-                white1, 2, -3,
-                DEFAULT_UUID, 27415, 8243));
-
-//        AnchorBeacon white19 = addAnchorBeacon(new AnchorBeacon(
-//                "white19",
-//                "Entrance Stair",
-//                floor2,
-//                white1, -3, -5,
-//                DEFAULT_UUID, 21519, 1525));
-
-        AnchorBeacon white18 = addAnchorBeacon(new AnchorBeacon(
-                "white18",
-                "Game Room & Elevator",
-                floor2,
-                white15,-12,0,
-                DEFAULT_UUID, 3531, 48649));
-
-        // End floor 2
-
-
-        // Start floor 3
-
-        Floor floor3 = addFloor(new Floor("Floor 3", floor2, 2));
-
-        AnchorBeacon white12 = addAnchorBeacon(new AnchorBeacon(
-                "white12",
-                "West Patio Entrance",
-                floor3,
-                white15, 5, 0,
-                DEFAULT_UUID, 64248, 32245));
-
-        AnchorBeacon white24 = addAnchorBeacon(new AnchorBeacon(
-                "white24",
-                "East Patio Entrance",
-                floor3,
-                white25, 5,0,
-                DEFAULT_UUID, 6433, 58059));
-
-        // End floor 3
-
-
-        // Zones
-
-        Zone z5 = addZone(new Zone("Front Entrance",Zone.ZoneType.ENTRANCE, true));
-        z5.addAnchorBeacons(white17);
-
-        Zone z1 = addZone(new Zone("Main Hallway", Zone.ZoneType.HALLWAY, true));
-        z1.addAnchorBeacons(white17, white10, white3);
-        z1.addSupportBeacons(white5);
-
-        Zone z6 = addZone(new Zone("Main Intersection", Zone.ZoneType.HALLWAY, true));
-        z6.addAnchorBeacons(white10, white11);
-
-        Zone z2 = addZone(new Zone("Middle Stairs", Zone.ZoneType.STAIRS, false));
-        z2.addAnchorBeacons(white10, white15);
-
-        Zone z4 = addZone(new Zone("Open Area", Zone.ZoneType.ROOM, true));
-        z4.addAnchorBeacons(white25, /*white19,*/ white1);
-
-        Zone z3 = addZone(new Zone("Health Lab", Zone.ZoneType.HALLWAY, true));
-        z3.addAnchorBeacons(white15, white1);
-
-        Zone z7 = addZone(new Zone("West Patio Stairs", Zone.ZoneType.STAIRS, false));
-        z7.addAnchorBeacons(white15, white12);
-
-        Zone z8 = addZone(new Zone("Elevator", Zone.ZoneType.ELEVATOR, false));
-        z8.addAnchorBeacons(white18, white11);
-
-        Zone z9 = addZone(new Zone("Games Room", Zone.ZoneType.HALLWAY, true));
-        z9.addAnchorBeacons(white15,white18);
-
-        Zone z10 = addZone(new Zone("East Patio Stairs", Zone.ZoneType.ELEVATOR,false));
-        z10.addAnchorBeacons(white25, white24);
-
-        Zone z11 = addZone(new Zone("Patio",Zone.ZoneType.ROOM,true));
-        z11.addAnchorBeacons(white24,white12);
-
-        // End Zones
-
-
-        // Grid dimensions
-        setGridDimensions();
-
-
-
-
-        // Log all mapping data
-/*        Log.v(TAG, String.format("Grid: %.0f x %.0f", gridWidth, gridHeight));
-        for (Floor floor : floors) {
-            Log.v(TAG, floor.toString());
+        InputStream inputStream = Map.class.getResourceAsStream(FALLBACK_MAP_RESOURCE);
+        if (inputStream == null) {
+            throw new IllegalStateException("Missing " + FALLBACK_MAP_RESOURCE);
         }
-        for (AnchorBeacon anchorBeacon : anchorBeacons) {
-            Log.v(TAG, anchorBeacon.toString());
-        }
-        for (SupportBeacon supportBeacon : supportBeacons) {
-            Log.v(TAG, supportBeacon.toString());
+
+        MapSnapshot fallbackSnapshot = MapFile.read(inputStream, DatabaseHelper.DB_VERSION, FALLBACK_MAP_APP_VERSION);
+        if (fallbackSnapshot == null) {
+            throw new IllegalStateException(
+                    FALLBACK_MAP_RESOURCE + " doesn't match the map database, run MapAssetWriter");
         }
-        for (Zone zone : zones) {
-            Log.v(TAG, zone.toString());
-        }*/
-
-
-
-
-/*        ICE BEACONS that were used previously for debugging.
-        AnchorBeacon ice1 = addAnchorBeacon(new AnchorBeacon(
-                "ice1 - F2",
-                floor2,
-                20, 100,
-                DEFAULT_UUID, 9051, 52752));
-        AnchorBeacon ice2 = addAnchorBeacon(new AnchorBeacon(
-                "ice2 - F2",
-                floor2,
-                0, 75,
-                DEFAULT_UUID, 27598, 15040));
-       AnchorBeacon ice3 = addAnchorBeacon(new AnchorBeacon(
-                "ice3 - F2",
-                floor2,
-                10, 0,
-                DEFAULT_UUID, 62693, 23343));
-        AnchorBeacon ice4 = addAnchorBeacon(new AnchorBeacon(
-                "ice4 - F2",
-                floor2,
-                50, 100,
-                DEFAULT_UUID, 42484, 10171));
-
-
-        Zone z1 = addZone(new Zone("Open Area - Floor 2", Zone.ZoneType.ROOM));
-        z1.addAnchorBeacons(ice1, ice2, ice4);
-
-        Zone z2 = addZone("2");
-        Zone z3 = addZone("3");
-        Zone z4 = addZone("4");
-        Zone z5 = addZone("5");*/
+        return fallbackSnapshot;
     }
 
 }
@@ -0,0 +1,464 @@
+package com.example.cossettenavigation.map;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <h1>Map file</h1>
+ *
+ * <p>
+ *     A compact binary copy of a {@link MapSnapshot}, including its precomputed connections,
+ *     which is memory-mapped when it is read instead of being parsed row by row.
+ * </p>
+ *
+ * <p>
+ *     Little-endian; a header (magic, format version, source version, app version, counts),
+ *     then one array per attribute (e.g. all beacon x positions, then all y positions),
+ *     so each array is read with a single bulk copy.
+ *     Names, descriptions and zone types are stored together as UTF-8 at the end.
+ * </p>
+ *
+ * <p>
+ *     Only data from the source is stored, so the file doesn't go stale when the code changes:
+ *     zone types are stored by name (not by ordinal), and travel times are estimated again when the file is read.
+ *     The file is also only read by the same app version that saved it.
+ * </p>
+ *
+ * @see MapLoader
+ * @see Map#FALLBACK_MAP_RESOURCE
+ */
+class MapFile {
+
+    private static final String TAG = "MapFile";
+
+    private static final int FILE_MAGIC = 0x504D4E43;
+    private static final int FILE_VERSION = 3;
+
+    private static final int HEADER_SIZE = 4 * 11;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+
+
+    /**
+     * Saves the snapshot, to be loaded by {@link #read(File, int, int)}.
+     * @param sourceVersion Version of the data the snapshot was loaded from, so outdated files can be detected.
+     * @param appVersion Version of the app saving the file, so files saved by other versions can be detected.
+     */
+    static void write(MapSnapshot snapshot, int sourceVersion, int appVersion, OutputStream outputStream)
+            throws IOException {
+        int floorCount = snapshot.getFloors().size();
+        int beaconCount = snapshot.getBeaconCount();
+        int zoneCount = snapshot.getZones().size();
+        int connectionCount = snapshot.getConnectionCount();
+
+        int zoneMemberCount = 0;
+        for (Zone zone : snapshot.getZones()) {
+            zoneMemberCount += zone.getAnchorBeacons().size() + zone.getSupportBeacons().size();
+        }
+
+        // Strings - floor names, beacon names, beacon descriptions, zone names, zone types
+        ArrayList<byte[]> strings = new ArrayList<>(floorCount + 2 * beaconCount + 2 * zoneCount);
+        for (Floor floor : snapshot.getFloors()) {
+            strings.add(floor.getName().getBytes(UTF_8));
+        }
+        for (Beacon beacon : snapshot.getAllBeacons()) {
+            strings.add(beacon.getName().getBytes(UTF_8));
+        }
+        for (Beacon beacon : snapshot.getAllBeacons()) {
+            strings.add(beacon.getDescription().getBytes(UTF_8));
+        }
+        for (Zone zone : snapshot.getZones()) {
+            strings.add(zone.getName().getBytes(UTF_8));
+        }
+        for (Zone zone : snapshot.getZones()) {
+            strings.add(zone.getZoneType().name().getBytes(UTF_8));
+        }
+
+        int stringByteCount = 0;
+        for (byte[] string : strings) {
+            stringByteCount += string.length;
+        }
+
+        int size = HEADER_SIZE +
+                8 * floorCount +
+                (8 + 8 + 4 + 8 + 8 + 4 + 4 + 8 + 8) * beaconCount +
+                4 * zoneCount + 4 * (zoneCount + 1) + 4 * zoneMemberCount +
+                4 * (snapshot.getAnchorBeaconCount() + 1) + (4 + 4) * connectionCount +
+                4 * (strings.size() + 1) + stringByteCount;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Header
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putInt(sourceVersion);
+        buffer.putInt(appVersion);
+        buffer.putInt(floorCount);
+        buffer.putInt(beaconCount);
+        buffer.putInt(snapshot.getAnchorBeaconCount());
+        buffer.putInt(zoneCount);
+        buffer.putInt(zoneMemberCount);
+        buffer.putInt(connectionCount);
+        buffer.putInt(strings.size());
+
+        // Floors
+        for (Floor floor : snapshot.getFloors()) {
+            buffer.putDouble(floor.getZPosition());
+        }
+
+        // Beacons
+        List<Beacon> beacons = snapshot.getAllBeacons();
+        for (Beacon beacon : beacons) {
+            buffer.putDouble(beacon.getXPosition());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putDouble(beacon.getYPosition());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putInt(beacon.getFloor().getId());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putLong(beacon.getUUID().getMostSignificantBits());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putLong(beacon.getUUID().getLeastSignificantBits());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putInt(beacon.getMajor());
+        }
+        for (Beacon beacon : beacons) {
+            buffer.putInt(beacon.getMinor());
+        }
+        // NaN if not calibrated
+        for (Beacon beacon : beacons) {
+            PathLossModel pathLossModel = beacon.getPathLossModel();
+            buffer.putDouble((pathLossModel != null) ? pathLossModel.getMeasuredPower() : Double.NaN);
+        }
+        for (Beacon beacon : beacons) {
+            PathLossModel pathLossModel = beacon.getPathLossModel();
+            buffer.putDouble((pathLossModel != null) ? pathLossModel.getPathLossExponent() : Double.NaN);
+        }
+
+        // Zones, with their beacons (anchor beacons, then support beacons)
+        for (Zone zone : snapshot.getZones()) {
+            buffer.putInt(zone.getIsDestination() ? 1 : 0);
+        }
+
+        int zoneMemberOffset = 0;
+        buffer.putInt(zoneMemberOffset);
+        for (Zone zone : snapshot.getZones()) {
+            zoneMemberOffset += zone.getAnchorBeacons().size() + zone.getSupportBeacons().size();
+            buffer.putInt(zoneMemberOffset);
+        }
+        for (Zone zone : snapshot.getZones()) {
+            for (Beacon beacon : zone.getAnchorBeacons()) {
+                buffer.putInt(beacon.getId());
+            }
+            for (Beacon beacon : zone.getSupportBeacons()) {
+                buffer.putInt(beacon.getId());
+            }
+        }
+
+        // Connections
+        for (int i = 0; i <= snapshot.getAnchorBeaconCount(); i++) {
+            buffer.putInt(snapshot.getConnectionOffset(i));
+        }
+        for (int connection = 0; connection < connectionCount; connection++) {
+            buffer.putInt(snapshot.getConnectionTarget(connection));
+        }
+        for (int connection = 0; connection < connectionCount; connection++) {
+            buffer.putInt(snapshot.getConnectionZoneId(connection));
+        }
+
+        // Strings
+        int stringOffset = 0;
+        buffer.putInt(stringOffset);
+        for (byte[] string : strings) {
+            stringOffset += string.length;
+            buffer.putInt(stringOffset);
+        }
+        for (byte[] string : strings) {
+            buffer.put(string);
+        }
+
+        BufferedOutputStream output = new BufferedOutputStream(outputStream);
+        output.write(buffer.array());
+        output.flush();
+    }
+
+    /**
+     * Memory-maps the file and loads it.
+     * @return The map, or null if the file doesn't exist, is invalid,
+     * or wasn't saved from the source version by the app version.
+     */
+    static MapSnapshot read(File file, int sourceVersion, int appVersion) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return read(buffer, sourceVersion, appVersion);
+
+        } catch (IOException e) {
+            Log.e(TAG, "read(): File could not be read", e);
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "read(): File could not be closed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the whole stream (e.g. a resource) and loads it. The stream is closed here.
+     * @return The map, or null if the stream can't be read, is invalid,
+     * or wasn't saved from the source version by the app version.
+     */
+    static MapSnapshot read(InputStream inputStream, int sourceVersion, int appVersion) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int length;
+            while ((length = inputStream.read(chunk)) != -1) {
+                bytes.write(chunk, 0, length);
+            }
+
+            return read(ByteBuffer.wrap(bytes.toByteArray()), sourceVersion, appVersion);
+
+        } catch (IOException e) {
+            Log.e(TAG, "read(): Stream could not be read", e);
+            return null;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "read(): Stream could not be closed", e);
+            }
+        }
+    }
+
+    /**
+     * Loads a snapshot saved by {@link #write(MapSnapshot, int, int, OutputStream)}.
+     * @return The map, or null if the data is invalid or wasn't saved from the source version by the app version.
+     */
+    static MapSnapshot read(ByteBuffer buffer, int sourceVersion, int appVersion) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != FILE_MAGIC) {
+                Log.e(TAG, "read(): Not a map file");
+                return null;
+            }
+
+            int version = buffer.getInt();
+            if (version != FILE_VERSION) {
+                Log.e(TAG, String.format("read(): File version %d is not supported", version));
+                return null;
+            }
+
+            if (buffer.getInt() != sourceVersion) {
+                Log.v(TAG, "read(): File was saved from a different map version");
+                return null;
+            }
+
+            if (buffer.getInt() != appVersion) {
+                Log.v(TAG, "read(): File was saved by a different app version");
+                return null;
+            }
+
+            return readSnapshot(buffer);
+
+        } catch (BufferUnderflowException e) {
+            Log.e(TAG, "read(): File is truncated", e);
+            return null;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            Log.e(TAG, "read(): Invalid map", e);
+            return null;
+        }
+    }
+
+
+
+
+    private static MapSnapshot readSnapshot(ByteBuffer buffer) {
+        int floorCount = buffer.getInt();
+        int beaconCount = buffer.getInt();
+        int anchorBeaconCount = buffer.getInt();
+        int zoneCount = buffer.getInt();
+        int zoneMemberCount = buffer.getInt();
+        int connectionCount = buffer.getInt();
+        int stringCount = buffer.getInt();
+
+        if (floorCount < 0 || beaconCount < 0 || anchorBeaconCount < 0 || anchorBeaconCount > beaconCount ||
+                zoneCount < 0 || zoneMemberCount < 0 || connectionCount < 0 ||
+                stringCount != floorCount + 2 * beaconCount + 2 * zoneCount) {
+            throw new IllegalArgumentException("Invalid counts");
+        }
+
+        // Read each array in bulk
+        double[] floorZPositions = readDoubles(buffer, floorCount);
+
+        double[] beaconXPositions = readDoubles(buffer, beaconCount);
+        double[] beaconYPositions = readDoubles(buffer, beaconCount);
+        int[] beaconFloorIds = readInts(buffer, beaconCount);
+        long[] beaconUUIDMostBits = readLongs(buffer, beaconCount);
+        long[] beaconUUIDLeastBits = readLongs(buffer, beaconCount);
+        int[] beaconMajors = readInts(buffer, beaconCount);
+        int[] beaconMinors = readInts(buffer, beaconCount);
+        double[] beaconMeasuredPowers = readDoubles(buffer, beaconCount);
+        double[] beaconPathLossExponents = readDoubles(buffer, beaconCount);
+
+        int[] zoneIsDestinations = readInts(buffer, zoneCount);
+        int[] zoneMemberOffsets = readInts(buffer, zoneCount + 1);
+        int[] zoneMemberBeaconIds = readInts(buffer, zoneMemberCount);
+
+        int[] connectionOffsets = readInts(buffer, anchorBeaconCount + 1);
+        int[] connectionTargets = readInts(buffer, connectionCount);
+        int[] connectionZoneIds = readInts(buffer, connectionCount);
+
+        int[] stringOffsets = readInts(buffer, stringCount + 1);
+        byte[] stringBytes = new byte[stringOffsets[stringCount]];
+        buffer.get(stringBytes);
+
+        // Construct the map objects
+        int string = 0;
+
+        ArrayList<Floor> floors = new ArrayList<>(floorCount);
+        for (int i = 0; i < floorCount; i++) {
+            floors.add(new Floor(decode(stringBytes, stringOffsets, string++), floorZPositions[i]));
+        }
+
+        Beacon[] beacons = new Beacon[beaconCount];
+        ArrayList<AnchorBeacon> anchorBeacons = new ArrayList<>(anchorBeaconCount);
+        ArrayList<SupportBeacon> supportBeacons = new ArrayList<>(beaconCount - anchorBeaconCount);
+
+        // Venues almost always use a single UUID, so only convert it when it changes
+        String uuid = null;
+        long uuidMostBits = 0;
+        long uuidLeastBits = 0;
+
+        for (int i = 0; i < beaconCount; i++) {
+            Floor floor = floors.get(beaconFloorIds[i]);
+            String name = decode(stringBytes, stringOffsets, string);
+            String description = decode(stringBytes, stringOffsets, string + beaconCount);
+            string++;
+
+            if (uuid == null || beaconUUIDMostBits[i] != uuidMostBits || beaconUUIDLeastBits[i] != uuidLeastBits) {
+                uuidMostBits = beaconUUIDMostBits[i];
+                uuidLeastBits = beaconUUIDLeastBits[i];
+                uuid = new UUID(uuidMostBits, uuidLeastBits).toString();
+            }
+
+            if (i < anchorBeaconCount) {
+                AnchorBeacon anchorBeacon = new AnchorBeacon(
+                        name, description, floor,
+                        beaconXPositions[i], beaconYPositions[i],
+                        uuid, beaconMajors[i], beaconMinors[i]);
+                anchorBeacons.add(anchorBeacon);
+                beacons[i] = anchorBeacon;
+            } else {
+                SupportBeacon supportBeacon = new SupportBeacon(
+                        name, description, floor,
+                        beaconXPositions[i], beaconYPositions[i],
+                        uuid, beaconMajors[i], beaconMinors[i]);
+                supportBeacons.add(supportBeacon);
+                beacons[i] = supportBeacon;
+            }
+
+            if (!Double.isNaN(beaconMeasuredPowers[i])) {
+                beacons[i].setPathLossModel(new PathLossModel(beaconMeasuredPowers[i], beaconPathLossExponents[i]));
+            }
+        }
+        string += beaconCount;
+
+        ArrayList<Zone> zones = new ArrayList<>(zoneCount);
+
+        for (int i = 0; i < zoneCount; i++) {
+            // Throws IllegalArgumentException for a type that no longer exists
+            Zone.ZoneType type = Zone.ZoneType.valueOf(decode(stringBytes, stringOffsets, string + zoneCount));
+            Zone zone = new Zone(decode(stringBytes, stringOffsets, string), type, zoneIsDestinations[i] != 0);
+            string++;
+
+            for (int member = zoneMemberOffsets[i]; member < zoneMemberOffsets[i + 1]; member++) {
+                Beacon beacon = beacons[zoneMemberBeaconIds[member]];
+
+                if (beacon instanceof AnchorBeacon) {
+                    zone.addAnchorBeacons((AnchorBeacon) beacon);
+                } else {
+                    zone.addSupportBeacons((SupportBeacon) beacon);
+                }
+            }
+
+            zones.add(zone);
+        }
+        string += zoneCount;
+
+        // Travel times are estimated by the current code, not saved
+        double[] connectionTravelTimes = new double[connectionCount];
+        for (int i = 0; i < anchorBeaconCount; i++) {
+            for (int connection = connectionOffsets[i]; connection < connectionOffsets[i + 1]; connection++) {
+                connectionTravelTimes[connection] = Map.estimateTravelTime(
+                        anchorBeacons.get(i),
+                        anchorBeacons.get(connectionTargets[connection]),
+                        zones.get(connectionZoneIds[connection]));
+            }
+        }
+
+        return new MapSnapshot(floors, anchorBeacons, supportBeacons, zones,
+                connectionOffsets, connectionTargets, connectionZoneIds, connectionTravelTimes);
+    }
+
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static long[] readLongs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+
+    private static String decode(byte[] stringBytes, int[] stringOffsets, int string) {
+        return new String(stringBytes, stringOffsets[string], stringOffsets[string + 1] - stringOffsets[string], UTF_8);
+    }
+
+}
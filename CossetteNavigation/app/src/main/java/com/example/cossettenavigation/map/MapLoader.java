@@ -0,0 +1,413 @@
+package com.example.cossettenavigation.map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.example.cossettenavigation.BuildConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>Map loader</h1>
+ *
+ * <p>
+ *     Reads the mapping data from the map database (<code>assets/databases/map.db</code>),
+ *     so a venue can be added or changed without recompiling.
+ * </p>
+ *
+ * <p>
+ *     Tables (rows are read in <code>_ID</code> order):
+ * </p>
+ * <ul>
+ *     <li><code>floors (_ID, name, z_position)</code></li>
+ *     <li><code>beacons (_ID, name, description, floor_id, is_anchor, x_position, y_position, uuid, major, minor,
+ *     measured_power, path_loss_exponent)</code>, where the last two are null if the beacon isn't calibrated
+ *     (see {@link PathLossModel})</li>
+ *     <li><code>zones (_ID, name, zone_type, is_destination)</code>, where <code>zone_type</code> is a {@link Zone.ZoneType} name</li>
+ *     <li><code>zone_beacons (_ID, zone_id, beacon_id)</code></li>
+ * </ul>
+ *
+ * <p>
+ *     Each table is read with one query, straight into arrays, before any map objects are constructed.
+ *     IDs are matched with binary searches of the (sorted) <code>_ID</code> columns.
+ * </p>
+ *
+ * <p>
+ *     The loaded map is then saved as a {@link MapFile} in the app's files directory,
+ *     and later startups memory-map that file instead of querying the database,
+ *     until the database version or the app version changes.
+ * </p>
+ *
+ * @see Map
+ */
+public class MapLoader {
+
+    private static final String TAG = "MapLoader";
+
+    private static final String ID = "_ID";
+
+    private static final String MAP_FILE_NAME = "map.bin";
+
+    /**
+     * The map tables, so they can also be read outside the app
+     * (e.g. with JDBC by <code>MapAssetWriter</code>, which bundles the database with the code).
+     */
+    interface Tables {
+
+        /**
+         * @return The columns of all the rows of the table, in <code>_ID</code> order.
+         */
+        Rows query(String table, String... columns);
+    }
+
+    /**
+     * The rows of a query (the methods of {@link Cursor} used here).
+     */
+    interface Rows {
+        int getCount();
+        boolean moveToNext();
+        boolean isNull(int column);
+        long getLong(int column);
+        int getInt(int column);
+        double getDouble(int column);
+        String getString(int column);
+        void close();
+    }
+
+
+
+
+    /**
+     * Loads the map saved from the current database version by the current app version,
+     * or else opens the map database and loads it.
+     * @return The map, or null if the database can't be opened or doesn't contain a valid map.
+     */
+    public static MapSnapshot load(Context context) {
+        File mapFile = new File(context.getFilesDir(), MAP_FILE_NAME);
+
+        MapSnapshot snapshot = MapFile.read(mapFile, DatabaseHelper.DB_VERSION, BuildConfig.VERSION_CODE);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(context);
+        try {
+            snapshot = load(databaseHelper.getReadableDatabase());
+        } catch (SQLiteException e) {
+            Log.e(TAG, "load(): Map database could not be opened", e);
+            return null;
+        } finally {
+            databaseHelper.close();
+        }
+
+        if (snapshot != null) {
+            writeMapFile(snapshot, mapFile);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The map, or null if the database doesn't contain a valid map.
+     */
+    public static MapSnapshot load(final SQLiteDatabase database) {
+        try {
+            return readSnapshot(new Tables() {
+                @Override
+                public Rows query(String table, String... columns) {
+                    return new CursorRows(database.query(table, columns, null, null, null, null, ID));
+                }
+            });
+        } catch (SQLiteException e) {
+            Log.e(TAG, "load(): Map tables could not be read", e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "load(): Invalid map", e);
+            return null;
+        }
+    }
+
+
+
+
+    /**
+     * @throws IllegalArgumentException If the tables don't contain a valid map.
+     */
+    static MapSnapshot readSnapshot(Tables tables) {
+
+        // Floors
+
+        long[] floorIds;
+        String[] floorNames;
+        double[] floorZPositions;
+
+        Rows rows = tables.query("floors", ID, "name", "z_position");
+        try {
+            int count = rows.getCount();
+            floorIds = new long[count];
+            floorNames = new String[count];
+            floorZPositions = new double[count];
+
+            for (int i = 0; rows.moveToNext(); i++) {
+                floorIds[i] = rows.getLong(0);
+                floorNames[i] = rows.getString(1);
+                floorZPositions[i] = rows.getDouble(2);
+            }
+        } finally {
+            rows.close();
+        }
+
+
+        // Beacons
+
+        long[] beaconIds;
+        String[] beaconNames;
+        String[] beaconDescriptions;
+        long[] beaconFloorIds;
+        boolean[] beaconIsAnchors;
+        double[] beaconXPositions;
+        double[] beaconYPositions;
+        String[] beaconUUIDs;
+        int[] beaconMajors;
+        int[] beaconMinors;
+        PathLossModel[] beaconPathLossModels;
+
+        rows = tables.query("beacons",
+                ID, "name", "description", "floor_id", "is_anchor",
+                "x_position", "y_position", "uuid", "major", "minor",
+                "measured_power", "path_loss_exponent");
+        try {
+            int count = rows.getCount();
+            beaconIds = new long[count];
+            beaconNames = new String[count];
+            beaconDescriptions = new String[count];
+            beaconFloorIds = new long[count];
+            beaconIsAnchors = new boolean[count];
+            beaconXPositions = new double[count];
+            beaconYPositions = new double[count];
+            beaconUUIDs = new String[count];
+            beaconMajors = new int[count];
+            beaconMinors = new int[count];
+            beaconPathLossModels = new PathLossModel[count];
+
+            for (int i = 0; rows.moveToNext(); i++) {
+                beaconIds[i] = rows.getLong(0);
+                beaconNames[i] = rows.getString(1);
+                beaconDescriptions[i] = rows.getString(2);
+                beaconFloorIds[i] = rows.getLong(3);
+                beaconIsAnchors[i] = rows.getInt(4) != 0;
+                beaconXPositions[i] = rows.getDouble(5);
+                beaconYPositions[i] = rows.getDouble(6);
+                beaconUUIDs[i] = rows.getString(7);
+                beaconMajors[i] = rows.getInt(8);
+                beaconMinors[i] = rows.getInt(9);
+                if (!rows.isNull(10) && !rows.isNull(11)) {
+                    beaconPathLossModels[i] = new PathLossModel(rows.getDouble(10), rows.getDouble(11));
+                }
+            }
+        } finally {
+            rows.close();
+        }
+
+
+        // Zones
+
+        long[] zoneIds;
+        String[] zoneNames;
+        String[] zoneTypes;
+        boolean[] zoneIsDestinations;
+
+        rows = tables.query("zones", ID, "name", "zone_type", "is_destination");
+        try {
+            int count = rows.getCount();
+            zoneIds = new long[count];
+            zoneNames = new String[count];
+            zoneTypes = new String[count];
+            zoneIsDestinations = new boolean[count];
+
+            for (int i = 0; rows.moveToNext(); i++) {
+                zoneIds[i] = rows.getLong(0);
+                zoneNames[i] = rows.getString(1);
+                zoneTypes[i] = rows.getString(2);
+                zoneIsDestinations[i] = rows.getInt(3) != 0;
+            }
+        } finally {
+            rows.close();
+        }
+
+
+        // Zone memberships
+
+        long[] memberZoneIds;
+        long[] memberBeaconIds;
+
+        rows = tables.query("zone_beacons", ID, "zone_id", "beacon_id");
+        try {
+            int count = rows.getCount();
+            memberZoneIds = new long[count];
+            memberBeaconIds = new long[count];
+
+            for (int i = 0; rows.moveToNext(); i++) {
+                memberZoneIds[i] = rows.getLong(1);
+                memberBeaconIds[i] = rows.getLong(2);
+            }
+        } finally {
+            rows.close();
+        }
+
+
+        // Construct the map objects
+
+        ArrayList<Floor> floors = new ArrayList<>(floorIds.length);
+        for (int i = 0; i < floorIds.length; i++) {
+            floors.add(new Floor(floorNames[i], floorZPositions[i]));
+        }
+
+        Beacon[] beacons = new Beacon[beaconIds.length];
+        ArrayList<AnchorBeacon> anchorBeacons = new ArrayList<>();
+        ArrayList<SupportBeacon> supportBeacons = new ArrayList<>();
+
+        for (int i = 0; i < beaconIds.length; i++) {
+            Floor floor = floors.get(findIndex(floorIds, beaconFloorIds[i], "floor"));
+
+            if (beaconIsAnchors[i]) {
+                AnchorBeacon anchorBeacon = new AnchorBeacon(
+                        beaconNames[i], beaconDescriptions[i], floor,
+                        beaconXPositions[i], beaconYPositions[i],
+                        beaconUUIDs[i], beaconMajors[i], beaconMinors[i]);
+                anchorBeacons.add(anchorBeacon);
+                beacons[i] = anchorBeacon;
+            } else {
+                SupportBeacon supportBeacon = new SupportBeacon(
+                        beaconNames[i], beaconDescriptions[i], floor,
+                        beaconXPositions[i], beaconYPositions[i],
+                        beaconUUIDs[i], beaconMajors[i], beaconMinors[i]);
+                supportBeacons.add(supportBeacon);
+                beacons[i] = supportBeacon;
+            }
+            beacons[i].setPathLossModel(beaconPathLossModels[i]);
+        }
+
+        ArrayList<Zone> zones = new ArrayList<>(zoneIds.length);
+        for (int i = 0; i < zoneIds.length; i++) {
+            zones.add(new Zone(zoneNames[i], Zone.ZoneType.valueOf(zoneTypes[i]), zoneIsDestinations[i]));
+        }
+
+        for (int i = 0; i < memberZoneIds.length; i++) {
+            Zone zone = zones.get(findIndex(zoneIds, memberZoneIds[i], "zone"));
+            Beacon beacon = beacons[findIndex(beaconIds, memberBeaconIds[i], "beacon")];
+
+            if (beacon instanceof AnchorBeacon) {
+                zone.addAnchorBeacons((AnchorBeacon) beacon);
+            } else {
+                zone.addSupportBeacons((SupportBeacon) beacon);
+            }
+        }
+
+        if (anchorBeacons.isEmpty()) {
+            throw new IllegalArgumentException("No anchor beacons");
+        }
+
+        Log.v(TAG, String.format("readSnapshot(): %d floors, %d beacons, %d zones",
+                floors.size(), beacons.length, zones.size()));
+
+        return new MapSnapshot(floors, anchorBeacons, supportBeacons, zones);
+    }
+
+
+    /**
+     * Writes to a temporary file first, so a partially written file is never read.
+     */
+    private static void writeMapFile(MapSnapshot snapshot, File mapFile) {
+        File temporaryFile = new File(mapFile.getPath() + ".tmp");
+
+        try {
+            OutputStream outputStream = new FileOutputStream(temporaryFile);
+            try {
+                MapFile.write(snapshot, DatabaseHelper.DB_VERSION, BuildConfig.VERSION_CODE, outputStream);
+            } finally {
+                outputStream.close();
+            }
+
+            if (!temporaryFile.renameTo(mapFile)) {
+                throw new IOException("Map file could not be renamed");
+            }
+
+        } catch (IOException e) {
+            Log.e(TAG, "writeMapFile(): Map file could not be written", e);
+            temporaryFile.delete();
+        }
+    }
+
+
+
+    private static class CursorRows implements Rows {
+
+        private final Cursor cursor;
+
+        CursorRows(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public int getCount() {
+            return cursor.getCount();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return cursor.moveToNext();
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return cursor.isNull(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return cursor.getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return cursor.getInt(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return cursor.getDouble(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return cursor.getString(column);
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param ids Sorted database IDs.
+     * @return The index of the ID.
+     * @throws IllegalArgumentException If the ID isn't found.
+     */
+    private static int findIndex(long[] ids, long id, String description) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            throw new IllegalArgumentException(String.format("No %s with ID %d", description, id));
+        }
+        return index;
+    }
+
+}
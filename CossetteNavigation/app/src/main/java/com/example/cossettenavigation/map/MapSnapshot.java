@@ -0,0 +1,447 @@
+package com.example.cossettenavigation.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <h1>Map snapshot</h1>
+ *
+ * <p>
+ *     An immutable copy of the mapping data (floors, beacons, and zones), with each object given an integer ID
+ *     (its index in this snapshot) and the data needed on hot paths stored in flat arrays indexed by those IDs.
+ * </p>
+ *
+ * <p>
+ *     Beacon IDs number the anchor beacons first, then the support beacons.
+ *     The connections between anchor beacons that share a zone are precomputed here in compressed sparse rows,
+ *     with the connections of anchor beacon <code>i</code> at indices
+ *     <code>getConnectionOffset(i)</code> (inclusive) to <code>getConnectionOffset(i + 1)</code> (exclusive).
+ * </p>
+ *
+ * <p>
+ *     A snapshot is never modified after it is constructed, so it can be read from any thread without locking;
+ *     the current snapshot is published by {@link Map#getSnapshot()} and replaced by {@link Map#setSnapshot(MapSnapshot)}.
+ *     Each floor, beacon, and zone can only be part of one snapshot, and must not be modified once it is.
+ * </p>
+ *
+ * @see Map
+ */
+public final class MapSnapshot {
+
+    private static final String TAG = "MapSnapshot";
+
+    private final List<Floor> floors;
+    private final List<AnchorBeacon> anchorBeacons;
+    private final List<SupportBeacon> supportBeacons;
+    private final List<Beacon> allBeacons;
+    private final List<Zone> zones;
+
+    private final double gridWidth;
+    private final double gridHeight;
+
+    private final BeaconIndex beaconIndex;
+
+    private final BeaconGrid beaconGrid;
+
+    /**
+     * Beacon ID -> position (in metres).
+     */
+    private final double[] beaconXPositions;
+    private final double[] beaconYPositions;
+    private final double[] beaconZPositions;
+
+    /**
+     * Beacon ID -> floor ID.
+     */
+    private final int[] beaconFloorIds;
+
+    /**
+     * Anchor beacon ID -> index of its first connection (length is the number of anchor beacons + 1).
+     */
+    private final int[] connectionOffsets;
+
+    /**
+     * Connection index -> connected anchor beacon ID.
+     */
+    private final int[] connectionTargets;
+
+    /**
+     * Connection index -> ID of the zone the anchor beacons share.
+     */
+    private final int[] connectionZoneIds;
+
+    /**
+     * Connection index -> estimated travel time (in seconds).
+     */
+    private final double[] connectionTravelTimes;
+
+
+
+
+    /**
+     * Assigns the IDs of all floors, beacons, and zones, and precomputes their data.
+     * @throws IllegalArgumentException If a beacon refers to a floor or zone that isn't in the lists.
+     */
+    public MapSnapshot(List<Floor> floors,
+                       List<AnchorBeacon> anchorBeacons,
+                       List<SupportBeacon> supportBeacons,
+                       List<Zone> zones) {
+
+        this(floors, anchorBeacons, supportBeacons, zones, null, null, null, null);
+    }
+
+    /**
+     * Uses connections that were already computed (e.g. saved in a {@link MapFile}), if they are given,
+     * instead of computing them from the zones.
+     * @throws IllegalArgumentException If a beacon refers to a floor or zone that isn't in the lists,
+     *                                  or the connections are invalid.
+     */
+    MapSnapshot(List<Floor> floors,
+                List<AnchorBeacon> anchorBeacons,
+                List<SupportBeacon> supportBeacons,
+                List<Zone> zones,
+                int[] connectionOffsets,
+                int[] connectionTargets,
+                int[] connectionZoneIds,
+                double[] connectionTravelTimes) {
+
+        this.floors = Collections.unmodifiableList(new ArrayList<>(floors));
+        this.anchorBeacons = Collections.unmodifiableList(new ArrayList<>(anchorBeacons));
+        this.supportBeacons = Collections.unmodifiableList(new ArrayList<>(supportBeacons));
+        this.zones = Collections.unmodifiableList(new ArrayList<>(zones));
+
+        ArrayList<Beacon> allBeacons = new ArrayList<>(anchorBeacons.size() + supportBeacons.size());
+        allBeacons.addAll(anchorBeacons);
+        allBeacons.addAll(supportBeacons);
+        this.allBeacons = Collections.unmodifiableList(allBeacons);
+
+        // Assign IDs
+        for (int i = 0; i < this.floors.size(); i++) {
+            this.floors.get(i).setId(i);
+        }
+        for (int i = 0; i < this.allBeacons.size(); i++) {
+            this.allBeacons.get(i).setId(i);
+        }
+        for (int i = 0; i < this.zones.size(); i++) {
+            this.zones.get(i).setId(i);
+        }
+
+        // Beacon data, and the grid dimensions
+        int beaconCount = this.allBeacons.size();
+        beaconXPositions = new double[beaconCount];
+        beaconYPositions = new double[beaconCount];
+        beaconZPositions = new double[beaconCount];
+        beaconFloorIds = new int[beaconCount];
+
+        double gridWidth = 1;
+        double gridHeight = 1;
+
+        for (int i = 0; i < beaconCount; i++) {
+            Beacon beacon = this.allBeacons.get(i);
+            if (!contains(beacon.getFloor())) {
+                throw new IllegalArgumentException("Floor of beacon not in the map: " + beacon);
+            }
+
+            beaconXPositions[i] = beacon.getXPosition() * Map.metresPerGridUnit;
+            beaconYPositions[i] = beacon.getYPosition() * Map.metresPerGridUnit;
+            beaconZPositions[i] = beacon.getFloor().getZPosition() * Map.metresPerGridUnit;
+            beaconFloorIds[i] = beacon.getFloor().getId();
+
+            gridWidth = Math.max(gridWidth, beacon.getXPosition());
+            gridHeight = Math.max(gridHeight, beacon.getYPosition());
+        }
+
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+
+        beaconIndex = new BeaconIndex(this.allBeacons);
+        beaconGrid = new BeaconGrid(beaconXPositions, beaconYPositions, beaconFloorIds, this.floors.size());
+
+        int anchorBeaconCount = this.anchorBeacons.size();
+
+        if (connectionOffsets != null) {
+            checkConnections(connectionOffsets, connectionTargets, connectionZoneIds, connectionTravelTimes);
+
+            this.connectionOffsets = connectionOffsets;
+            this.connectionTargets = connectionTargets;
+            this.connectionZoneIds = connectionZoneIds;
+            this.connectionTravelTimes = connectionTravelTimes;
+            return;
+        }
+
+        // First pass - count the connections of each anchor beacon
+        connectionOffsets = new int[anchorBeaconCount + 1];
+
+        for (int i = 0; i < anchorBeaconCount; i++) {
+            int connectionCount = 0;
+            for (Zone zone : this.anchorBeacons.get(i).getZones()) {
+                if (!contains(zone)) {
+                    throw new IllegalArgumentException("Zone of beacon not in the map: " + zone);
+                }
+                connectionCount += zone.getAnchorBeacons().size() - 1;
+            }
+            connectionOffsets[i + 1] = connectionOffsets[i] + connectionCount;
+        }
+
+        // Second pass - fill in the connections
+        connectionTargets = new int[connectionOffsets[anchorBeaconCount]];
+        connectionZoneIds = new int[connectionOffsets[anchorBeaconCount]];
+        connectionTravelTimes = new double[connectionOffsets[anchorBeaconCount]];
+
+        for (int i = 0; i < anchorBeaconCount; i++) {
+            AnchorBeacon beacon = this.anchorBeacons.get(i);
+            int connection = connectionOffsets[i];
+
+            // Go through all zones this anchor beacon is part of
+            for (Zone zone : beacon.getZones()) {
+
+                // Go through all anchor beacons in this zone
+                for (AnchorBeacon connectedBeacon : zone.getAnchorBeacons()) {
+
+                    // Check that the anchor beacons are different
+                    if (beacon != connectedBeacon) {
+                        if (!contains(connectedBeacon)) {
+                            throw new IllegalArgumentException("Beacon of zone not in the map: " + connectedBeacon);
+                        }
+
+                        connectionTargets[connection] = connectedBeacon.getId();
+                        connectionZoneIds[connection] = zone.getId();
+                        connectionTravelTimes[connection] = Map.estimateTravelTime(beacon, connectedBeacon, zone);
+                        connection++;
+                    }
+                }
+            }
+        }
+
+        this.connectionOffsets = connectionOffsets;
+        this.connectionTargets = connectionTargets;
+        this.connectionZoneIds = connectionZoneIds;
+        this.connectionTravelTimes = connectionTravelTimes;
+    }
+
+    private void checkConnections(int[] connectionOffsets,
+                                  int[] connectionTargets,
+                                  int[] connectionZoneIds,
+                                  double[] connectionTravelTimes) {
+
+        int anchorBeaconCount = anchorBeacons.size();
+
+        if (connectionOffsets.length != anchorBeaconCount + 1 || connectionOffsets[0] != 0 ||
+                connectionTargets.length != connectionOffsets[anchorBeaconCount] ||
+                connectionZoneIds.length != connectionTargets.length ||
+                connectionTravelTimes.length != connectionTargets.length) {
+            throw new IllegalArgumentException("Connection arrays have the wrong lengths");
+        }
+
+        for (int i = 0; i < anchorBeaconCount; i++) {
+            if (connectionOffsets[i + 1] < connectionOffsets[i]) {
+                throw new IllegalArgumentException("Connection offsets are not in order");
+            }
+        }
+
+        for (int connection = 0; connection < connectionTargets.length; connection++) {
+            if (connectionTargets[connection] < 0 || connectionTargets[connection] >= anchorBeaconCount ||
+                    connectionZoneIds[connection] < 0 || connectionZoneIds[connection] >= zones.size() ||
+                    !(connectionTravelTimes[connection] >= 0)) {
+                throw new IllegalArgumentException("Invalid connection " + connection);
+            }
+        }
+    }
+
+
+
+
+    public List<Floor> getFloors() {
+        return floors;
+    }
+
+    public List<AnchorBeacon> getAnchorBeacons() {
+        return anchorBeacons;
+    }
+
+    public List<SupportBeacon> getSupportBeacons() {
+        return supportBeacons;
+    }
+
+    /**
+     * @return All beacons, in ID order (anchor beacons, then support beacons).
+     */
+    public List<Beacon> getAllBeacons() {
+        return allBeacons;
+    }
+
+    public List<Zone> getZones() {
+        return zones;
+    }
+
+    public double getGridWidth() {
+        return gridWidth;
+    }
+
+    public double getGridHeight() {
+        return gridHeight;
+    }
+
+
+    public boolean contains(Floor floor) {
+        return floor.getId() >= 0 && floor.getId() < floors.size() && floors.get(floor.getId()) == floor;
+    }
+
+    /**
+     * @return True if the beacon is this snapshot's object for it.
+     * A copy (e.g. deserialized from an {@link android.content.Intent}) isn't contained;
+     * use {@link #findBeaconId(Beacon)} to look it up.
+     */
+    public boolean contains(Beacon beacon) {
+        return beacon.getId() >= 0 && beacon.getId() < allBeacons.size() && allBeacons.get(beacon.getId()) == beacon;
+    }
+
+    public boolean contains(Zone zone) {
+        return zone.getId() >= 0 && zone.getId() < zones.size() && zones.get(zone.getId()) == zone;
+    }
+
+
+    public int getBeaconCount() {
+        return allBeacons.size();
+    }
+
+    public int getAnchorBeaconCount() {
+        return anchorBeacons.size();
+    }
+
+    public Beacon getBeacon(int beaconId) {
+        return allBeacons.get(beaconId);
+    }
+
+    /**
+     * Finds a beacon from its identifiers (e.g. from a ranging result) in constant time.
+     * @return The beacon ID, or -1 if the beacon isn't in the map.
+     */
+    public int findBeaconId(UUID uuid, int major, int minor) {
+        return beaconIndex.findBeaconId(uuid, major, minor);
+    }
+
+    /**
+     * @return The beacon, or null if it isn't in the map.
+     * @see #findBeaconId(UUID, int, int)
+     */
+    public Beacon findBeacon(UUID uuid, int major, int minor) {
+        int beaconId = beaconIndex.findBeaconId(uuid, major, minor);
+        return (beaconId != -1) ? allBeacons.get(beaconId) : null;
+    }
+
+    /**
+     * Finds the snapshot's beacon with the same identifiers,
+     * so a copy of a beacon (e.g. deserialized from an {@link android.content.Intent}) can be looked up.
+     * @return The beacon ID, or -1 if the beacon isn't in the map.
+     * @see #findBeaconId(UUID, int, int)
+     */
+    public int findBeaconId(Beacon beacon) {
+        return beaconIndex.findBeaconId(beacon.getUUID(), beacon.getMajor(), beacon.getMinor());
+    }
+
+    /**
+     * @return The snapshot's beacon with the same identifiers, or null if it isn't in the map.
+     * @see #findBeaconId(Beacon)
+     */
+    public Beacon findBeacon(Beacon beacon) {
+        int beaconId = findBeaconId(beacon);
+        return (beaconId != -1) ? allBeacons.get(beaconId) : null;
+    }
+
+    /**
+     * Finds the snapshot's zone with the same ID and name,
+     * so a copy of a zone (e.g. deserialized from an {@link android.content.Intent}) can be looked up.
+     * @return The zone, or null if it isn't in the map.
+     */
+    public Zone findZone(Zone zone) {
+        int zoneId = zone.getId();
+        if (zoneId < 0 || zoneId >= zones.size() || !zones.get(zoneId).getName().equals(zone.getName())) {
+            return null;
+        }
+        return zones.get(zoneId);
+    }
+
+    public Floor getFloor(int floorId) {
+        return floors.get(floorId);
+    }
+
+    public Zone getZone(int zoneId) {
+        return zones.get(zoneId);
+    }
+
+    /**
+     * @return The x position of the beacon (in metres).
+     */
+    public double getBeaconXPosition(int beaconId) {
+        return beaconXPositions[beaconId];
+    }
+
+    /**
+     * @return The y position of the beacon (in metres).
+     */
+    public double getBeaconYPosition(int beaconId) {
+        return beaconYPositions[beaconId];
+    }
+
+    /**
+     * @return The z position of the beacon's floor (in metres).
+     */
+    public double getBeaconZPosition(int beaconId) {
+        return beaconZPositions[beaconId];
+    }
+
+    public int getBeaconFloorId(int beaconId) {
+        return beaconFloorIds[beaconId];
+    }
+
+    /**
+     * Finds the beacons on a floor within a radius of a position, looking only at nearby beacons.
+     * @param x Position (in metres).
+     * @param y Position (in metres).
+     * @param radius In metres.
+     * @param result Filled with the beacon IDs (in no particular order).
+     * @return The number of beacons found (at most <code>result.length</code>).
+     */
+    public int findBeaconIdsWithin(int floorId, double x, double y, double radius, int[] result) {
+        return beaconGrid.findBeaconIdsWithin(floorId, x, y, radius, result);
+    }
+
+
+    public int getConnectionCount() {
+        return connectionTargets.length;
+    }
+
+    /**
+     * @param anchorBeaconId From 0 to the number of anchor beacons (inclusive).
+     */
+    public int getConnectionOffset(int anchorBeaconId) {
+        return connectionOffsets[anchorBeaconId];
+    }
+
+    public int getConnectionTarget(int connection) {
+        return connectionTargets[connection];
+    }
+
+    public int getConnectionZoneId(int connection) {
+        return connectionZoneIds[connection];
+    }
+
+    /**
+     * @return The estimated travel time (in seconds) of the connection.
+     */
+    public double getConnectionTravelTime(int connection) {
+        return connectionTravelTimes[connection];
+    }
+
+    /**
+     * @return A copy of the connection offsets, for building another compressed sparse row structure.
+     */
+    public int[] copyConnectionOffsets() {
+        return Arrays.copyOf(connectionOffsets, connectionOffsets.length);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.example.cossettenavigation.map;
+
+import java.io.Serializable;
+
+/**
+ * <h1>Path loss model</h1>
+ *
+ * <p>
+ *     A beacon's calibrated log-distance path loss model,
+ *     which converts a received signal strength (RSSI) to a distance:
+ *     <code>rssi = measuredPower - 10 * pathLossExponent * log10(distance)</code>.
+ * </p>
+ *
+ * <p>
+ *     Signals weaken at different rates in different places (e.g. open hallways vs. crowded rooms),
+ *     so a beacon with a model fitted to its own measurements
+ *     gives more accurate distances than the Estimote SDK's single global model.
+ * </p>
+ *
+ * @see #fit(double[], double[])
+ * @see Beacon#getPathLossModel()
+ */
+public class PathLossModel implements Serializable {
+
+    private final double measuredPower;
+    private final double pathLossExponent;
+
+
+
+
+    /**
+     * @param measuredPower Expected RSSI at a distance of 1m (in dBm).
+     * @param pathLossExponent How fast the signal weakens with distance (2 in free space, higher indoors).
+     */
+    public PathLossModel(double measuredPower, double pathLossExponent) {
+        if (!(pathLossExponent > 0) || Double.isInfinite(pathLossExponent) ||
+                Double.isNaN(measuredPower) || Double.isInfinite(measuredPower)) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid path loss model: measuredPower = %f, pathLossExponent = %f",
+                    measuredPower, pathLossExponent));
+        }
+
+        this.measuredPower = measuredPower;
+        this.pathLossExponent = pathLossExponent;
+    }
+
+    /**
+     * Fits a model to recorded measurements, by least squares regression of the RSSI against log10(distance).
+     * @param distances Actual distances of the device from the beacon (in metres).
+     * @param rssis RSSIs measured at those distances (in dBm).
+     * @throws IllegalArgumentException If there aren't measurements at two or more distances,
+     * or the signal doesn't weaken with distance.
+     */
+    public static PathLossModel fit(double[] distances, double[] rssis) {
+        if (distances.length != rssis.length) {
+            throw new IllegalArgumentException(String.format(
+                    "%d distances, but %d RSSIs", distances.length, rssis.length));
+        }
+
+        // rssi = measuredPower + pathLossExponent * x, where x = -10 * log10(distance)
+        double xSum = 0;
+        double rssiSum = 0;
+        for (int i = 0; i < distances.length; i++) {
+            if (!(distances[i] > 0)) {
+                throw new IllegalArgumentException("Distances must be positive: " + distances[i]);
+            }
+            xSum += -10 * Math.log10(distances[i]);
+            rssiSum += rssis[i];
+        }
+        double xMean = xSum / distances.length;
+        double rssiMean = rssiSum / distances.length;
+
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < distances.length; i++) {
+            double x = -10 * Math.log10(distances[i]) - xMean;
+            covariance += x * (rssis[i] - rssiMean);
+            variance += x * x;
+        }
+
+        if (!(variance > 0)) {
+            throw new IllegalArgumentException("Measurements must be at two or more distances");
+        }
+
+        double pathLossExponent = covariance / variance;
+        return new PathLossModel(rssiMean - (pathLossExponent * xMean), pathLossExponent);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s { measuredPower = %.1f dBm, pathLossExponent = %.2f }",
+                getClass().getSimpleName(), measuredPower, pathLossExponent);
+    }
+
+
+    public double getMeasuredPower() {
+        return measuredPower;
+    }
+
+    public double getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    /**
+     * @return The estimated distance of the beacon (in metres).
+     */
+    public double getDistance(double rssi) {
+        return Math.pow(10, (measuredPower - rssi) / (10 * pathLossExponent));
+    }
+
+}
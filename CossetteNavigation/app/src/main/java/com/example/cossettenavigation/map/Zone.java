@@ -38,6 +38,11 @@ public class Zone implements Serializable {
     private ArrayList<AnchorBeacon> anchorBeacons = new ArrayList<>();
     private ArrayList<SupportBeacon> supportBeacons = new ArrayList<>();
 
+    /**
+     * Index in the {@link MapSnapshot} this zone is part of, or -1 if none.
+     */
+    private int id = -1;
+
 
 
 
@@ -68,6 +73,14 @@ public class Zone implements Serializable {
         return zoneType;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
     public boolean getIsDestination() {
         return isDestination;
     }
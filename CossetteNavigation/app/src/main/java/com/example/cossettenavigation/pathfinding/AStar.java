@@ -0,0 +1,197 @@
+package com.example.cossettenavigation.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * <h1>A* search</h1>
+ *
+ * <p>
+ *     Calculates the minimum distance from the start nodes to the end nodes in a weighted, undirected graph.
+ *     Like {@link Dijkstra}, but nodes are ordered by their travel time plus a lower bound on the remaining
+ *     travel time to the nearest end node ({@link Graph#estimateMinimumTravelTime(int, int)}),
+ *     so the search heads towards the end nodes and only visits a small part of a large map.
+ * </p>
+ *
+ * <p>
+ *     The lower bound is consistent (it satisfies the triangle inequality),
+ *     so each node is still settled exactly once and the result is still the shortest path.
+ *     Without end nodes there is nothing to head towards, so it searches the whole graph like {@link Dijkstra}.
+ * </p>
+ *
+ * <p>
+ *     Should not be used directly by client code; use {@link Pathfinder} instead.
+ * </p>
+ *
+ * @see Pathfinder
+ * @see <a href="https://en.wikipedia.org/wiki/A*_search_algorithm">A* Wiki</a>
+ */
+class AStar extends ShortestPathAlgorithm {
+
+    private static final String TAG = "AStar";
+
+    /**
+     * Nodes reached but not yet settled, keyed on their travel time plus the remaining travel time estimate.
+     */
+    private final IndexedMinHeap queue;
+
+    /**
+     * Node ID -> extra travel time if it is an end node, or infinity otherwise.
+     */
+    private final double[] endTravelTimes;
+
+    /**
+     * Node ID -> estimated remaining travel time, calculated when the node is first reached.
+     */
+    private final double[] estimatedTravelTimes;
+
+    /**
+     * Nodes whose results were changed by the last run, so the next run only needs to reset those.
+     */
+    private final int[] reachedNodes;
+    private int reachedNodeCount = 0;
+    private boolean isReset = false;
+
+    private NodeSet endNodes;
+
+
+    AStar(Graph graph) {
+        super(graph);
+
+        queue = new IndexedMinHeap(graph.getNodeCount());
+
+        endTravelTimes = new double[graph.getNodeCount()];
+        Arrays.fill(endTravelTimes, Pathfinder.INFINITY);
+
+        estimatedTravelTimes = new double[graph.getNodeCount()];
+        reachedNodes = new int[graph.getNodeCount()];
+    }
+
+
+
+
+    /**
+     * Runs the algorithm, storing the results in {@link #shortestTravelTimes} and {@link #previousNodes}.
+     */
+    @Override
+    void run(NodeSet startNodes, NodeSet endNodes) {
+        reset();
+        queue.clear();
+
+        this.endNodes = endNodes;
+
+        int[] edgeOffsets = graph.edgeOffsets;
+        int[] edgeTargets = graph.edgeTargets;
+        double[] edgeTravelTimes = graph.edgeTravelTimes;
+
+        // Setup root nodes
+        for (int i = 0; i < startNodes.size(); i++) {
+            int startNode = startNodes.nodes[i];
+
+            if (startNodes.travelTimes[i] < shortestTravelTimes[startNode]) {
+                reach(startNode, startNodes.travelTimes[i], -1);
+            }
+        }
+
+        // Mark end nodes
+        if (endNodes != null) {
+            for (int i = 0; i < endNodes.size(); i++) {
+                int endNode = endNodes.nodes[i];
+                endTravelTimes[endNode] = Math.min(endTravelTimes[endNode], endNodes.travelTimes[i]);
+            }
+        }
+
+        // Best travel time to the "super-sink" found so far
+        double bestTravelTime = Pathfinder.INFINITY;
+
+        while (!queue.isEmpty()) {
+            // Stop once no unsettled node can lead to a better end node
+            if (queue.peekKey() >= bestTravelTime) {
+                break;
+            }
+
+            // Get the most promising unsettled node - its travel time is now final
+            int currentNode = queue.poll();
+            double currentTravelTime = shortestTravelTimes[currentNode];
+
+            if (currentTravelTime + endTravelTimes[currentNode] < bestTravelTime) {
+                bestTravelTime = currentTravelTime + endTravelTimes[currentNode];
+            }
+
+            // Go through current node's connections
+            for (int edge = edgeOffsets[currentNode]; edge < edgeOffsets[currentNode + 1]; edge++) {
+                int connectedNode = edgeTargets[edge];
+
+                // If necessary, update the connected node's shortest travel time and its position in the queue
+                double testTravelTime = currentTravelTime + edgeTravelTimes[edge];
+                if (testTravelTime < shortestTravelTimes[connectedNode]) {
+                    reach(connectedNode, testTravelTime, currentNode);
+                }
+            }
+        }
+
+        // Unmark end nodes
+        if (endNodes != null) {
+            for (int i = 0; i < endNodes.size(); i++) {
+                endTravelTimes[endNodes.nodes[i]] = Pathfinder.INFINITY;
+            }
+        }
+
+        this.endNodes = null;
+    }
+
+
+    /**
+     * Updates a node with a shorter travel time and adds it to the queue.
+     */
+    private void reach(int node, double travelTime, int previousNode) {
+        // First time reaching the node in this run
+        if (shortestTravelTimes[node] == Pathfinder.INFINITY) {
+            reachedNodes[reachedNodeCount++] = node;
+            estimatedTravelTimes[node] = estimateRemainingTravelTime(node);
+        }
+
+        shortestTravelTimes[node] = travelTime;
+        previousNodes[node] = previousNode;
+        queue.insertOrDecrease(node, travelTime + estimatedTravelTimes[node]);
+    }
+
+
+    /**
+     * @return A lower bound on the travel time from the node to the nearest end node, including its extra travel time.
+     */
+    private double estimateRemainingTravelTime(int node) {
+        if (endNodes == null) {
+            return 0;
+        }
+
+        double minimumTravelTime = Pathfinder.INFINITY;
+        for (int i = 0; i < endNodes.size(); i++) {
+            minimumTravelTime = Math.min(
+                    minimumTravelTime,
+                    graph.estimateMinimumTravelTime(node, endNodes.nodes[i]) + endNodes.travelTimes[i]);
+        }
+
+        return minimumTravelTime;
+    }
+
+
+    /**
+     * Only resets the nodes reached by the last run, instead of the whole graph.
+     */
+    @Override
+    protected void reset() {
+        if (!isReset) {
+            super.reset();
+            isReset = true;
+
+        } else {
+            for (int i = 0; i < reachedNodeCount; i++) {
+                shortestTravelTimes[reachedNodes[i]] = Pathfinder.INFINITY;
+                previousNodes[reachedNodes[i]] = -1;
+            }
+        }
+
+        reachedNodeCount = 0;
+    }
+
+}
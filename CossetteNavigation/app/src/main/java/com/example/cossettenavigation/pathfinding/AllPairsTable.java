@@ -0,0 +1,218 @@
+package com.example.cossettenavigation.pathfinding;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.example.cossettenavigation.map.Beacon;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <h1>All-pairs shortest paths</h1>
+ *
+ * <p>
+ *     The shortest travel time and next node for every pair of nodes in a {@link Graph},
+ *     so a shortest path is found by walking the table instead of searching the graph.
+ * </p>
+ *
+ * <p>
+ *     Built by running {@link Dijkstra} once from every node, in parallel across the available processors.
+ *     The graph is undirected, so the shortest path tree rooted at node <code>t</code>
+ *     gives the next node towards <code>t</code> from every other node.
+ *     Always built from the base travel times, which never change, so the threads don't need the Pathfinder lock
+ *     while zones are slowed down or closed; the table is only used while all zones have their base travel times.
+ * </p>
+ *
+ * <p>
+ *     Both tables are dense (number of nodes squared), so this is only suitable for small maps;
+ *     see {@link #MAX_NODE_COUNT}. Next nodes are stored as shorts to halve that table.
+ *     Larger maps use the contraction hierarchy or a search instead.
+ * </p>
+ */
+class AllPairsTable {
+
+    private static final String TAG = "AllPairsTable";
+
+    /**
+     * The largest graph to build a table for (about 2.5 MB of tables at this size,
+     * small enough for low-end devices' heaps).
+     */
+    static final int MAX_NODE_COUNT = 512;
+
+    private final Graph graph;
+    private final int nodeCount;
+
+    /**
+     * (start node ID * number of nodes + end node ID) -> shortest travel time.
+     */
+    private final double[] travelTimes;
+
+    /**
+     * (start node ID * number of nodes + end node ID) -> next node ID in the shortest path, or -1 for none.
+     */
+    private final short[] nextNodes;
+
+
+
+
+    private AllPairsTable(Graph graph) {
+        this.graph = graph;
+        this.nodeCount = graph.getNodeCount();
+
+        travelTimes = new double[nodeCount * nodeCount];
+        nextNodes = new short[nodeCount * nodeCount];
+    }
+
+
+    /**
+     * Builds the table, using one thread per available processor.
+     * @return The table, or null if the graph is too large or the build was interrupted.
+     */
+    static AllPairsTable build(final Graph graph) {
+        if (graph.getNodeCount() > MAX_NODE_COUNT) {
+            Log.e(TAG, String.format(
+                    "build(): Graph has %d nodes, more than the maximum of %d",
+                    graph.getNodeCount(), MAX_NODE_COUNT));
+            return null;
+        }
+
+        final AllPairsTable table = new AllPairsTable(graph);
+
+        final int threadCount = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(), table.nodeCount));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            // Each thread roots trees at every (threadCount)th node, using its own algorithm object
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threadCount; thread++) {
+                final int firstNode = thread;
+
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Dijkstra dijkstra = new Dijkstra(graph, graph.baseEdgeTravelTimes);
+                        for (int node = firstNode; node < table.nodeCount; node += threadCount) {
+                            dijkstra.run(node, -1);
+                            table.setColumn(node, dijkstra);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            // Wait for all threads to finish
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } catch (InterruptedException e) {
+            Log.e(TAG, "build(): Interrupted", e);
+            Thread.currentThread().interrupt();
+            return null;
+
+        } catch (ExecutionException e) {
+            Log.e(TAG, "build(): Failed", e);
+            return null;
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Log.v(TAG, String.format("build(): Built table for %d nodes using %d threads", table.nodeCount, threadCount));
+
+        return table;
+    }
+
+
+    /**
+     * Stores the shortest path tree rooted at the end node as the column for that end node.
+     */
+    private void setColumn(int endNode, ShortestPathAlgorithm algorithm) {
+        for (int startNode = 0; startNode < nodeCount; startNode++) {
+            int index = startNode * nodeCount + endNode;
+            travelTimes[index] = algorithm.shortestTravelTimes[startNode];
+            nextNodes[index] = (short) algorithm.previousNodes[startNode];
+        }
+    }
+
+
+
+
+    Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return 0, the weight version of the base travel times (see {@link Graph#getWeightVersion()}).
+     */
+    int getWeightVersion() {
+        return 0;
+    }
+
+    double getTravelTime(int startNode, int endNode) {
+        return travelTimes[startNode * nodeCount + endNode];
+    }
+
+    /**
+     * Looks up every combination of start and end nodes, including the extra travel times of both.
+     * @return (shortest travel time in seconds, path of beacons), or null if no path exists.
+     */
+    Pair<Double, ArrayList<Beacon>> getShortestPath(NodeSet startNodes, NodeSet endNodes) {
+        double minimumTravelTime = Pathfinder.INFINITY;
+        int bestStartNode = -1;
+        int bestEndNode = -1;
+
+        for (int i = 0; i < startNodes.size(); i++) {
+            for (int j = 0; j < endNodes.size(); j++) {
+                double travelTime = startNodes.travelTimes[i] +
+                        getTravelTime(startNodes.nodes[i], endNodes.nodes[j]) +
+                        endNodes.travelTimes[j];
+
+                if (travelTime < minimumTravelTime) {
+                    minimumTravelTime = travelTime;
+                    bestStartNode = startNodes.nodes[i];
+                    bestEndNode = endNodes.nodes[j];
+                }
+            }
+        }
+
+        // No result found
+        if (bestStartNode == -1) {
+            Log.e(TAG, "getShortestPath(): No path found");
+            return null;
+        }
+
+        Pair<Double, ArrayList<Beacon>> result = getShortestPath(bestStartNode, bestEndNode);
+        return new Pair<>(minimumTravelTime, result.second);
+    }
+
+    /**
+     * @return (shortest travel time in seconds, path of beacons), or null if no path exists.
+     */
+    Pair<Double, ArrayList<Beacon>> getShortestPath(int startNode, int endNode) {
+        double travelTime = getTravelTime(startNode, endNode);
+
+        // No result found
+        if (travelTime == Pathfinder.INFINITY) {
+            Log.e(TAG, "getShortestPath(): No path found");
+            return null;
+        }
+
+        // Result found - walk the next nodes
+        ArrayList<Beacon> path = new ArrayList<>();
+        path.add(graph.getBeacon(startNode));
+        for (int node = startNode; node != endNode; ) {
+            node = nextNodes[node * nodeCount + endNode];
+            path.add(graph.getBeacon(node));
+        }
+
+        return new Pair<>(travelTime, path);
+    }
+
+}
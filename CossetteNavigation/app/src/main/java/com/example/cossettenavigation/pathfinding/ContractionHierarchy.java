@@ -0,0 +1,757 @@
+package com.example.cossettenavigation.pathfinding;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.example.cossettenavigation.map.Beacon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>Contraction hierarchy</h1>
+ *
+ * <p>
+ *     Preprocessing of a {@link Graph} for fast route queries on large (e.g. campus-scale) maps.
+ *     Nodes are removed ("contracted") one at a time, least important first;
+ *     whenever removing a node would lengthen a shortest path between two of its neighbours,
+ *     a shortcut connection (remembering the removed node) is added between them.
+ * </p>
+ *
+ * <p>
+ *     Every shortest path then has an equally short path that only goes up the order and then down,
+ *     so a query searches upwards from the start nodes and upwards from the end nodes at the same time
+ *     and meets at the most important node of the path. Each search only visits a few hundred nodes,
+ *     even on maps with tens of thousands of anchor beacons.
+ * </p>
+ *
+ * <p>
+ *     Building is slow, so it is done offline and saved with {@link #write(OutputStream)};
+ *     the app loads it from its assets with {@link #read(InputStream, Graph)}.
+ *     It is always built from the base travel times, which never change, so building doesn't need the Pathfinder lock;
+ *     the hierarchy is only used while all zones have their base travel times.
+ * </p>
+ *
+ * @see Pathfinder
+ * @see <a href="https://en.wikipedia.org/wiki/Contraction_hierarchies">Contraction hierarchies Wiki</a>
+ */
+class ContractionHierarchy {
+
+    private static final String TAG = "ContractionHierarchy";
+
+    private static final int FILE_MAGIC = 0x43484348;
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * The most nodes a witness search settles before giving up and adding the shortcut anyway
+     * (an unnecessary shortcut is never wrong, only slightly slower).
+     */
+    private static final int WITNESS_SEARCH_SETTLE_LIMIT = 500;
+
+    private final Graph graph;
+
+    /*
+        Upward connections - each connection is stored only at its less important node.
+
+        The connections of node i are stored at indices
+        upEdgeOffsets[i] (inclusive) to upEdgeOffsets[i + 1] (exclusive).
+    */
+    private final int[] upEdgeOffsets;
+    private final int[] upEdgeTargets;
+    private final double[] upEdgeTravelTimes;
+
+    /**
+     * Connection index -> node the shortcut skips over, or -1 for an original connection.
+     */
+    private final int[] upEdgeMiddleNodes;
+
+    // Query working state, only used while synchronized
+    private final SearchDirection forward;
+    private final SearchDirection backward;
+    private final int[] pathNodes;
+
+
+
+
+    private ContractionHierarchy(Graph graph,
+                                 int[] upEdgeOffsets,
+                                 int[] upEdgeTargets,
+                                 double[] upEdgeTravelTimes,
+                                 int[] upEdgeMiddleNodes) {
+        this.graph = graph;
+        this.upEdgeOffsets = upEdgeOffsets;
+        this.upEdgeTargets = upEdgeTargets;
+        this.upEdgeTravelTimes = upEdgeTravelTimes;
+        this.upEdgeMiddleNodes = upEdgeMiddleNodes;
+
+        forward = new SearchDirection(graph.getNodeCount());
+        backward = new SearchDirection(graph.getNodeCount());
+        pathNodes = new int[graph.getNodeCount()];
+    }
+
+
+    /**
+     * Contracts every node of the graph, least important first.
+     */
+    static ContractionHierarchy build(Graph graph) {
+        long startTime = System.currentTimeMillis();
+
+        Builder builder = new Builder(graph);
+        builder.contractAll();
+        ContractionHierarchy hierarchy = builder.toContractionHierarchy();
+
+        Log.v(TAG, String.format(
+                "build(): Built hierarchy for %d nodes with %d connections in %d ms",
+                graph.getNodeCount(), hierarchy.getEdgeCount(), System.currentTimeMillis() - startTime));
+
+        return hierarchy;
+    }
+
+
+
+
+    /**
+     * Saves the hierarchy (with the graph's fingerprint), to be loaded by {@link #read(InputStream, Graph)}.
+     */
+    void write(OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+
+        output.writeInt(FILE_MAGIC);
+        output.writeInt(FILE_VERSION);
+        output.writeLong(graph.getFingerprint());
+        output.writeInt(getNodeCount());
+        output.writeInt(getEdgeCount());
+
+        for (int offset : upEdgeOffsets) {
+            output.writeInt(offset);
+        }
+        for (int target : upEdgeTargets) {
+            output.writeInt(target);
+        }
+        for (double travelTime : upEdgeTravelTimes) {
+            output.writeDouble(travelTime);
+        }
+        for (int middleNode : upEdgeMiddleNodes) {
+            output.writeInt(middleNode);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Loads a hierarchy saved by {@link #write(OutputStream)}.
+     * The stream must be able to report its remaining length ({@link InputStream#available()}),
+     * as files and assets do, so a corrupt connection count is found before anything is allocated.
+     * @return The hierarchy, or null if it was built for a different graph or is invalid.
+     */
+    static ContractionHierarchy read(InputStream inputStream, Graph graph) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+
+        if (input.readInt() != FILE_MAGIC) {
+            throw new IOException("Not a contraction hierarchy file");
+        }
+
+        int version = input.readInt();
+        if (version != FILE_VERSION) {
+            Log.e(TAG, String.format("read(): File version %d is not supported", version));
+            return null;
+        }
+
+        if (input.readLong() != graph.getFingerprint() || input.readInt() != graph.getNodeCount()) {
+            Log.e(TAG, "read(): File was built for a different map");
+            return null;
+        }
+
+        int nodeCount = graph.getNodeCount();
+        int edgeCount = input.readInt();
+
+        long length = 4L * (nodeCount + 1) + (4L + 8L + 4L) * edgeCount;
+        if (edgeCount < 0 || length > input.available()) {
+            Log.e(TAG, String.format("read(): Invalid connection count %d", edgeCount));
+            return null;
+        }
+
+        // Read each array in bulk instead of value by value
+        int[] upEdgeOffsets = new int[nodeCount + 1];
+        readBytes(input, 4 * upEdgeOffsets.length).asIntBuffer().get(upEdgeOffsets);
+
+        int[] upEdgeTargets = new int[edgeCount];
+        readBytes(input, 4 * edgeCount).asIntBuffer().get(upEdgeTargets);
+
+        double[] upEdgeTravelTimes = new double[edgeCount];
+        readBytes(input, 8 * edgeCount).asDoubleBuffer().get(upEdgeTravelTimes);
+
+        int[] upEdgeMiddleNodes = new int[edgeCount];
+        readBytes(input, 4 * edgeCount).asIntBuffer().get(upEdgeMiddleNodes);
+
+        if (!isValid(nodeCount, upEdgeOffsets, upEdgeTargets, upEdgeTravelTimes, upEdgeMiddleNodes)) {
+            Log.e(TAG, "read(): Invalid connections");
+            return null;
+        }
+
+        return new ContractionHierarchy(graph, upEdgeOffsets, upEdgeTargets, upEdgeTravelTimes, upEdgeMiddleNodes);
+    }
+
+    /**
+     * @return True if the offsets are in order and cover all the connections,
+     * and every connection leads to a node (through a node, for a shortcut) and takes a valid travel time.
+     */
+    private static boolean isValid(int nodeCount,
+                                   int[] upEdgeOffsets,
+                                   int[] upEdgeTargets,
+                                   double[] upEdgeTravelTimes,
+                                   int[] upEdgeMiddleNodes) {
+        if (upEdgeOffsets[0] != 0 || upEdgeOffsets[nodeCount] != upEdgeTargets.length) {
+            return false;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (upEdgeOffsets[node + 1] < upEdgeOffsets[node]) {
+                return false;
+            }
+        }
+
+        for (int edge = 0; edge < upEdgeTargets.length; edge++) {
+            if (    (upEdgeTargets[edge] < 0 || upEdgeTargets[edge] >= nodeCount) ||
+                    (upEdgeMiddleNodes[edge] < -1 || upEdgeMiddleNodes[edge] >= nodeCount) ||
+                    !(upEdgeTravelTimes[edge] >= 0) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer readBytes(DataInputStream input, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+
+
+
+    Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return 0, the weight version of the base travel times (see {@link Graph#getWeightVersion()}).
+     */
+    int getWeightVersion() {
+        return 0;
+    }
+
+    int getNodeCount() {
+        return upEdgeOffsets.length - 1;
+    }
+
+    int getEdgeCount() {
+        return upEdgeTargets.length;
+    }
+
+
+    /**
+     * Searches from every start node to every end node, including the extra travel times of both.
+     * @return (shortest travel time in seconds, path of beacons), or null if no path exists.
+     */
+    synchronized Pair<Double, ArrayList<Beacon>> getShortestPath(NodeSet startNodes, NodeSet endNodes) {
+        int meetingNode = search(startNodes, endNodes);
+
+        // No result found
+        if (meetingNode == -1) {
+            Log.e(TAG, "getShortestPath(): No path found");
+            return null;
+        }
+
+        double travelTime = forward.travelTimes[meetingNode] + backward.travelTimes[meetingNode];
+        return new Pair<>(travelTime, constructPath(meetingNode));
+    }
+
+    /**
+     * @return The shortest travel time between the two nodes, or infinity if no path exists.
+     */
+    synchronized double getTravelTime(int startNode, int endNode) {
+        int meetingNode = search(NodeSet.of(startNode), NodeSet.of(endNode));
+
+        return (meetingNode == -1) ?
+                Pathfinder.INFINITY :
+                forward.travelTimes[meetingNode] + backward.travelTimes[meetingNode];
+    }
+
+
+    /**
+     * Searches upwards from the start nodes and the end nodes, alternating between whichever is closer.
+     * @return The node where the shortest path is most important, or -1 if no path exists.
+     */
+    private int search(NodeSet startNodes, NodeSet endNodes) {
+        forward.reset();
+        backward.reset();
+
+        for (int i = 0; i < startNodes.size(); i++) {
+            forward.reach(startNodes.nodes[i], startNodes.travelTimes[i], -1, -1);
+        }
+        for (int i = 0; i < endNodes.size(); i++) {
+            backward.reach(endNodes.nodes[i], endNodes.travelTimes[i], -1, -1);
+        }
+
+        double bestTravelTime = Pathfinder.INFINITY;
+        int meetingNode = -1;
+
+        while (true) {
+            // A direction is finished once it can't lead to a shorter path
+            boolean isForwardActive = !forward.queue.isEmpty() && forward.queue.peekKey() < bestTravelTime;
+            boolean isBackwardActive = !backward.queue.isEmpty() && backward.queue.peekKey() < bestTravelTime;
+
+            if (!isForwardActive && !isBackwardActive) {
+                break;
+            }
+
+            SearchDirection direction, otherDirection;
+            if (isForwardActive && (!isBackwardActive || forward.queue.peekKey() <= backward.queue.peekKey())) {
+                direction = forward;
+                otherDirection = backward;
+            } else {
+                direction = backward;
+                otherDirection = forward;
+            }
+
+            int node = direction.settleNext();
+
+            // Check if the two searches meet at this node
+            double travelTime = direction.travelTimes[node] + otherDirection.travelTimes[node];
+            if (travelTime < bestTravelTime) {
+                bestTravelTime = travelTime;
+                meetingNode = node;
+            }
+        }
+
+        return meetingNode;
+    }
+
+
+    /**
+     * Constructs the path from the start node through the meeting node to the end node,
+     * replacing each shortcut with the original connections.
+     */
+    private ArrayList<Beacon> constructPath(int meetingNode) {
+        ArrayList<Beacon> path = new ArrayList<>();
+
+        // The forward search stores the path backwards, so collect it first
+        int length = 0;
+        for (int node = meetingNode; node != -1; node = forward.previousNodes[node]) {
+            pathNodes[length++] = node;
+        }
+
+        path.add(graph.getBeacon(pathNodes[length - 1]));
+        for (int i = length - 1; i > 0; i--) {
+            unpackEdge(pathNodes[i], pathNodes[i - 1], forward.previousEdges[pathNodes[i - 1]], path);
+        }
+
+        // The backward search stores the path in order
+        for (int node = meetingNode; backward.previousNodes[node] != -1; node = backward.previousNodes[node]) {
+            unpackEdge(node, backward.previousNodes[node], backward.previousEdges[node], path);
+        }
+
+        return path;
+    }
+
+    /**
+     * Adds the beacons after the first node, up to and including the second node, of a connection between them.
+     */
+    private void unpackEdge(int nodeOne, int nodeTwo, int edge, ArrayList<Beacon> path) {
+        int middleNode = upEdgeMiddleNodes[edge];
+
+        if (middleNode == -1) {
+            path.add(graph.getBeacon(nodeTwo));
+
+        } else {
+            // The skipped node is less important than both, so both halves are stored at it
+            unpackEdge(nodeOne, middleNode, findEdge(middleNode, nodeOne), path);
+            unpackEdge(middleNode, nodeTwo, findEdge(middleNode, nodeTwo), path);
+        }
+    }
+
+    private int findEdge(int node, int target) {
+        for (int edge = upEdgeOffsets[node]; edge < upEdgeOffsets[node + 1]; edge++) {
+            if (upEdgeTargets[edge] == target) {
+                return edge;
+            }
+        }
+
+        throw new IllegalStateException("Missing connection " + node + " -> " + target);
+    }
+
+
+
+
+    /**
+     * One of the two upward searches of a query.
+     */
+    private class SearchDirection {
+
+        final IndexedMinHeap queue;
+
+        /**
+         * Node ID -> shortest travel time found from this direction's nodes.
+         */
+        final double[] travelTimes;
+
+        /**
+         * Node ID -> previous node ID and the connection from it (stored at the previous node), or -1 for none.
+         */
+        final int[] previousNodes;
+        final int[] previousEdges;
+
+        /**
+         * Nodes reached since the last reset, so resetting doesn't touch the whole graph.
+         */
+        private final int[] reachedNodes;
+        private int reachedNodeCount = 0;
+
+
+        SearchDirection(int nodeCount) {
+            queue = new IndexedMinHeap(nodeCount);
+
+            travelTimes = new double[nodeCount];
+            Arrays.fill(travelTimes, Pathfinder.INFINITY);
+
+            previousNodes = new int[nodeCount];
+            Arrays.fill(previousNodes, -1);
+            previousEdges = new int[nodeCount];
+            Arrays.fill(previousEdges, -1);
+
+            reachedNodes = new int[nodeCount];
+        }
+
+
+        void reset() {
+            for (int i = 0; i < reachedNodeCount; i++) {
+                int node = reachedNodes[i];
+                travelTimes[node] = Pathfinder.INFINITY;
+                previousNodes[node] = -1;
+                previousEdges[node] = -1;
+            }
+            reachedNodeCount = 0;
+
+            queue.clear();
+        }
+
+        void reach(int node, double travelTime, int previousNode, int previousEdge) {
+            if (travelTime < travelTimes[node]) {
+                if (travelTimes[node] == Pathfinder.INFINITY) {
+                    reachedNodes[reachedNodeCount++] = node;
+                }
+
+                travelTimes[node] = travelTime;
+                previousNodes[node] = previousNode;
+                previousEdges[node] = previousEdge;
+                queue.insertOrDecrease(node, travelTime);
+            }
+        }
+
+        /**
+         * Settles the closest node and relaxes its upward connections.
+         * @return The settled node.
+         */
+        int settleNext() {
+            int node = queue.poll();
+            double travelTime = travelTimes[node];
+
+            // "Stall" the node if a more important node already reached gives it a shorter travel time,
+            // since then no shortest path goes up through it
+            for (int edge = upEdgeOffsets[node]; edge < upEdgeOffsets[node + 1]; edge++) {
+                if (travelTimes[upEdgeTargets[edge]] + upEdgeTravelTimes[edge] < travelTime) {
+                    return node;
+                }
+            }
+
+            for (int edge = upEdgeOffsets[node]; edge < upEdgeOffsets[node + 1]; edge++) {
+                reach(upEdgeTargets[edge], travelTime + upEdgeTravelTimes[edge], node, edge);
+            }
+
+            return node;
+        }
+
+    }
+
+
+
+
+    /**
+     * Working state for contracting the graph, which is discarded once the hierarchy is built.
+     */
+    private static class Builder {
+
+        private final Graph graph;
+        private final int nodeCount;
+
+        /*
+            Remaining (not yet contracted) graph, as a growable list of connections per node.
+            Contracted nodes are removed from their neighbours' lists.
+        */
+        private final int[][] targets;
+        private final double[][] travelTimes;
+        private final int[][] middleNodes;
+        private final int[] degrees;
+
+        private final boolean[] isContracted;
+        private final int[] contractedNeighbourCounts;
+
+        /*
+            Node ID -> its upward connections, recorded when it is contracted.
+        */
+        private final int[][] upTargets;
+        private final double[][] upTravelTimes;
+        private final int[][] upMiddleNodes;
+
+        // Witness search working state
+        private final IndexedMinHeap witnessQueue;
+        private final double[] witnessTravelTimes;
+        private final int[] witnessReachedNodes;
+        private int witnessReachedNodeCount = 0;
+
+
+        Builder(Graph graph) {
+            this.graph = graph;
+            nodeCount = graph.getNodeCount();
+
+            targets = new int[nodeCount][];
+            travelTimes = new double[nodeCount][];
+            middleNodes = new int[nodeCount][];
+            degrees = new int[nodeCount];
+
+            for (int node = 0; node < nodeCount; node++) {
+                int capacity = Math.max(4, graph.edgeOffsets[node + 1] - graph.edgeOffsets[node]);
+                targets[node] = new int[capacity];
+                travelTimes[node] = new double[capacity];
+                middleNodes[node] = new int[capacity];
+
+                // Only keep the shortest of parallel connections (one per shared zone)
+                for (int edge = graph.edgeOffsets[node]; edge < graph.edgeOffsets[node + 1]; edge++) {
+                    addEdge(node, graph.edgeTargets[edge], graph.baseEdgeTravelTimes[edge], -1);
+                }
+            }
+
+            isContracted = new boolean[nodeCount];
+            contractedNeighbourCounts = new int[nodeCount];
+
+            upTargets = new int[nodeCount][];
+            upTravelTimes = new double[nodeCount][];
+            upMiddleNodes = new int[nodeCount][];
+
+            witnessQueue = new IndexedMinHeap(nodeCount);
+            witnessTravelTimes = new double[nodeCount];
+            Arrays.fill(witnessTravelTimes, Pathfinder.INFINITY);
+            witnessReachedNodes = new int[nodeCount];
+        }
+
+
+        /**
+         * Contracts the node with the lowest priority until none are left.
+         * Priorities are only updated when a node reaches the front of the queue ("lazy updates").
+         */
+        void contractAll() {
+            IndexedMinHeap queue = new IndexedMinHeap(nodeCount);
+            for (int node = 0; node < nodeCount; node++) {
+                queue.insertOrDecrease(node, getPriority(node));
+            }
+
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+
+                // If its priority has increased past the next node's, put it back
+                double priority = getPriority(node);
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.insertOrDecrease(node, priority);
+                    continue;
+                }
+
+                contract(node);
+            }
+        }
+
+        /**
+         * Prefers nodes that add fewer shortcuts than the connections they remove,
+         * and spreads contraction evenly over the graph.
+         */
+        private double getPriority(int node) {
+            int edgeDifference = addShortcuts(node, true) - degrees[node];
+            return edgeDifference + contractedNeighbourCounts[node];
+        }
+
+        private void contract(int node) {
+            // Its remaining connections all go to more important nodes
+            upTargets[node] = Arrays.copyOf(targets[node], degrees[node]);
+            upTravelTimes[node] = Arrays.copyOf(travelTimes[node], degrees[node]);
+            upMiddleNodes[node] = Arrays.copyOf(middleNodes[node], degrees[node]);
+
+            addShortcuts(node, false);
+
+            // Remove the node from the remaining graph
+            isContracted[node] = true;
+            for (int i = 0; i < degrees[node]; i++) {
+                int neighbour = targets[node][i];
+                removeEdge(neighbour, node);
+                contractedNeighbourCounts[neighbour]++;
+            }
+        }
+
+        /**
+         * Finds the shortcuts needed between the node's neighbours if it is contracted.
+         * @param isSimulated Only counts the shortcuts, without adding them.
+         * @return The number of shortcuts.
+         */
+        private int addShortcuts(int node, boolean isSimulated) {
+            int shortcutCount = 0;
+            int degree = degrees[node];
+
+            for (int i = 0; i < degree - 1; i++) {
+                int neighbourOne = targets[node][i];
+
+                double maximumTravelTime = 0;
+                for (int j = i + 1; j < degree; j++) {
+                    maximumTravelTime = Math.max(maximumTravelTime, travelTimes[node][i] + travelTimes[node][j]);
+                }
+
+                searchWitnesses(neighbourOne, node, maximumTravelTime);
+
+                for (int j = i + 1; j < degree; j++) {
+                    int neighbourTwo = targets[node][j];
+                    double shortcutTravelTime = travelTimes[node][i] + travelTimes[node][j];
+
+                    // A shortcut is needed unless another path is at least as short
+                    if (witnessTravelTimes[neighbourTwo] > shortcutTravelTime) {
+                        shortcutCount++;
+
+                        if (!isSimulated) {
+                            addEdge(neighbourOne, neighbourTwo, shortcutTravelTime, node);
+                            addEdge(neighbourTwo, neighbourOne, shortcutTravelTime, node);
+                        }
+                    }
+                }
+            }
+
+            return shortcutCount;
+        }
+
+        /**
+         * Runs a limited Dijkstra search from the start node in the remaining graph, avoiding the ignored node.
+         * Stores the results in {@link #witnessTravelTimes}.
+         */
+        private void searchWitnesses(int startNode, int ignoredNode, double maximumTravelTime) {
+            for (int i = 0; i < witnessReachedNodeCount; i++) {
+                witnessTravelTimes[witnessReachedNodes[i]] = Pathfinder.INFINITY;
+            }
+            witnessReachedNodeCount = 0;
+            witnessQueue.clear();
+
+            witnessTravelTimes[startNode] = 0;
+            witnessReachedNodes[witnessReachedNodeCount++] = startNode;
+            witnessQueue.insertOrDecrease(startNode, 0);
+
+            int settledCount = 0;
+            while (!witnessQueue.isEmpty() &&
+                    witnessQueue.peekKey() <= maximumTravelTime &&
+                    settledCount < WITNESS_SEARCH_SETTLE_LIMIT) {
+
+                int currentNode = witnessQueue.poll();
+                settledCount++;
+
+                for (int i = 0; i < degrees[currentNode]; i++) {
+                    int connectedNode = targets[currentNode][i];
+                    if (connectedNode == ignoredNode) {
+                        continue;
+                    }
+
+                    double testTravelTime = witnessTravelTimes[currentNode] + travelTimes[currentNode][i];
+                    if (testTravelTime < witnessTravelTimes[connectedNode]) {
+                        if (witnessTravelTimes[connectedNode] == Pathfinder.INFINITY) {
+                            witnessReachedNodes[witnessReachedNodeCount++] = connectedNode;
+                        }
+
+                        witnessTravelTimes[connectedNode] = testTravelTime;
+                        witnessQueue.insertOrDecrease(connectedNode, testTravelTime);
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Adds a connection to the node's list, or shortens the existing one.
+         */
+        private void addEdge(int node, int target, double travelTime, int middleNode) {
+            for (int i = 0; i < degrees[node]; i++) {
+                if (targets[node][i] == target) {
+                    if (travelTime < travelTimes[node][i]) {
+                        travelTimes[node][i] = travelTime;
+                        middleNodes[node][i] = middleNode;
+                    }
+                    return;
+                }
+            }
+
+            if (degrees[node] == targets[node].length) {
+                int capacity = 2 * degrees[node];
+                targets[node] = Arrays.copyOf(targets[node], capacity);
+                travelTimes[node] = Arrays.copyOf(travelTimes[node], capacity);
+                middleNodes[node] = Arrays.copyOf(middleNodes[node], capacity);
+            }
+
+            int i = degrees[node]++;
+            targets[node][i] = target;
+            travelTimes[node][i] = travelTime;
+            middleNodes[node][i] = middleNode;
+        }
+
+        private void removeEdge(int node, int target) {
+            for (int i = 0; i < degrees[node]; i++) {
+                if (targets[node][i] == target) {
+                    // Move the last connection into its place
+                    int last = --degrees[node];
+                    targets[node][i] = targets[node][last];
+                    travelTimes[node][i] = travelTimes[node][last];
+                    middleNodes[node][i] = middleNodes[node][last];
+                    return;
+                }
+            }
+        }
+
+
+        /**
+         * Packs the upward connections of every node into compressed sparse rows.
+         */
+        ContractionHierarchy toContractionHierarchy() {
+            int[] upEdgeOffsets = new int[nodeCount + 1];
+            for (int node = 0; node < nodeCount; node++) {
+                upEdgeOffsets[node + 1] = upEdgeOffsets[node] + upTargets[node].length;
+            }
+
+            int edgeCount = upEdgeOffsets[nodeCount];
+            int[] upEdgeTargets = new int[edgeCount];
+            double[] upEdgeTravelTimes = new double[edgeCount];
+            int[] upEdgeMiddleNodes = new int[edgeCount];
+
+            for (int node = 0; node < nodeCount; node++) {
+                int offset = upEdgeOffsets[node];
+                int length = upTargets[node].length;
+                System.arraycopy(upTargets[node], 0, upEdgeTargets, offset, length);
+                System.arraycopy(upTravelTimes[node], 0, upEdgeTravelTimes, offset, length);
+                System.arraycopy(upMiddleNodes[node], 0, upEdgeMiddleNodes, offset, length);
+            }
+
+            return new ContractionHierarchy(graph,
+                    upEdgeOffsets, upEdgeTargets, upEdgeTravelTimes, upEdgeMiddleNodes);
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.example.cossettenavigation.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Dijkstra's algorithm</h1>
+ *
+ * <p>
+ *     Calculates the minimum distance from the start nodes to the end nodes in a weighted, undirected graph,
+ *     using an {@link IndexedMinHeap} keyed on the tentative travel time.
+ *     Each node is settled exactly once, so a search is O((V + E) log V),
+ *     and it stops as soon as no unsettled node can improve on the best end node found.
+ * </p>
+ *
+ * <p>
+ *     Should not be used directly by client code; use {@link Pathfinder} instead.
+ * </p>
+ *
+ * @see Pathfinder
+ * @see <a href="https://en.wikipedia.org/wiki/Dijkstra%27s_algorithm">Dijkstra's algorithm Wiki</a>
+ */
+class Dijkstra extends ShortestPathAlgorithm {
+
+    private static final String TAG = "Dijkstra";
+
+    /**
+     * Nodes reached but not yet settled, keyed on their tentative travel time.
+     */
+    private final IndexedMinHeap queue;
+
+    /**
+     * Node ID -> extra travel time if it is an end node, or infinity otherwise.
+     */
+    private final double[] endTravelTimes;
+
+    /**
+     * Connection index -> travel time searched with.
+     */
+    private final double[] edgeTravelTimes;
+
+
+    Dijkstra(Graph graph) {
+        this(graph, graph.edgeTravelTimes);
+    }
+
+    /**
+     * @param edgeTravelTimes Connection index -> travel time to search with instead of the graph's current ones
+     * (e.g. {@link Graph#baseEdgeTravelTimes}, which never change, so searches can run without the Pathfinder lock).
+     */
+    Dijkstra(Graph graph, double[] edgeTravelTimes) {
+        super(graph);
+        this.edgeTravelTimes = edgeTravelTimes;
+
+        queue = new IndexedMinHeap(graph.getNodeCount());
+
+        endTravelTimes = new double[graph.getNodeCount()];
+        Arrays.fill(endTravelTimes, Pathfinder.INFINITY);
+    }
+
+
+
+
+    /**
+     * Runs the algorithm, storing the results in {@link #shortestTravelTimes} and {@link #previousNodes}.
+     */
+    @Override
+    void run(NodeSet startNodes, NodeSet endNodes) {
+        reset();
+        queue.clear();
+
+        int[] edgeOffsets = graph.edgeOffsets;
+        int[] edgeTargets = graph.edgeTargets;
+        double[] edgeTravelTimes = this.edgeTravelTimes;
+
+        // Setup root nodes
+        for (int i = 0; i < startNodes.size(); i++) {
+            int startNode = startNodes.nodes[i];
+
+            if (startNodes.travelTimes[i] < shortestTravelTimes[startNode]) {
+                shortestTravelTimes[startNode] = startNodes.travelTimes[i];
+                queue.insertOrDecrease(startNode, startNodes.travelTimes[i]);
+            }
+        }
+
+        // Mark end nodes
+        if (endNodes != null) {
+            for (int i = 0; i < endNodes.size(); i++) {
+                int endNode = endNodes.nodes[i];
+                endTravelTimes[endNode] = Math.min(endTravelTimes[endNode], endNodes.travelTimes[i]);
+            }
+        }
+
+        // Best travel time to the "super-sink" found so far
+        double bestTravelTime = Pathfinder.INFINITY;
+
+        while (!queue.isEmpty()) {
+            // Stop once no unsettled node can lead to a better end node
+            if (queue.peekKey() >= bestTravelTime) {
+                break;
+            }
+
+            // Get the closest unsettled node - its travel time is now final
+            int currentNode = queue.poll();
+            double currentTravelTime = shortestTravelTimes[currentNode];
+
+            if (currentTravelTime + endTravelTimes[currentNode] < bestTravelTime) {
+                bestTravelTime = currentTravelTime + endTravelTimes[currentNode];
+            }
+
+            // Go through current node's connections
+            for (int edge = edgeOffsets[currentNode]; edge < edgeOffsets[currentNode + 1]; edge++) {
+                int connectedNode = edgeTargets[edge];
+
+                // If necessary, update the connected node's shortest travel time and its position in the queue
+                double testTravelTime = currentTravelTime + edgeTravelTimes[edge];
+                if (testTravelTime < shortestTravelTimes[connectedNode]) {
+                    shortestTravelTimes[connectedNode] = testTravelTime;
+                    previousNodes[connectedNode] = currentNode;
+                    queue.insertOrDecrease(connectedNode, testTravelTime);
+                }
+            }
+        }
+
+        // Unmark end nodes
+        if (endNodes != null) {
+            for (int i = 0; i < endNodes.size(); i++) {
+                endTravelTimes[endNodes.nodes[i]] = Pathfinder.INFINITY;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+package com.example.cossettenavigation.pathfinding;
+
+import android.util.Log;
+
+import com.example.cossettenavigation.map.AnchorBeacon;
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+import com.example.cossettenavigation.map.Zone;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Graph (compressed sparse row)</h1>
+ *
+ * <p>
+ *     Each anchor beacon is a node, identified by its beacon ID in the {@link MapSnapshot}.
+ *     Two anchor beacons are connected if they share a common zone,
+ *     with the connection weight being the estimated travel time between them.
+ * </p>
+ *
+ * <p>
+ *     The connections of node <code>i</code> are stored at indices
+ *     <code>edgeOffsets[i]</code> (inclusive) to <code>edgeOffsets[i + 1]</code> (exclusive)
+ *     of {@link #edgeTargets} and {@link #edgeTravelTimes},
+ *     so the algorithms can traverse the graph without boxing or allocating.
+ * </p>
+ *
+ * <p>
+ *     The graph is the same for all algorithm uses, so it should only be constructed once per snapshot.
+ *     The connections are copied from the snapshot; only the travel times change, when a zone is slowed down or closed
+ *     (see {@link #setZoneTravelTimeFactor(Zone, double)}).
+ * </p>
+ */
+class Graph {
+
+    private static final String TAG = "Graph";
+
+    /**
+     * The mapping data the graph was constructed from.
+     */
+    private final MapSnapshot snapshot;
+
+    /**
+     * Node ID -> anchor beacon.
+     */
+    final AnchorBeacon[] beacons;
+
+    /**
+     * Node ID -> index of its first connection (length is the number of nodes + 1).
+     */
+    final int[] edgeOffsets;
+
+    /**
+     * Connection index -> connected node ID.
+     */
+    final int[] edgeTargets;
+
+    /**
+     * Connection index -> node ID it starts from.
+     */
+    final int[] edgeSources;
+
+    /**
+     * Connection index -> current travel time (in seconds), including the zone's travel time factor.
+     */
+    final double[] edgeTravelTimes;
+
+    /**
+     * Connection index -> travel time (in seconds) estimated from the map.
+     */
+    final double[] baseEdgeTravelTimes;
+
+    /**
+     * Zone ID -> indices of its connections.
+     */
+    private final int[][] zoneEdges;
+
+    /**
+     * Zone ID -> travel time factor (1 for the base travel times).
+     */
+    private final double[] zoneTravelTimeFactors;
+
+    /**
+     * The number of zones that don't have their base travel times.
+     */
+    private int changedZoneCount = 0;
+
+    /**
+     * The number of travel time factor changes so far.
+     */
+    private int modificationCount = 0;
+
+    /**
+     * Zone ID -> {@link #modificationCount} just after its travel time factor last changed (0 if never),
+     * so users of the travel times can find the zones changed since they last looked
+     * without a log of every change.
+     */
+    private final int[] zoneModificationCounts;
+
+    /**
+     * Node ID -> position (in metres).
+     */
+    final double[] xPositions;
+    final double[] yPositions;
+    final double[] zPositions;
+
+    /**
+     * The fastest speed of any connection (in metres/second).
+     */
+    private final double maximumTravelSpeed;
+
+    /**
+     * The fastest vertical speed of any connection between floors (in metres/second), or 0 if there are none.
+     */
+    private final double maximumVerticalTravelSpeed;
+
+
+
+
+    Graph(MapSnapshot snapshot) {
+        this.snapshot = snapshot;
+
+        int nodeCount = snapshot.getAnchorBeaconCount();
+
+        beacons = snapshot.getAnchorBeacons().toArray(new AnchorBeacon[nodeCount]);
+
+        // Anchor beacons have the first beacon IDs, so the node IDs are the same
+        xPositions = new double[nodeCount];
+        yPositions = new double[nodeCount];
+        zPositions = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            xPositions[i] = snapshot.getBeaconXPosition(i);
+            yPositions[i] = snapshot.getBeaconYPosition(i);
+            zPositions[i] = snapshot.getBeaconZPosition(i);
+        }
+
+        // Copy the connections precomputed by the snapshot
+        edgeOffsets = snapshot.copyConnectionOffsets();
+        int edgeCount = snapshot.getConnectionCount();
+
+        edgeSources = new int[edgeCount];
+        edgeTargets = new int[edgeCount];
+        baseEdgeTravelTimes = new double[edgeCount];
+
+        for (int i = 0; i < nodeCount; i++) {
+            for (int edge = edgeOffsets[i]; edge < edgeOffsets[i + 1]; edge++) {
+                edgeSources[edge] = i;
+                edgeTargets[edge] = snapshot.getConnectionTarget(edge);
+                baseEdgeTravelTimes[edge] = snapshot.getConnectionTravelTime(edge);
+            }
+        }
+
+        edgeTravelTimes = baseEdgeTravelTimes.clone();
+
+        // Index the connections of each zone - count them first, then fill in the indices
+        int zoneCount = snapshot.getZones().size();
+        int[] zoneEdgeCounts = new int[zoneCount];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            zoneEdgeCounts[snapshot.getConnectionZoneId(edge)]++;
+        }
+
+        zoneEdges = new int[zoneCount][];
+        for (int zoneId = 0; zoneId < zoneCount; zoneId++) {
+            zoneEdges[zoneId] = new int[zoneEdgeCounts[zoneId]];
+        }
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int zoneId = snapshot.getConnectionZoneId(edge);
+            zoneEdges[zoneId][--zoneEdgeCounts[zoneId]] = edge;
+        }
+
+        zoneTravelTimeFactors = new double[zoneCount];
+        Arrays.fill(zoneTravelTimeFactors, 1);
+        zoneModificationCounts = new int[zoneCount];
+
+        // Find the fastest vertical speed, for estimating the minimum time to change floors
+        double maximumVerticalTravelSpeed = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            for (int edge = edgeOffsets[i]; edge < edgeOffsets[i + 1]; edge++) {
+                double verticalDistance = Math.abs(zPositions[edgeTargets[edge]] - zPositions[i]);
+
+                if (verticalDistance > 0) {
+                    maximumVerticalTravelSpeed = Math.max(
+                            maximumVerticalTravelSpeed,
+                            verticalDistance / edgeTravelTimes[edge]);
+                }
+            }
+        }
+
+        this.maximumTravelSpeed = Map.getMaximumTravelSpeed();
+        this.maximumVerticalTravelSpeed = maximumVerticalTravelSpeed;
+    }
+
+
+    /**
+     * Constructs the graph from the current {@link Map#getSnapshot()}.
+     */
+    static Graph fromMap() {
+        return new Graph(Map.getSnapshot());
+    }
+
+    MapSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    int getNodeCount() {
+        return beacons.length;
+    }
+
+    int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * @return The node ID of the beacon, or -1 if it is not part of the graph.
+     */
+    int getNodeId(AnchorBeacon beacon) {
+        return snapshot.contains(beacon) ? beacon.getId() : -1;
+    }
+
+    AnchorBeacon getBeacon(int nodeId) {
+        return beacons[nodeId];
+    }
+
+    /**
+     * <p>
+     *     Multiplies the base travel times of the zone's connections by the factor,
+     *     e.g. 2 for a crowded hallway, or infinity for closed stairs (1 restores the base travel times).
+     * </p>
+     *
+     * <p>
+     *     The factor can't be less than 1, so {@link #estimateMinimumTravelTime(int, int)} remains a lower bound.
+     *     Not thread-safe; {@link Pathfinder} only calls it while no searches are running.
+     * </p>
+     */
+    void setZoneTravelTimeFactor(Zone zone, double factor) {
+        if (!(factor >= 1)) {
+            Log.e(TAG, String.format("setZoneTravelTimeFactor(): Invalid factor %f", factor));
+            return;
+        }
+
+        if (!snapshot.contains(zone)) {
+            Log.e(TAG, "setZoneTravelTimeFactor(): Zone not in the map");
+            return;
+        }
+
+        double oldFactor = zoneTravelTimeFactors[zone.getId()];
+        if (factor == oldFactor) {
+            return;
+        }
+
+        if (oldFactor == 1) {
+            changedZoneCount++;
+        } else if (factor == 1) {
+            changedZoneCount--;
+        }
+        zoneTravelTimeFactors[zone.getId()] = factor;
+
+        for (int edge : zoneEdges[zone.getId()]) {
+            edgeTravelTimes[edge] = applyTravelTimeFactor(baseEdgeTravelTimes[edge], factor);
+        }
+
+        zoneModificationCounts[zone.getId()] = ++modificationCount;
+    }
+
+    /**
+     * @return The travel time with the zone's factor applied.
+     * Infinite if the zone is closed, even where it takes no time (e.g. a door between beacons at the same position),
+     * since 0 * infinity is NaN.
+     */
+    static double applyTravelTimeFactor(double travelTime, double factor) {
+        return Double.isInfinite(factor) ? Double.POSITIVE_INFINITY : travelTime * factor;
+    }
+
+    /**
+     * Restores the base travel times of all zones.
+     */
+    void resetZoneTravelTimeFactors() {
+        for (int zoneId = 0; zoneId < zoneTravelTimeFactors.length && changedZoneCount > 0; zoneId++) {
+            if (zoneTravelTimeFactors[zoneId] != 1) {
+                zoneTravelTimeFactors[zoneId] = 1;
+                changedZoneCount--;
+
+                for (int edge : zoneEdges[zoneId]) {
+                    edgeTravelTimes[edge] = baseEdgeTravelTimes[edge];
+                }
+
+                zoneModificationCounts[zoneId] = ++modificationCount;
+            }
+        }
+    }
+
+    /**
+     * @return The zone's travel time factor, or 1 if it is not part of the graph's snapshot.
+     */
+    double getZoneTravelTimeFactor(Zone zone) {
+        return snapshot.contains(zone) ? zoneTravelTimeFactors[zone.getId()] : 1;
+    }
+
+    /**
+     * @return The indices of the zone's connections.
+     */
+    int[] getZoneEdges(Zone zone) {
+        return snapshot.contains(zone) ? zoneEdges[zone.getId()] : new int[0];
+    }
+
+    /**
+     * @return The indices of the connections of the zone with this ID.
+     */
+    int[] getZoneEdges(int zoneId) {
+        return zoneEdges[zoneId];
+    }
+
+    int getZoneCount() {
+        return zoneEdges.length;
+    }
+
+    /**
+     * @return The number of travel time factor changes so far (only ever increases).
+     */
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * @return True if the travel time factor of the zone with this ID has changed
+     * since {@link #getModificationCount()} returned the given count.
+     */
+    boolean isZoneModifiedSince(int zoneId, int modificationCount) {
+        return zoneModificationCounts[zoneId] > modificationCount;
+    }
+
+    /**
+     * Identifies the current travel times, so results computed from them can be checked before they are reused.
+     * @return 0 while all zones have their base travel times, or a number unique to this set of changes.
+     */
+    int getWeightVersion() {
+        return (changedZoneCount == 0) ? 0 : modificationCount;
+    }
+
+    /**
+     * <p>
+     *     A lower bound on the travel time between two nodes, which never overestimates
+     *     (so it can be used as an A* heuristic).
+     * </p>
+     *
+     * <p>
+     *     No path is shorter than the straight line, and no connection is faster than the fastest speed.
+     *     A path between floors must also cover the vertical distance,
+     *     and no connection between floors climbs faster than the fastest vertical speed.
+     * </p>
+     */
+    double estimateMinimumTravelTime(int nodeOne, int nodeTwo) {
+        double xDistance = xPositions[nodeTwo] - xPositions[nodeOne];
+        double yDistance = yPositions[nodeTwo] - yPositions[nodeOne];
+        double zDistance = zPositions[nodeTwo] - zPositions[nodeOne];
+
+        double minimumTravelTime = Math.sqrt(
+                xDistance * xDistance +
+                yDistance * yDistance +
+                zDistance * zDistance) / maximumTravelSpeed;
+
+        if (zDistance != 0 && maximumVerticalTravelSpeed > 0) {
+            minimumTravelTime = Math.max(minimumTravelTime, Math.abs(zDistance) / maximumVerticalTravelSpeed);
+        }
+
+        return minimumTravelTime;
+    }
+
+    /**
+     * A hash of the beacons and connections, so preprocessing saved for one map
+     * is never used with a different one.
+     */
+    long getFingerprint() {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+
+        hash = (hash ^ getNodeCount()) * 0x100000001b3L;
+        for (AnchorBeacon beacon : beacons) {
+            hash = (hash ^ beacon.getUUID().getMostSignificantBits()) * 0x100000001b3L;
+            hash = (hash ^ beacon.getUUID().getLeastSignificantBits()) * 0x100000001b3L;
+            hash = (hash ^ beacon.getMajor()) * 0x100000001b3L;
+            hash = (hash ^ beacon.getMinor()) * 0x100000001b3L;
+        }
+
+        for (int i = 0; i <= getNodeCount(); i++) {
+            hash = (hash ^ edgeOffsets[i]) * 0x100000001b3L;
+        }
+        for (int edge = 0; edge < getEdgeCount(); edge++) {
+            hash = (hash ^ edgeTargets[edge]) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(baseEdgeTravelTimes[edge])) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.example.cossettenavigation.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Indexed binary min-heap</h1>
+ *
+ * <p>
+ *     A priority queue of node IDs (0 to capacity - 1) ordered by a double key,
+ *     which tracks the position of every node so that {@link #contains(int)} is O(1)
+ *     and decreasing a node's key is O(log n).
+ * </p>
+ *
+ * <p>
+ *     All storage is allocated up front, so using the heap allocates nothing.
+ * </p>
+ */
+class IndexedMinHeap {
+
+    /**
+     * Heap index -> node ID.
+     */
+    private final int[] heap;
+
+    /**
+     * Node ID -> heap index, or -1 if the node is not in the heap.
+     */
+    private final int[] positions;
+
+    /**
+     * Node ID -> key.
+     */
+    private final double[] keys;
+
+    private int size = 0;
+
+
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        positions = new int[capacity];
+        keys = new double[capacity];
+
+        Arrays.fill(positions, -1);
+    }
+
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int node) {
+        return positions[node] != -1;
+    }
+
+    /**
+     * Removes all nodes (O(size), not O(capacity)).
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return The key of the node with the minimum key.
+     */
+    double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Adds the node, or decreases its key if it is already in the heap with a greater key.
+     */
+    void insertOrDecrease(int node, double key) {
+        int position = positions[node];
+
+        if (position == -1) {
+            keys[node] = key;
+            heap[size] = node;
+            positions[node] = size;
+            size++;
+            siftUp(size - 1);
+        }
+
+        else if (key < keys[node]) {
+            keys[node] = key;
+            siftUp(position);
+        }
+    }
+
+    /**
+     * Removes and returns the node with the minimum key.
+     */
+    int poll() {
+        int minimumNode = heap[0];
+        positions[minimumNode] = -1;
+        size--;
+
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+
+        return minimumNode;
+    }
+
+
+
+
+    private void siftUp(int position) {
+        int node = heap[position];
+        double key = keys[node];
+
+        while (position > 0) {
+            int parentPosition = (position - 1) >>> 1;
+            int parentNode = heap[parentPosition];
+
+            if (keys[parentNode] <= key) {
+                break;
+            }
+
+            heap[position] = parentNode;
+            positions[parentNode] = position;
+            position = parentPosition;
+        }
+
+        heap[position] = node;
+        positions[node] = position;
+    }
+
+    private void siftDown(int position) {
+        int node = heap[position];
+        double key = keys[node];
+        int half = size >>> 1;
+
+        while (position < half) {
+            int childPosition = 2 * position + 1;
+            int childNode = heap[childPosition];
+
+            int rightPosition = childPosition + 1;
+            if (rightPosition < size && keys[heap[rightPosition]] < keys[childNode]) {
+                childPosition = rightPosition;
+                childNode = heap[childPosition];
+            }
+
+            if (key <= keys[childNode]) {
+                break;
+            }
+
+            heap[position] = childNode;
+            positions[childNode] = position;
+            position = childPosition;
+        }
+
+        heap[position] = node;
+        positions[node] = position;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.example.cossettenavigation.pathfinding;
+
+/**
+ * <h1>Set of weighted nodes</h1>
+ *
+ * <p>
+ *     The start or end nodes of a search, each with an extra travel time
+ *     (e.g. from a support beacon to the anchor beacons in its zone).
+ * </p>
+ *
+ * <p>
+ *     Searching from a set of start nodes is equivalent to adding a virtual "super-source" node
+ *     connected to each start node by its travel time, and searching to a set of end nodes is equivalent
+ *     to adding a virtual "super-sink" node, so one search finds the best combination of start and end nodes.
+ * </p>
+ */
+class NodeSet {
+
+    final int[] nodes;
+    final double[] travelTimes;
+    private int size = 0;
+
+
+    NodeSet(int capacity) {
+        nodes = new int[capacity];
+        travelTimes = new double[capacity];
+    }
+
+    /**
+     * A set containing only the given node, with no extra travel time.
+     */
+    static NodeSet of(int node) {
+        NodeSet nodeSet = new NodeSet(1);
+        nodeSet.add(node, 0);
+        return nodeSet;
+    }
+
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int node, double travelTime) {
+        nodes[size] = node;
+        travelTimes[size] = travelTime;
+        size++;
+    }
+
+}
@@ -6,9 +6,13 @@ import android.util.Pair;
 import com.example.cossettenavigation.map.AnchorBeacon;
 import com.example.cossettenavigation.map.Beacon;
 import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
 import com.example.cossettenavigation.map.SupportBeacon;
 import com.example.cossettenavigation.map.Zone;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 /**
@@ -20,156 +24,492 @@ public class Pathfinder {
 
     static double INFINITY = Double.POSITIVE_INFINITY;
 
+    /**
+     * Path of the preprocessed {@link ContractionHierarchy} for the map database, in the app's assets.
+     */
+    public static final String CONTRACTION_HIERARCHY_ASSET = "pathfinding/contraction_hierarchy.bin";
+
+    /**
+     * The shortest path algorithms that can be used.
+     */
+    public enum Algorithm {
+        /**
+         * A* with a straight-line (and floor-aware) lower bound; visits the fewest nodes for a single route.
+         */
+        ASTAR,
+
+        /**
+         * Indexed binary-heap Dijkstra; stops as soon as the destination is reached.
+         */
+        DIJKSTRA,
+
+        /**
+         * Shortest Path Faster Algorithm; always searches the whole graph.
+         */
+        SPFA
+    }
+
+    /**
+     * The map's graph, constructed the first time a path is requested (and again whenever the map snapshot is replaced).
+     */
+    private static Graph graph = null;
+
+    private static Algorithm algorithm = Algorithm.ASTAR;
+
+    /**
+     * Reused for every search, so the working arrays are only allocated once.
+     */
+    private static ShortestPathAlgorithm shortestPathAlgorithm = null;
+
+    /**
+     * Optional precomputed shortest paths between all anchor beacons; searches are used if null.
+     */
+    private static volatile AllPairsTable allPairsTable = null;
+
+    /**
+     * Optional preprocessing for maps too large for {@link #allPairsTable}; searches are used if null.
+     */
+    private static volatile ContractionHierarchy contractionHierarchy = null;
+
+
+
+
+    public static synchronized Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Sets the algorithm used for all following searches.
+     */
+    public static synchronized void setAlgorithm(Algorithm algorithm) {
+        if (Pathfinder.algorithm != algorithm) {
+            Pathfinder.algorithm = algorithm;
+            shortestPathAlgorithm = null;
+        }
+    }
+
+
+    /**
+     * <p>
+     *     Precomputes the shortest paths between all anchor beacons (in parallel),
+     *     so that following path requests only look up the results instead of searching the graph.
+     * </p>
+     *
+     * <p>
+     *     This takes a while for large maps, so it should be called from a background thread once the map is loaded.
+     *     Does nothing if the map is too large for the table.
+     * </p>
+     */
+    public static void precomputeAllPairs() {
+        AllPairsTable table = AllPairsTable.build(getGraph());
+
+        if (table != null) {
+            allPairsTable = table;
+        }
+    }
+
+    public static boolean isAllPairsPrecomputed() {
+        return allPairsTable != null;
+    }
+
+
+    /**
+     * <p>
+     *     Prepares the fastest available way of answering path requests, from a background thread:
+     *     the all-pairs table for small maps, otherwise the contraction hierarchy
+     *     (loaded from the asset if it matches the map, or built if not).
+     * </p>
+     *
+     * @param contractionHierarchyAsset The {@link #CONTRACTION_HIERARCHY_ASSET} stream (closed here), or null if missing.
+     */
+    public static void precompute(InputStream contractionHierarchyAsset) {
+        if (contractionHierarchyAsset != null) {
+            try {
+                loadContractionHierarchy(contractionHierarchyAsset);
+            } catch (IOException e) {
+                Log.e(TAG, "precompute(): Failed to load contraction hierarchy", e);
+            } finally {
+                try {
+                    contractionHierarchyAsset.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "precompute(): Failed to close contraction hierarchy", e);
+                }
+            }
+        }
+
+        precomputeAllPairs();
+
+        if (!isAllPairsPrecomputed() && !isContractionHierarchyLoaded()) {
+            contractionHierarchy = ContractionHierarchy.build(getGraph());
+        }
+    }
+
+    /**
+     * Loads a contraction hierarchy saved by {@link #writeContractionHierarchy(OutputStream)}.
+     * @return True if it was loaded, false if it was built for a different map.
+     */
+    public static boolean loadContractionHierarchy(InputStream inputStream) throws IOException {
+        ContractionHierarchy hierarchy = ContractionHierarchy.read(inputStream, getGraph());
+
+        if (hierarchy != null) {
+            contractionHierarchy = hierarchy;
+        }
+
+        return hierarchy != null;
+    }
+
+    /**
+     * Builds the contraction hierarchy for the current map (if not already loaded) and saves it,
+     * e.g. to {@link #CONTRACTION_HIERARCHY_ASSET} so the app doesn't have to build it on startup.
+     */
+    public static void writeContractionHierarchy(OutputStream outputStream) throws IOException {
+        ContractionHierarchy hierarchy = contractionHierarchy;
+
+        if (hierarchy == null || hierarchy.getGraph() != getGraph()) {
+            hierarchy = ContractionHierarchy.build(getGraph());
+            contractionHierarchy = hierarchy;
+        }
+
+        hierarchy.write(outputStream);
+    }
+
+    public static boolean isContractionHierarchyLoaded() {
+        return contractionHierarchy != null;
+    }
+
+
+    /**
+     * <p>
+     *     Multiplies the travel times through the zone by the factor (at least 1),
+     *     e.g. 2 for a crowded hallway (1 restores the normal travel times).
+     * </p>
+     *
+     * <p>
+     *     Precomputed results are only used while all zones have their normal travel times;
+     *     {@link Rerouter}s repair their paths the next time they are used.
+     * </p>
+     */
+    public static synchronized void setZoneTravelTimeFactor(Zone zone, double factor) {
+        getGraph().setZoneTravelTimeFactor(zone, factor);
+    }
+
+    /**
+     * Prevents paths from going through the zone (e.g. stairs blocked during an event).
+     */
+    public static void closeZone(Zone zone) {
+        setZoneTravelTimeFactor(zone, INFINITY);
+    }
+
+    /**
+     * Restores the normal travel times through the zone.
+     */
+    public static void reopenZone(Zone zone) {
+        setZoneTravelTimeFactor(zone, 1);
+    }
+
+    /**
+     * Restores the normal travel times through all zones.
+     */
+    public static synchronized void resetZoneTravelTimes() {
+        getGraph().resetZoneTravelTimeFactors();
+    }
+
+
     /**
      * Determines the shortest path between two beacons.
      * @return The shortest path by travel time, or null if no path is found.
      */
-    public static Path getShortestPath(Beacon startBeacon, Beacon endBeacon) {
+    public static synchronized Path getShortestPath(Beacon startBeacon, Beacon endBeacon) {
         // If starting and ending at the same beacon, return an empty path
         if (startBeacon == endBeacon) {
             return new Path(0, new ArrayList<Step>());
         }
 
+        Graph graph = getGraph();
 
-        Pair<Double, ArrayList<Beacon>> result = null;
+        NodeSet startNodes = getStartNodes(graph, startBeacon);
+        NodeSet endNodes = getEndNodes(graph, endBeacon);
 
-        if (startBeacon instanceof SupportBeacon) {
-            result = getShortestPath((SupportBeacon) startBeacon, endBeacon);
+        if (startNodes == null || endNodes == null) {
+            Log.e(TAG, "getShortestPath(Beacon, Beacon): Invalid beacons");
+            return null;
         }
 
-        else if (startBeacon instanceof AnchorBeacon) {
-            result = getShortestPath((AnchorBeacon) startBeacon, endBeacon);
+        Pair<Double, ArrayList<Beacon>> result = getShortestPath(graph, startNodes, endNodes);
+
+        if (result == null) {
+            return null;
+
+        } else {
+            // The search only covers anchor beacons, so add the support beacons at the ends
+            if (startBeacon instanceof SupportBeacon) {
+                result.second.add(0, startBeacon);
+            }
+            if (endBeacon instanceof SupportBeacon) {
+                result.second.add(endBeacon);
+            }
+
+            return createPath(result.first, result.second);
         }
+    }
 
-        else {
-            Log.e(TAG, "getShortestPath(Beacon, Beacon): Invalid startBeacon type");
+
+    /**
+     * Determines the shortest path from a beacon to the nearest anchor beacon in a zone,
+     * using a single search for all combinations of start and end anchor beacons.
+     * @return The shortest path by travel time (with the zone as its destination), or null if no path is found.
+     */
+    public static synchronized Path getShortestPath(Beacon startBeacon, Zone destination) {
+        Graph graph = getGraph();
+
+        NodeSet startNodes = getStartNodes(graph, startBeacon);
+
+        NodeSet endNodes = new NodeSet(destination.getAnchorBeacons().size());
+        for (AnchorBeacon anchorBeacon : destination.getAnchorBeacons()) {
+            int node = graph.getNodeId(anchorBeacon);
+            if (node >= 0) {
+                endNodes.add(node, 0);
+            }
+        }
+
+        if (startNodes == null || endNodes.size() == 0) {
+            Log.e(TAG, "getShortestPath(Beacon, Zone): Invalid beacon or zone");
             return null;
         }
 
+        Pair<Double, ArrayList<Beacon>> result = getShortestPath(graph, startNodes, endNodes);
 
         if (result == null) {
             return null;
 
         } else {
-            // Decompose results
-            double travelTime = result.first;
-            ArrayList<Beacon> beacons = result.second;
-
-            ArrayList<Step> steps = new ArrayList<>();
-
-            // Generate each step
-            for (int i = 0; i < beacons.size() - 1; i++) {
-                Beacon beaconOne = beacons.get(i);
-                Beacon beaconTwo = beacons.get(i + 1);
-
-                // Find the common zone
-                Zone zone = null;
-                for (Zone beaconOneZone : beaconOne.getZones()) {
-                    if (beaconTwo.getZones().contains(beaconOneZone)) {
-                        zone = beaconOneZone;
-                    }
-                }
+            // The search only covers anchor beacons, so add the support beacon at the start
+            if (startBeacon instanceof SupportBeacon) {
+                result.second.add(0, startBeacon);
+            }
 
-                if (zone == null) {
-                    Log.e(TAG, "getShortestPath(Beacon, Beacon): Zone for Step " + i + " not found");
-                    return null;
+            Path path = createPath(result.first, result.second);
+            if (path != null) {
+                path.setDestination(destination);
+            }
+            return path;
+        }
+    }
 
-                } else {
-                    // Get angles
 
-                    Double travelAngle = Map.estimateTravelAngle(beaconOne, beaconTwo);
 
-                    double turnAngle;
-                    if (    (i > 0) &&
-                            (travelAngle != null) &&
-                            (steps.get(i - 1).getTravelAngle() != null) ) {
-                        turnAngle = travelAngle - steps.get(i - 1).getTravelAngle();
-                    } else {
-                        turnAngle = 0;
-                    }
 
-                    steps.add(new Step(beaconOne, beaconTwo, zone, travelAngle, turnAngle));
+    /**
+     * Prepares to quickly find a new path to the same destination as the given path,
+     * from wherever the user ends up.
+     * The path may be a copy (e.g. passed in an Intent); its destination is looked up in the map.
+     * @return The rerouter, or null if the path has no destination.
+     */
+    public static synchronized Rerouter createRerouter(Path path) {
+        Graph graph = getGraph();
+        MapSnapshot snapshot = graph.getSnapshot();
+
+        NodeSet destinationNodes;
+        Zone destination = null;
+        Beacon destinationBeacon = null;
+
+        if (path.getDestination() != null) {
+            destination = snapshot.findZone(path.getDestination());
+            if (destination != null) {
+                destinationNodes = new NodeSet(destination.getAnchorBeacons().size());
+                for (AnchorBeacon anchorBeacon : destination.getAnchorBeacons()) {
+                    int node = graph.getNodeId(anchorBeacon);
+                    if (node >= 0) {
+                        destinationNodes.add(node, 0);
+                    }
                 }
+            } else {
+                destinationNodes = null;
             }
 
-            return new Path(travelTime, steps);
+        } else if (path.getSteps().size() > 0) {
+            destinationBeacon = snapshot.findBeacon(path.getSteps().get(path.getSteps().size() - 1).getEndBeacon());
+            destinationNodes = (destinationBeacon != null) ? getEndNodes(graph, destinationBeacon) : null;
+
+        } else {
+            destinationNodes = null;
         }
+
+        if (destinationNodes == null || destinationNodes.size() == 0) {
+            Log.e(TAG, "createRerouter(): Path has no destination");
+            return null;
+        }
+
+        return new Rerouter(graph, destinationNodes, destinationBeacon, destination);
     }
 
 
-    private static Pair<Double, ArrayList<Beacon>> getShortestPath(SupportBeacon startBeacon, Beacon endBeacon) {
-        double minimumTime = INFINITY;
-        ArrayList<Beacon> shortestPath = null;
 
-        for (AnchorBeacon anchorBeacon : startBeacon.getZone().getAnchorBeacons()) {
 
-            Pair<Double, ArrayList<Beacon>> testPath = getShortestPath(anchorBeacon, endBeacon);
+    /**
+     * Generates the steps between each pair of consecutive beacons.
+     * @return The path, or null if a step's zone can't be found.
+     */
+    static Path createPath(double travelTime, ArrayList<Beacon> beacons) {
+        ArrayList<Step> steps = new ArrayList<>();
+
+        // Generate each step
+        for (int i = 0; i < beacons.size() - 1; i++) {
+            Beacon beaconOne = beacons.get(i);
+            Beacon beaconTwo = beacons.get(i + 1);
+
+            // Find the common zone
+            Zone zone = null;
+            for (Zone beaconOneZone : beaconOne.getZones()) {
+                if (beaconTwo.getZones().contains(beaconOneZone)) {
+                    zone = beaconOneZone;
+                }
+            }
+
+            if (zone == null) {
+                Log.e(TAG, "createPath(): Zone for Step " + i + " not found");
+                return null;
 
-            if (testPath != null) {
-                double testTime = Map.estimateTravelTime(startBeacon, anchorBeacon, startBeacon.getZone()) + testPath.first;
+            } else {
+                // Get angles
 
-                if (testTime < minimumTime) {
-                    minimumTime = testTime;
-                    shortestPath = testPath.second;
-                    shortestPath.add(0, startBeacon);
+                Double travelAngle = Map.estimateTravelAngle(beaconOne, beaconTwo);
+
+                double turnAngle;
+                if (    (i > 0) &&
+                        (travelAngle != null) &&
+                        (steps.get(i - 1).getTravelAngle() != null) ) {
+                    turnAngle = travelAngle - steps.get(i - 1).getTravelAngle();
+                } else {
+                    turnAngle = 0;
                 }
+
+                steps.add(new Step(beaconOne, beaconTwo, zone, travelAngle, turnAngle));
             }
         }
 
-        if (shortestPath != null) {
-            return new Pair<>(minimumTime, shortestPath);
-        } else {
-            Log.e(TAG, "getShortestPath(SupportBeacon, Beacon): No path found");
-            return null;
-        }
+        return new Path(travelTime, steps);
     }
 
 
-    private static Pair<Double, ArrayList<Beacon>> getShortestPath(AnchorBeacon startBeacon, Beacon endBeacon) {
-        if (endBeacon instanceof SupportBeacon) {
-            return getShortestPath(startBeacon, (SupportBeacon) endBeacon);
+    /**
+     * <p>An anchor beacon starts at itself.</p>
+     * <p>A support beacon starts at each anchor beacon in its zone, after travelling to it.</p>
+     * @return The start nodes, or null if the beacon is invalid.
+     */
+    static NodeSet getStartNodes(Graph graph, Beacon startBeacon) {
+        if (startBeacon instanceof AnchorBeacon) {
+            int node = graph.getNodeId((AnchorBeacon) startBeacon);
+            return (node >= 0) ? NodeSet.of(node) : null;
         }
 
-        else if (endBeacon instanceof AnchorBeacon) {
-            return getShortestPath(startBeacon, (AnchorBeacon) endBeacon);
+        else if (startBeacon instanceof SupportBeacon) {
+            return getSupportBeaconNodes(graph, (SupportBeacon) startBeacon, true);
         }
 
         else {
-            Log.e(TAG, "getShortestPath(AnchorBeacon, Beacon): Invalid endBeacon type");
+            Log.e(TAG, "getStartNodes(): Invalid startBeacon type");
             return null;
         }
     }
 
+    /**
+     * <p>An anchor beacon ends at itself.</p>
+     * <p>A support beacon ends at each anchor beacon in its zone, before travelling from it.</p>
+     * @return The end nodes, or null if the beacon is invalid.
+     */
+    static NodeSet getEndNodes(Graph graph, Beacon endBeacon) {
+        if (endBeacon instanceof AnchorBeacon) {
+            int node = graph.getNodeId((AnchorBeacon) endBeacon);
+            return (node >= 0) ? NodeSet.of(node) : null;
+        }
 
-    private static Pair<Double, ArrayList<Beacon>> getShortestPath(AnchorBeacon startBeacon, SupportBeacon endBeacon) {
-        double minimumTime = INFINITY;
-        ArrayList<Beacon> shortestPath = null;
+        else if (endBeacon instanceof SupportBeacon) {
+            return getSupportBeaconNodes(graph, (SupportBeacon) endBeacon, false);
+        }
+
+        else {
+            Log.e(TAG, "getEndNodes(): Invalid endBeacon type");
+            return null;
+        }
+    }
 
-        for (AnchorBeacon anchorBeacon : endBeacon.getZone().getAnchorBeacons()) {
-            Pair<Double, ArrayList<Beacon>> testPath = getShortestPath(startBeacon, anchorBeacon);
+    private static NodeSet getSupportBeaconNodes(Graph graph, SupportBeacon supportBeacon, boolean isStart) {
+        Zone zone = supportBeacon.getZone();
+        if (zone == null) {
+            Log.e(TAG, "getSupportBeaconNodes(): Support beacon has no zone");
+            return null;
+        }
 
-            if (testPath != null) {
-                double testTime = testPath.first + Map.estimateTravelTime(anchorBeacon, endBeacon, endBeacon.getZone());
+        NodeSet nodes = new NodeSet(zone.getAnchorBeacons().size());
+        for (AnchorBeacon anchorBeacon : zone.getAnchorBeacons()) {
+            int node = graph.getNodeId(anchorBeacon);
 
-                if (testTime < minimumTime) {
-                    minimumTime = testTime;
-                    shortestPath = testPath.second;
-                    shortestPath.add(endBeacon);
-                }
+            if (node >= 0) {
+                nodes.add(node, Graph.applyTravelTimeFactor(
+                        isStart ?
+                                Map.estimateTravelTime(supportBeacon, anchorBeacon, zone) :
+                                Map.estimateTravelTime(anchorBeacon, supportBeacon, zone),
+                        graph.getZoneTravelTimeFactor(zone)));
             }
         }
 
-        if (shortestPath != null) {
-            return new Pair<>(minimumTime, shortestPath);
-        } else {
-            Log.e(TAG, "getShortestPath(AnchorBeacon, SupportBeacon): No path found");
-            return null;
+        return (nodes.size() > 0) ? nodes : null;
+    }
+
+
+    /**
+     * @return (shortest travel time in seconds, path of anchor beacons), or null if no path is found.
+     */
+    private static Pair<Double, ArrayList<Beacon>> getShortestPath(Graph graph, NodeSet startNodes, NodeSet endNodes) {
+        // Look up the result if it has been precomputed with the current travel times
+        AllPairsTable table = allPairsTable;
+        if (table != null && table.getGraph() == graph && table.getWeightVersion() == graph.getWeightVersion()) {
+            return table.getShortestPath(startNodes, endNodes);
+        }
+
+        // Otherwise, search the contraction hierarchy if it has been loaded
+        ContractionHierarchy hierarchy = contractionHierarchy;
+        if (hierarchy != null && hierarchy.getGraph() == graph && hierarchy.getWeightVersion() == graph.getWeightVersion()) {
+            return hierarchy.getShortestPath(startNodes, endNodes);
+        }
+
+        return searchShortestPath(startNodes, endNodes);
+    }
+
+
+    private static synchronized Pair<Double, ArrayList<Beacon>> searchShortestPath(NodeSet startNodes, NodeSet endNodes) {
+        if (shortestPathAlgorithm == null) {
+            shortestPathAlgorithm = createShortestPathAlgorithm(algorithm, getGraph());
+        }
+
+        return shortestPathAlgorithm.getShortestPath(startNodes, endNodes);
+    }
+
+
+    private static synchronized Graph getGraph() {
+        // If the graph doesn't exist yet or the map has been replaced, construct it
+        if (graph == null || graph.getSnapshot() != Map.getSnapshot()) {
+            graph = Graph.fromMap();
+            shortestPathAlgorithm = null;
         }
+
+        return graph;
     }
 
 
-    private static Pair<Double, ArrayList<Beacon>> getShortestPath(AnchorBeacon startBeacon, AnchorBeacon endBeacon) {
-        return new SPFA(startBeacon, endBeacon).getShortestPath();
+    private static ShortestPathAlgorithm createShortestPathAlgorithm(Algorithm algorithm, Graph graph) {
+        switch (algorithm) {
+            case ASTAR:
+                return new AStar(graph);
+            case SPFA:
+                return new SPFA(graph);
+            case DIJKSTRA:
+                return new Dijkstra(graph);
+            default:
+                Log.e(TAG, "createShortestPathAlgorithm(): Algorithm not found");
+                return new Dijkstra(graph);
+        }
     }
 
 }
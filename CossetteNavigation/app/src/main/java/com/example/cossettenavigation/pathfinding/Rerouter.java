@@ -0,0 +1,391 @@
+package com.example.cossettenavigation.pathfinding;
+
+import android.util.Log;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.SupportBeacon;
+import com.example.cossettenavigation.map.Zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>Rerouter</h1>
+ *
+ * <p>
+ *     Finds a new path to a fixed destination when the user leaves the current path.
+ * </p>
+ *
+ * <p>
+ *     The shortest path tree rooted at the destination is searched once, when navigation starts.
+ *     The graph is undirected, so the tree gives the shortest travel time to the destination from every anchor beacon,
+ *     and the next anchor beacon on the way there. A new path is then found by following the tree from the
+ *     user's current beacon, in time proportional to the length of the path rather than the size of the map.
+ * </p>
+ *
+ * <p>
+ *     When zones are slowed down or closed ({@link Pathfinder#setZoneTravelTimeFactor(Zone, double)}),
+ *     the tree is repaired instead of searched again: only the nodes whose paths used a slower connection
+ *     are reset (and then reconnected from their unaffected neighbours),
+ *     and faster connections only spread outwards from where they improve the tree.
+ *     If the destination is a support beacon, the travel times from the anchor beacons in its zone
+ *     (where the tree starts) are updated the same way when that zone changes.
+ * </p>
+ *
+ * <p>
+ *     Created by {@link Pathfinder#createRerouter(Path)}.
+ * </p>
+ */
+public class Rerouter {
+
+    private static final String TAG = "Rerouter";
+
+    private final Graph graph;
+
+    /**
+     * The destination beacon (if the path ends at a beacon).
+     */
+    private final Beacon destinationBeacon;
+
+    /**
+     * The destination zone (if the path ends at a zone).
+     */
+    private final Zone destination;
+
+    /**
+     * Node ID -> extra travel time to the destination if it is a destination node, or infinity otherwise.
+     */
+    private final double[] destinationTravelTimes;
+
+    /**
+     * If the destination is a support beacon, the zone travelled through from the destination nodes to it,
+     * and node ID -> that travel time without the zone's travel time factor (infinity if not a destination node).
+     * Null otherwise.
+     */
+    private final Zone destinationLegZone;
+    private final double[] baseDestinationTravelTimes;
+
+    /**
+     * Node ID -> shortest travel time to the destination.
+     */
+    private final double[] travelTimes;
+
+    /**
+     * Node ID -> next node ID towards the destination, or -1 for none (a destination node).
+     */
+    private final int[] nextNodes;
+
+    /**
+     * Connection index -> travel time the tree was computed with, to find which connections changed.
+     */
+    private final double[] edgeTravelTimes;
+
+    /**
+     * The graph's modification count the tree was computed with.
+     */
+    private int modificationCount;
+
+    // Repair working state
+    private final IndexedMinHeap queue;
+    private final boolean[] isAffected;
+    private final int[] affectedNodes;
+    private int affectedNodeCount = 0;
+    private final ArrayList<Integer> fasterEdges = new ArrayList<>();
+
+
+
+
+    Rerouter(Graph graph, NodeSet destinationNodes, Beacon destinationBeacon, Zone destination) {
+        this.graph = graph;
+        this.destinationBeacon = destinationBeacon;
+        this.destination = destination;
+
+        int nodeCount = graph.getNodeCount();
+
+        destinationTravelTimes = new double[nodeCount];
+        Arrays.fill(destinationTravelTimes, Pathfinder.INFINITY);
+        for (int i = 0; i < destinationNodes.size(); i++) {
+            int node = destinationNodes.nodes[i];
+            destinationTravelTimes[node] = Math.min(destinationTravelTimes[node], destinationNodes.travelTimes[i]);
+        }
+
+        if (destinationBeacon instanceof SupportBeacon && ((SupportBeacon) destinationBeacon).getZone() != null) {
+            destinationLegZone = ((SupportBeacon) destinationBeacon).getZone();
+            baseDestinationTravelTimes = new double[nodeCount];
+            Arrays.fill(baseDestinationTravelTimes, Pathfinder.INFINITY);
+            for (int i = 0; i < destinationNodes.size(); i++) {
+                int node = destinationNodes.nodes[i];
+                baseDestinationTravelTimes[node] =
+                        Map.estimateTravelTime(graph.getBeacon(node), destinationBeacon, destinationLegZone);
+            }
+        } else {
+            destinationLegZone = null;
+            baseDestinationTravelTimes = null;
+        }
+
+        travelTimes = new double[nodeCount];
+        Arrays.fill(travelTimes, Pathfinder.INFINITY);
+        nextNodes = new int[nodeCount];
+        Arrays.fill(nextNodes, -1);
+
+        edgeTravelTimes = graph.edgeTravelTimes.clone();
+        modificationCount = graph.getModificationCount();
+
+        queue = new IndexedMinHeap(nodeCount);
+        isAffected = new boolean[nodeCount];
+        affectedNodes = new int[nodeCount];
+
+        // Search from the destination nodes over the whole graph
+        for (int i = 0; i < destinationNodes.size(); i++) {
+            int node = destinationNodes.nodes[i];
+            update(node, destinationTravelTimes[node], -1);
+        }
+        search();
+    }
+
+
+    /**
+     * Finds the shortest path from the beacon to the destination by following the tree,
+     * after repairing it if any travel times have changed.
+     * @return The shortest path by travel time, or null if no path is found.
+     */
+    public Path getPath(Beacon currentBeacon) {
+        // Travel times only change while holding the Pathfinder lock
+        synchronized (Pathfinder.class) {
+            repair();
+            return constructPath(currentBeacon);
+        }
+    }
+
+
+
+
+    private Path constructPath(Beacon currentBeacon) {
+        // If already at the destination beacon, return an empty path
+        if (currentBeacon == destinationBeacon) {
+            Path path = new Path(0, new ArrayList<Step>());
+            path.setDestination(destination);
+            return path;
+        }
+
+        NodeSet startNodes = Pathfinder.getStartNodes(graph, currentBeacon);
+        if (startNodes == null) {
+            Log.e(TAG, "getPath(): Invalid beacon");
+            return null;
+        }
+
+        // Pick the best start node, including the extra travel time to it
+        double minimumTravelTime = Pathfinder.INFINITY;
+        int bestStartNode = -1;
+
+        for (int i = 0; i < startNodes.size(); i++) {
+            double travelTime = startNodes.travelTimes[i] + travelTimes[startNodes.nodes[i]];
+
+            if (travelTime < minimumTravelTime) {
+                minimumTravelTime = travelTime;
+                bestStartNode = startNodes.nodes[i];
+            }
+        }
+
+        // No result found
+        if (bestStartNode == -1) {
+            Log.e(TAG, "getPath(): No path found");
+            return null;
+        }
+
+        // Result found - follow the tree to the destination
+        ArrayList<Beacon> beacons = new ArrayList<>();
+        if (currentBeacon instanceof SupportBeacon) {
+            beacons.add(currentBeacon);
+        }
+        for (int node = bestStartNode; node != -1; node = nextNodes[node]) {
+            beacons.add(graph.getBeacon(node));
+        }
+        if (destinationBeacon instanceof SupportBeacon) {
+            beacons.add(destinationBeacon);
+        }
+
+        Path path = Pathfinder.createPath(minimumTravelTime, beacons);
+        if (path != null) {
+            path.setDestination(destination);
+        }
+        return path;
+    }
+
+
+    /**
+     * Brings the tree up to date with the graph's travel times.
+     */
+    private void repair() {
+        if (modificationCount == graph.getModificationCount()) {
+            return;
+        }
+
+        // Find the connections changed since the tree was computed
+        for (int zoneId = 0; zoneId < graph.getZoneCount(); zoneId++) {
+            if (!graph.isZoneModifiedSince(zoneId, modificationCount)) {
+                continue;
+            }
+
+            for (int edge : graph.getZoneEdges(zoneId)) {
+                double oldTravelTime = edgeTravelTimes[edge];
+                double newTravelTime = graph.edgeTravelTimes[edge];
+
+                if (newTravelTime > oldTravelTime) {
+                    // If the tree uses this connection (or a parallel one), everything after it is affected
+                    int source = graph.edgeSources[edge];
+                    int target = graph.edgeTargets[edge];
+                    if (nextNodes[target] == source) {
+                        markSubtree(target);
+                    }
+
+                } else if (newTravelTime < oldTravelTime) {
+                    fasterEdges.add(edge);
+                }
+
+                edgeTravelTimes[edge] = newTravelTime;
+            }
+        }
+
+        // Find the destination nodes whose travel time to the destination support beacon changed
+        boolean isDestinationLegChanged = (destinationLegZone != null) &&
+                graph.isZoneModifiedSince(destinationLegZone.getId(), modificationCount);
+        if (isDestinationLegChanged) {
+            double factor = graph.getZoneTravelTimeFactor(destinationLegZone);
+
+            for (int node = 0; node < baseDestinationTravelTimes.length; node++) {
+                if (baseDestinationTravelTimes[node] == Pathfinder.INFINITY) {
+                    continue;
+                }
+
+                double newTravelTime = Graph.applyTravelTimeFactor(baseDestinationTravelTimes[node], factor);
+
+                // If the tree starts at this node, everything after it is affected
+                if (    (newTravelTime > destinationTravelTimes[node]) &&
+                        (nextNodes[node] == -1) &&
+                        (travelTimes[node] != Pathfinder.INFINITY) ) {
+                    markSubtree(node);
+                }
+
+                destinationTravelTimes[node] = newTravelTime;
+            }
+        }
+
+        modificationCount = graph.getModificationCount();
+
+        int repairedNodeCount = affectedNodeCount;
+
+        // Reset the affected nodes
+        for (int i = 0; i < affectedNodeCount; i++) {
+            int node = affectedNodes[i];
+            travelTimes[node] = Pathfinder.INFINITY;
+            nextNodes[node] = -1;
+        }
+
+        // Reconnect each affected node through its best unaffected neighbour (or as a destination node)
+        for (int i = 0; i < affectedNodeCount; i++) {
+            int node = affectedNodes[i];
+
+            if (destinationTravelTimes[node] < travelTimes[node]) {
+                update(node, destinationTravelTimes[node], -1);
+            }
+
+            for (int edge = graph.edgeOffsets[node]; edge < graph.edgeOffsets[node + 1]; edge++) {
+                int connectedNode = graph.edgeTargets[edge];
+
+                if (!isAffected[connectedNode]) {
+                    double testTravelTime = travelTimes[connectedNode] + graph.edgeTravelTimes[edge];
+                    if (testTravelTime < travelTimes[node]) {
+                        update(node, testTravelTime, connectedNode);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < affectedNodeCount; i++) {
+            isAffected[affectedNodes[i]] = false;
+        }
+        affectedNodeCount = 0;
+
+        // Faster destination nodes improve the nodes after them
+        if (isDestinationLegChanged) {
+            for (int node = 0; node < destinationTravelTimes.length; node++) {
+                if (destinationTravelTimes[node] < travelTimes[node]) {
+                    update(node, destinationTravelTimes[node], -1);
+                }
+            }
+        }
+
+        // Faster connections improve the nodes after them
+        for (int edge : fasterEdges) {
+            int source = graph.edgeSources[edge];
+            int target = graph.edgeTargets[edge];
+
+            double testTravelTime = travelTimes[source] + graph.edgeTravelTimes[edge];
+            if (testTravelTime < travelTimes[target]) {
+                update(target, testTravelTime, source);
+            }
+        }
+        fasterEdges.clear();
+
+        // Spread the changes
+        search();
+
+        Log.v(TAG, String.format("repair(): Reset %d of %d nodes", repairedNodeCount, graph.getNodeCount()));
+    }
+
+    /**
+     * Marks the node and every node whose path to the destination goes through it.
+     */
+    private void markSubtree(int rootNode) {
+        if (isAffected[rootNode]) {
+            return;
+        }
+
+        // The affected nodes list doubles as the queue of nodes whose children haven't been marked yet
+        int start = affectedNodeCount;
+        isAffected[rootNode] = true;
+        affectedNodes[affectedNodeCount++] = rootNode;
+
+        for (int i = start; i < affectedNodeCount; i++) {
+            int node = affectedNodes[i];
+
+            for (int edge = graph.edgeOffsets[node]; edge < graph.edgeOffsets[node + 1]; edge++) {
+                int connectedNode = graph.edgeTargets[edge];
+
+                if (nextNodes[connectedNode] == node && !isAffected[connectedNode]) {
+                    isAffected[connectedNode] = true;
+                    affectedNodes[affectedNodeCount++] = connectedNode;
+                }
+            }
+        }
+    }
+
+
+    private void update(int node, double travelTime, int nextNode) {
+        travelTimes[node] = travelTime;
+        nextNodes[node] = nextNode;
+        queue.insertOrDecrease(node, travelTime);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from the nodes in the queue, improving any node it can.
+     */
+    private void search() {
+        while (!queue.isEmpty()) {
+            int currentNode = queue.poll();
+            double currentTravelTime = travelTimes[currentNode];
+
+            for (int edge = graph.edgeOffsets[currentNode]; edge < graph.edgeOffsets[currentNode + 1]; edge++) {
+                int connectedNode = graph.edgeTargets[edge];
+
+                double testTravelTime = currentTravelTime + graph.edgeTravelTimes[edge];
+                if (testTravelTime < travelTimes[connectedNode]) {
+                    update(connectedNode, testTravelTime, currentNode);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.example.cossettenavigation.pathfinding;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.example.cossettenavigation.map.Beacon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>Shortest path algorithm</h1>
+ *
+ * <p>
+ *     Common base for the algorithms {@link Pathfinder} can use on a {@link Graph}.
+ *     Subclasses implement {@link #run(NodeSet, NodeSet)}, storing their results in
+ *     {@link #shortestTravelTimes} and {@link #previousNodes}.
+ * </p>
+ *
+ * <p>
+ *     The working arrays are allocated once for the graph and reused by every run,
+ *     so an object can be reused for any number of searches (but not concurrently).
+ *     Should not be used directly by client code; use {@link Pathfinder} instead.
+ * </p>
+ *
+ * @see Pathfinder
+ */
+abstract class ShortestPathAlgorithm {
+
+    private static final String TAG = "ShortestPathAlgorithm";
+
+    protected final Graph graph;
+
+    /**
+     * Node ID -> shortest travel time from the start nodes.
+     */
+    protected final double[] shortestTravelTimes;
+
+    /**
+     * Node ID -> previous node ID in the shortest path, or -1 for none (a start node).
+     */
+    protected final int[] previousNodes;
+
+    /**
+     * Reused by {@link #run(int, int)}.
+     */
+    private final NodeSet singleStartNode = new NodeSet(1);
+    private final NodeSet singleEndNode = new NodeSet(1);
+
+
+    ShortestPathAlgorithm(Graph graph) {
+        this.graph = graph;
+
+        int nodeCount = graph.getNodeCount();
+        shortestTravelTimes = new double[nodeCount];
+        previousNodes = new int[nodeCount];
+    }
+
+
+    /**
+     * Runs the algorithm and gets the shortest path result from any start node to any end node,
+     * including the extra travel times of both.
+     * @return (shortest travel time in seconds, path of beacons), or null if no path was found.
+     */
+    Pair<Double, ArrayList<Beacon>> getShortestPath(NodeSet startNodes, NodeSet endNodes) {
+        run(startNodes, endNodes);
+        return getResult(endNodes);
+    }
+
+
+
+
+    /**
+     * Runs the algorithm, storing the results in {@link #shortestTravelTimes} and {@link #previousNodes}.
+     * The travel time of each start node is its extra travel time.
+     * @param endNodes The nodes the search may stop at once the best of them is known, or null to search the whole graph.
+     */
+    abstract void run(NodeSet startNodes, NodeSet endNodes);
+
+    /**
+     * Runs the algorithm from a single start node.
+     * @param endNode The node the search may stop at once its travel time is final, or -1 to search the whole graph.
+     */
+    void run(int startNode, int endNode) {
+        singleStartNode.clear();
+        singleStartNode.add(startNode, 0);
+
+        if (endNode == -1) {
+            run(singleStartNode, null);
+        } else {
+            singleEndNode.clear();
+            singleEndNode.add(endNode, 0);
+            run(singleStartNode, singleEndNode);
+        }
+    }
+
+
+    /**
+     * Sets all travel times to infinity and clears all previous nodes.
+     */
+    protected void reset() {
+        Arrays.fill(shortestTravelTimes, Pathfinder.INFINITY);
+        Arrays.fill(previousNodes, -1);
+    }
+
+
+    /**
+     * Gets the algorithm result for the best end node from {@link #shortestTravelTimes}.
+     * @return (shortest travel time in seconds, path of beacons), or null if no path was found.
+     */
+    protected Pair<Double, ArrayList<Beacon>> getResult(NodeSet endNodes) {
+        double minimumTravelTime = Pathfinder.INFINITY;
+        int bestEndNode = -1;
+
+        for (int i = 0; i < endNodes.size(); i++) {
+            int endNode = endNodes.nodes[i];
+            double travelTime = shortestTravelTimes[endNode] + endNodes.travelTimes[i];
+
+            if (travelTime < minimumTravelTime) {
+                minimumTravelTime = travelTime;
+                bestEndNode = endNode;
+            }
+        }
+
+        // No result found
+        if (bestEndNode == -1) {
+            Log.e(TAG, "getResult(): No path found");
+
+            return null;
+
+        // Result found
+        } else {
+            Log.v(TAG, "getResult(): Path found");
+
+            return new Pair<>(minimumTravelTime, constructPath(bestEndNode));
+        }
+    }
+
+
+    /**
+     * Constructs the path stored in {@link #previousNodes} up to the given node.
+     */
+    protected ArrayList<Beacon> constructPath(int finalNode) {
+        // Count the beacons first so the path is built without shifting
+        int length = 0;
+        for (int node = finalNode; node != -1; node = previousNodes[node]) {
+            length++;
+        }
+
+        Beacon[] path = new Beacon[length];
+        for (int node = finalNode; node != -1; node = previousNodes[node]) {
+            path[--length] = graph.getBeacon(node);
+        }
+
+        return new ArrayList<>(Arrays.asList(path));
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.lemmingapex.trilateration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Solves many Trilateration problems in parallel with
+ * {@link GaussNewtonSolver}s, e.g. to replay recorded ranging logs offline.
+ *
+ * The problems are given in columns: problem p has the positions
+ * offsets[p] to offsets[p + 1] - 1, and position i's coordinates are
+ * positions[i * dimension] to positions[i * dimension + dimension - 1].
+ *
+ * Each thread takes blocks of problems as it finishes the last, and keeps one
+ * solver (and function) for each number of positions, which it refills for
+ * each problem, so solving allocates very little.
+ */
+public class BatchTrilaterationSolver {
+
+	/**
+	 * Number of problems a thread takes at a time
+	 */
+	protected final static int BLOCKSIZE = 64;
+
+	protected final int dimension;
+	protected final int[] offsets;
+	protected final double[] positions;
+	protected final double[] distances;
+
+	public BatchTrilaterationSolver(int dimension, int[] offsets, double[] positions, double[] distances) {
+		if (dimension < 1) {
+			throw new IllegalArgumentException("The dimension should be positive.");
+		}
+
+		if (offsets.length < 1 || offsets[0] != 0) {
+			throw new IllegalArgumentException("The offsets should start with 0.");
+		}
+
+		for (int p = 1; p < offsets.length; p++) {
+			if (offsets[p] - offsets[p - 1] < 2) {
+				throw new IllegalArgumentException("Need at least two positions in problem " + (p - 1) + ".");
+			}
+		}
+
+		int numberOfPositions = offsets[offsets.length - 1];
+		if (distances.length != numberOfPositions) {
+			throw new IllegalArgumentException("The number of positions you provided, " + numberOfPositions + ", does not match the number of distances, " + distances.length + ".");
+		}
+
+		if (positions.length != numberOfPositions * dimension) {
+			throw new IllegalArgumentException("The number of coordinates you provided, " + positions.length + ", does not match the number of positions, " + numberOfPositions + ", times the dimension, " + dimension + ".");
+		}
+
+		this.dimension = dimension;
+		this.offsets = offsets;
+		this.positions = positions;
+		this.distances = distances;
+	}
+
+	public final int getNumberOfProblems() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @param numberOfThreads
+	 *            number of threads to solve with, or 0 for one per processor
+	 * @return the solutions, in columns like the positions: solution p is
+	 *         result[p * dimension] to result[p * dimension + dimension - 1]
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public double[] solve(int numberOfThreads) throws InterruptedException {
+		if (numberOfThreads <= 0) {
+			numberOfThreads = Runtime.getRuntime().availableProcessors();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			return solve(executor, numberOfThreads);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param executor
+	 *            executor to solve with
+	 * @param numberOfTasks
+	 *            number of tasks to submit to the executor (usually its number
+	 *            of threads)
+	 * @return the solutions (see {@link #solve(int)})
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the tasks
+	 */
+	public double[] solve(ExecutorService executor, int numberOfTasks) throws InterruptedException {
+		final double[] result = new double[getNumberOfProblems() * dimension];
+		final AtomicInteger nextBlock = new AtomicInteger();
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(numberOfTasks);
+		for (int t = 0; t < numberOfTasks; t++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					Worker worker = new Worker();
+
+					int block;
+					while ((block = nextBlock.getAndIncrement()) * BLOCKSIZE < getNumberOfProblems()) {
+						int end = Math.min((block + 1) * BLOCKSIZE, getNumberOfProblems());
+						for (int p = block * BLOCKSIZE; p < end; p++) {
+							worker.solve(p, result);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * One thread's solvers
+	 */
+	private class Worker {
+
+		/**
+		 * Number of positions -> solver, created when first needed
+		 */
+		private final ArrayList<GaussNewtonSolver> solvers = new ArrayList<GaussNewtonSolver>();
+
+		private final double[] point = new double[dimension];
+
+		void solve(int problem, double[] result) {
+			int start = offsets[problem];
+			int numberOfPositions = offsets[problem + 1] - start;
+
+			GaussNewtonSolver solver = getSolver(numberOfPositions);
+			double[][] problemPositions = solver.function.getPositions();
+			double[] problemDistances = solver.function.getDistances();
+
+			for (int i = 0; i < numberOfPositions; i++) {
+				System.arraycopy(positions, (start + i) * dimension, problemPositions[i], 0, dimension);
+				// bound distances to strictly positive domain, as in TrilaterationFunction
+				problemDistances[i] = Math.max(distances[start + i], TrilaterationFunction.epsilon);
+			}
+
+			solver.solve(null, point);
+			System.arraycopy(point, 0, result, problem * dimension, dimension);
+		}
+
+		private GaussNewtonSolver getSolver(int numberOfPositions) {
+			while (solvers.size() <= numberOfPositions) {
+				solvers.add(null);
+			}
+
+			GaussNewtonSolver solver = solvers.get(numberOfPositions);
+			if (solver == null) {
+				solver = new GaussNewtonSolver(new TrilaterationFunction(
+						new double[numberOfPositions][dimension], new double[numberOfPositions]));
+				solvers.set(numberOfPositions, solver);
+			}
+			return solver;
+		}
+	}
+}
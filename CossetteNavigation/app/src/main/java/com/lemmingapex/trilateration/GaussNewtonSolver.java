@@ -0,0 +1,397 @@
+package com.lemmingapex.trilateration;
+
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer.Optimum;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+
+/**
+ * Solves a Trilateration problem with Gauss-Newton iterations on primitive
+ * arrays, falling back to a {@link NonLinearLeastSquaresSolver} with a
+ * {@link LevenbergMarquardtOptimizer} if they don't converge. If that doesn't
+ * converge either, the best point found is returned.
+ *
+ * Minimizes the same weighted sum of squares as
+ * {@link NonLinearLeastSquaresSolver#solve()}. The iterations start from the
+ * given initial point (e.g. the previous fix), or else from the linear least
+ * squares solution (as in {@link LinearLeastSquaresSolver}) or the centroid of
+ * the positions, whichever is better. These are usually close enough that
+ * only a few iterations are needed.
+ *
+ * The work arrays are allocated once, and the function is evaluated into them
+ * (see {@link TrilaterationFunction#value(double[], double[], double[][])}),
+ * so a solver can be reused for the same function without allocating. The
+ * function's positions and distances may be changed in place between solves.
+ */
+public class GaussNewtonSolver {
+
+	protected final static int MAXNUMBEROFITERATIONS = 50;
+
+	/**
+	 * Maximum number of times a step is halved when it doesn't reduce the cost
+	 */
+	protected final static int MAXNUMBEROFSTEPHALVINGS = 10;
+
+	/**
+	 * Converged when a step is this small, relative to the point
+	 */
+	protected final static double RELATIVETOLERANCE = 1E-10;
+
+	protected final TrilaterationFunction function;
+
+	protected final double[] weights;
+
+	// work arrays
+	private final double[] point;
+	private final double[] candidatePoint;
+	private final double[] step;
+	private final double[] gradient;
+	private final double[][] normalMatrix;
+	private final double[] residuals;
+	private final double[][] jacobian;
+
+	private int iterations;
+	private boolean fallbackUsed;
+
+	public GaussNewtonSolver(TrilaterationFunction function) {
+		this.function = function;
+
+		int numberOfPositions = function.getPositions().length;
+		int positionDimension = function.getPositions()[0].length;
+
+		weights = new double[numberOfPositions];
+		point = new double[positionDimension];
+		candidatePoint = new double[positionDimension];
+		step = new double[positionDimension];
+		gradient = new double[positionDimension];
+		normalMatrix = new double[positionDimension][positionDimension];
+		residuals = new double[numberOfPositions];
+		jacobian = new double[numberOfPositions][positionDimension];
+	}
+
+	/**
+	 * @param initialPoint
+	 *            point to start from (e.g. the previous fix), or null to start
+	 *            from the linear least squares solution
+	 * @return the solution
+	 */
+	public double[] solve(double[] initialPoint) {
+		return solve(initialPoint, new double[point.length]);
+	}
+
+	/**
+	 * Doesn't allocate unless it falls back to Levenberg-Marquardt
+	 *
+	 * @param initialPoint
+	 *            point to start from (e.g. the previous fix), or null to start
+	 *            from the linear least squares solution
+	 * @param result
+	 *            receives the solution
+	 * @return result
+	 */
+	public double[] solve(double[] initialPoint, double[] result) {
+		if (result.length != point.length) {
+			throw new IllegalArgumentException("The dimension of the result, " + result.length + ", does not match the dimension of the positions, " + point.length + ".");
+		}
+
+		iterations = 0;
+		fallbackUsed = false;
+
+		// same weights as NonLinearLeastSquaresSolver
+		double[] distances = function.getDistances();
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = distances[i] * distances[i];
+		}
+
+		if (initialPoint == null) {
+			// start from whichever of the linear solution and the centroid is better
+			linearSolution(point);
+			centroid(candidatePoint);
+			if (!(cost(point) <= cost(candidatePoint))) {
+				System.arraycopy(candidatePoint, 0, point, 0, point.length);
+			}
+		} else {
+			if (initialPoint.length != point.length) {
+				throw new IllegalArgumentException("The dimension of the initial point, " + initialPoint.length + ", does not match the dimension of the positions, " + point.length + ".");
+			}
+			System.arraycopy(initialPoint, 0, point, 0, point.length);
+		}
+
+		if (iterate()) {
+			System.arraycopy(point, 0, result, 0, result.length);
+			return result;
+		}
+
+		// didn't converge, so start again with Levenberg-Marquardt
+		fallbackUsed = true;
+
+		if (initialPoint == null) {
+			linearSolution(candidatePoint);
+		} else {
+			System.arraycopy(initialPoint, 0, candidatePoint, 0, candidatePoint.length);
+		}
+		if (!isFinite(candidatePoint)) {
+			centroid(candidatePoint);
+		}
+
+		NonLinearLeastSquaresSolver solver = new NonLinearLeastSquaresSolver(function, new LevenbergMarquardtOptimizer());
+		try {
+			Optimum optimum = solver.solve(new double[weights.length], weights, candidatePoint.clone());
+			iterations += optimum.getIterations();
+			for (int j = 0; j < result.length; j++) {
+				result[j] = optimum.getPoint().getEntry(j);
+			}
+		} catch (MathIllegalStateException e) {
+			// Levenberg-Marquardt didn't converge either, so keep the better point
+			if (isFinite(point) && cost(point) <= cost(candidatePoint)) {
+				System.arraycopy(point, 0, result, 0, result.length);
+			} else {
+				System.arraycopy(candidatePoint, 0, result, 0, result.length);
+			}
+		}
+		return result;
+	}
+
+	public double[] solve() {
+		return solve(null);
+	}
+
+	/**
+	 * @return the number of iterations in the last solve
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return true if the last solve fell back to Levenberg-Marquardt
+	 */
+	public boolean isFallbackUsed() {
+		return fallbackUsed;
+	}
+
+	/**
+	 * Runs Gauss-Newton iterations from {@link #point}
+	 *
+	 * @return true if converged
+	 */
+	private boolean iterate() {
+		if (!isFinite(point)) {
+			return false;
+		}
+
+		double cost = cost(point);
+
+		for (; iterations < MAXNUMBEROFITERATIONS; iterations++) {
+			buildNormalEquations(point);
+			if (!solveNormalEquations()) {
+				return false;
+			}
+
+			// halve the step until it reduces the cost
+			double candidateCost = Double.POSITIVE_INFINITY;
+			for (int halvings = 0; halvings <= MAXNUMBEROFSTEPHALVINGS; halvings++) {
+				for (int j = 0; j < point.length; j++) {
+					candidatePoint[j] = point[j] + step[j];
+				}
+				candidateCost = cost(candidatePoint);
+				if (candidateCost <= cost) {
+					break;
+				}
+				for (int j = 0; j < step.length; j++) {
+					step[j] *= 0.5;
+				}
+			}
+			if (!(candidateCost <= cost)) {
+				// a zero cost or a local minimum can't be improved
+				return cost == 0 || isConverged();
+			}
+
+			System.arraycopy(candidatePoint, 0, point, 0, point.length);
+			cost = candidateCost;
+
+			if (isConverged()) {
+				iterations++;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean isConverged() {
+		double stepNorm = 0;
+		double pointNorm = 0;
+		for (int j = 0; j < point.length; j++) {
+			stepNorm += step[j] * step[j];
+			pointNorm += point[j] * point[j];
+		}
+		return Math.sqrt(stepNorm) <= RELATIVETOLERANCE * (1 + Math.sqrt(pointNorm));
+	}
+
+	/**
+	 * @return weighted sum of the squared residuals at p
+	 */
+	private double cost(double[] p) {
+		function.value(p, residuals, null);
+
+		double cost = 0;
+		for (int i = 0; i < residuals.length; i++) {
+			cost += weights[i] * residuals[i] * residuals[i];
+		}
+		return cost;
+	}
+
+	/**
+	 * Sets normalMatrix = J^T W J and gradient = J^T W r at p
+	 */
+	private void buildNormalEquations(double[] p) {
+		int dimension = p.length;
+
+		for (int j = 0; j < dimension; j++) {
+			gradient[j] = 0;
+			for (int k = 0; k < dimension; k++) {
+				normalMatrix[j][k] = 0;
+			}
+		}
+
+		function.value(p, residuals, jacobian);
+
+		for (int i = 0; i < residuals.length; i++) {
+			double weightedResidual = weights[i] * residuals[i];
+			double[] jacobianRow = jacobian[i];
+
+			for (int j = 0; j < dimension; j++) {
+				gradient[j] += jacobianRow[j] * weightedResidual;
+				for (int k = 0; k <= j; k++) {
+					normalMatrix[j][k] += weights[i] * jacobianRow[j] * jacobianRow[k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves normalMatrix * step = -gradient by Cholesky decomposition (in
+	 * place, using the lower triangle)
+	 *
+	 * @return false if the matrix is singular
+	 */
+	private boolean solveNormalEquations() {
+		int dimension = step.length;
+
+		double maxDiagonal = 0;
+		for (int j = 0; j < dimension; j++) {
+			maxDiagonal = Math.max(maxDiagonal, normalMatrix[j][j]);
+		}
+		double minPivot = maxDiagonal * 1E-12;
+
+		for (int j = 0; j < dimension; j++) {
+			double diagonal = normalMatrix[j][j];
+			for (int k = 0; k < j; k++) {
+				diagonal -= normalMatrix[j][k] * normalMatrix[j][k];
+			}
+			if (!(diagonal > minPivot)) {
+				return false;
+			}
+			normalMatrix[j][j] = Math.sqrt(diagonal);
+
+			for (int i = j + 1; i < dimension; i++) {
+				double value = normalMatrix[i][j];
+				for (int k = 0; k < j; k++) {
+					value -= normalMatrix[i][k] * normalMatrix[j][k];
+				}
+				normalMatrix[i][j] = value / normalMatrix[j][j];
+			}
+		}
+
+		// forward substitution: L y = -gradient
+		for (int j = 0; j < dimension; j++) {
+			double value = -gradient[j];
+			for (int k = 0; k < j; k++) {
+				value -= normalMatrix[j][k] * step[k];
+			}
+			step[j] = value / normalMatrix[j][j];
+		}
+
+		// back substitution: L^T step = y
+		for (int j = dimension - 1; j >= 0; j--) {
+			double value = step[j];
+			for (int k = j + 1; k < dimension; k++) {
+				value -= normalMatrix[k][j] * step[k];
+			}
+			step[j] = value / normalMatrix[j][j];
+		}
+
+		return isFinite(step);
+	}
+
+	/**
+	 * The linear least squares solution (see {@link LinearLeastSquaresSolver}),
+	 * solved with the normal equations, or the centroid if it's underdetermined
+	 */
+	private void linearSolution(double[] result) {
+		double[][] positions = function.getPositions();
+		double[] distances = function.getDistances();
+		int dimension = result.length;
+
+		for (int j = 0; j < dimension; j++) {
+			gradient[j] = 0;
+			for (int k = 0; k < dimension; k++) {
+				normalMatrix[j][k] = 0;
+			}
+		}
+
+		// A[i - 1][j] = positions[i][j] - positions[0][j]
+		// b[i - 1] = 0.5 * (r0^2 - ri^2 + |positions[i] - positions[0]|^2)
+		// normalMatrix = A^T A, gradient = -A^T b
+		double r0squared = distances[0] * distances[0];
+		for (int i = 1; i < positions.length; i++) {
+			double di0squared = 0;
+			for (int j = 0; j < dimension; j++) {
+				step[j] = positions[i][j] - positions[0][j];
+				di0squared += step[j] * step[j];
+			}
+			double b = 0.5 * (r0squared - distances[i] * distances[i] + di0squared);
+
+			for (int j = 0; j < dimension; j++) {
+				gradient[j] -= step[j] * b;
+				for (int k = 0; k <= j; k++) {
+					normalMatrix[j][k] += step[j] * step[k];
+				}
+			}
+		}
+
+		if (!solveNormalEquations()) {
+			centroid(result);
+			return;
+		}
+
+		for (int j = 0; j < dimension; j++) {
+			result[j] = step[j] + positions[0][j];
+		}
+	}
+
+	private void centroid(double[] result) {
+		double[][] positions = function.getPositions();
+
+		for (int j = 0; j < result.length; j++) {
+			result[j] = 0;
+		}
+		for (int i = 0; i < positions.length; i++) {
+			for (int j = 0; j < result.length; j++) {
+				result[j] += positions[i][j];
+			}
+		}
+		for (int j = 0; j < result.length; j++) {
+			result[j] /= positions.length;
+		}
+	}
+
+	private static boolean isFinite(double[] values) {
+		for (double value : values) {
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -76,13 +76,9 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 		double[] pointArray = point.toArray();
 
 		double[][] jacobian = new double[distances.length][pointArray.length];
-		for (int i = 0; i < jacobian.length; i++) {
-			for (int j = 0; j < pointArray.length; j++) {
-				jacobian[i][j] = 2 * pointArray[j] - 2 * positions[i][j];
-			}
-		}
+		value(pointArray, null, jacobian);
 
-		return new Array2DRowRealMatrix(jacobian);
+		return new Array2DRowRealMatrix(jacobian, false);
 	}
 
 	@Override
@@ -93,18 +89,45 @@ public class TrilaterationFunction implements MultivariateJacobianFunction {
 
 		// output
 		double[] resultPoint = new double[this.distances.length];
+		double[][] jacobian = new double[this.distances.length][pointArray.length];
+
+		value(pointArray, resultPoint, jacobian);
+
+		return new Pair<RealVector, RealMatrix>(new ArrayRealVector(resultPoint, false), new Array2DRowRealMatrix(jacobian, false));
+	}
+
+	/**
+	 * Evaluates the function and its Jacobian into preallocated arrays, so
+	 * repeated evaluations (e.g. by {@link GaussNewtonSolver}) don't allocate
+	 *
+	 * @param point
+	 *            point at which to evaluate
+	 * @param residuals
+	 *            receives (x0-xi)^2 + (y0-yi)^2 - ri^2 for each position, or
+	 *            null to skip
+	 * @param jacobian
+	 *            receives the Jacobian matrix (see
+	 *            {@link #jacobian(RealVector)}), or null to skip
+	 */
+	public void value(double[] point, double[] residuals, double[][] jacobian) {
+		for (int i = 0; i < distances.length; i++) {
+			double[] position = positions[i];
+
+			if (residuals != null) {
+				double residual = 0.0;
+				for (int j = 0; j < point.length; j++) {
+					double difference = point[j] - position[j];
+					residual += difference * difference;
+				}
+				residuals[i] = residual - (distances[i] * distances[i]);
+			}
 
-		// compute least squares
-		for (int i = 0; i < resultPoint.length; i++) {
-			resultPoint[i] = 0.0;
-			// calculate sum, add to overall
-			for (int j = 0; j < pointArray.length; j++) {
-				resultPoint[i] += (pointArray[j] - this.getPositions()[i][j]) * (pointArray[j] - this.getPositions()[i][j]);
+			if (jacobian != null) {
+				double[] jacobianRow = jacobian[i];
+				for (int j = 0; j < point.length; j++) {
+					jacobianRow[j] = 2 * point[j] - 2 * position[j];
+				}
 			}
-			resultPoint[i] -= (this.getDistances()[i]) * (this.getDistances()[i]);
 		}
-
-		RealMatrix jacobian = jacobian(point);
-		return new Pair<RealVector, RealMatrix>(new ArrayRealVector(resultPoint), jacobian);
 	}
 }
@@ -0,0 +1,26 @@
+package com.example.cossettenavigation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+public class TestUtilities {
+
+    /**
+     * @return A copy of the object, serialized and deserialized as when passed in an Intent extra.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Serializable> T serializedCopy(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(object);
+        output.close();
+
+        ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (T) input.readObject();
+    }
+
+}
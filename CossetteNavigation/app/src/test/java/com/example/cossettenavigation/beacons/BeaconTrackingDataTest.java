@@ -0,0 +1,70 @@
+package com.example.cossettenavigation.beacons;
+
+import static org.junit.Assert.assertEquals;
+
+import com.estimote.sdk.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class BeaconTrackingDataTest {
+
+    /**
+     * The weighted average of all the measurements, recomputed from scratch.
+     */
+    private static double getWeightedAverage(ArrayList<Double> accuracies) {
+        double numerator = 0;
+        double denominator = 0;
+
+        double weight = 1;
+        for (double accuracy : accuracies) {
+            numerator += accuracy * weight;
+            denominator += weight;
+
+            weight *= 1.5;
+        }
+        return numerator / denominator;
+    }
+
+    @Test
+    public void hasNoEstimateWithoutMeasurements() {
+        BeaconTrackingData trackingData = new BeaconTrackingData(null, BeaconTrackingData.DEFAULT_WINDOW_SIZE);
+        assertEquals(Double.POSITIVE_INFINITY, trackingData.getEstimatedAccuracy(), 0);
+    }
+
+    @Test
+    public void matchesWeightedAverageOfWindow() {
+        Random random = new Random(13);
+
+        for (int windowSize = 1; windowSize <= 8; windowSize++) {
+            BeaconTrackingData trackingData = new BeaconTrackingData(null, windowSize);
+            ArrayList<Double> window = new ArrayList<>();
+
+            for (int i = 0; i < 1000; i++) {
+                double accuracy = random.nextDouble() * 20;
+
+                trackingData.addMeasurements(accuracy, Utils.Proximity.NEAR);
+                window.add(accuracy);
+                if (window.size() > windowSize) {
+                    window.remove(0);
+                }
+
+                assertEquals(getWeightedAverage(window), trackingData.getEstimatedAccuracy(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void recoversFromNonFiniteMeasurement() {
+        BeaconTrackingData trackingData = new BeaconTrackingData(null, BeaconTrackingData.DEFAULT_WINDOW_SIZE);
+        trackingData.addMeasurements(Double.POSITIVE_INFINITY, Utils.Proximity.UNKNOWN);
+
+        for (int i = 0; i < BeaconTrackingData.DEFAULT_WINDOW_SIZE; i++) {
+            trackingData.addMeasurements(2, Utils.Proximity.NEAR);
+        }
+        assertEquals(2, trackingData.getEstimatedAccuracy(), 1e-9);
+    }
+
+}
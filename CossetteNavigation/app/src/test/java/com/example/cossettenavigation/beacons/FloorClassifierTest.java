@@ -0,0 +1,148 @@
+package com.example.cossettenavigation.beacons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class FloorClassifierTest {
+
+    private static final MapSnapshot SNAPSHOT = Map.getSnapshot();
+
+    /**
+     * @return The ID of a beacon on a different floor than the beacon.
+     */
+    private static int getBeaconOnOtherFloor(int beaconId) {
+        for (int otherBeaconId = 0; otherBeaconId < SNAPSHOT.getBeaconCount(); otherBeaconId++) {
+            if (SNAPSHOT.getBeaconFloorId(otherBeaconId) != SNAPSHOT.getBeaconFloorId(beaconId)) {
+                return otherBeaconId;
+            }
+        }
+        throw new IllegalStateException("The map has one floor");
+    }
+
+    @Test
+    public void hasNoFloorWithoutBeacons() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        assertEquals(-1, classifier.getFloorId());
+        assertNull(classifier.getFloor());
+
+        classifier.update(0, 2);
+        classifier.updateFloor(0);
+        assertSame(SNAPSHOT.getBeacon(0).getFloor(), classifier.getFloor());
+
+        classifier.remove(0);
+        classifier.updateFloor(1000);
+        assertEquals(-1, classifier.getFloorId());
+        assertEquals(0, classifier.getEvidence(SNAPSHOT.getBeaconFloorId(0)), 0);
+    }
+
+    @Test
+    public void switchesFloorAfterConsistentEvidence() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        int beaconId = 0;
+        int otherBeaconId = getBeaconOnOtherFloor(beaconId);
+
+        classifier.update(beaconId, 4);
+        classifier.updateFloor(0);
+        classifier.update(otherBeaconId, 1);
+
+        for (long time = 1000; time < 1000 + FloorClassifier.SWITCH_DWELL_TIME; time += 500) {
+            classifier.updateFloor(time);
+            assertEquals(SNAPSHOT.getBeaconFloorId(beaconId), classifier.getFloorId());
+            classifier.update(otherBeaconId, 1);
+        }
+        classifier.updateFloor(1000 + FloorClassifier.SWITCH_DWELL_TIME);
+        assertEquals(SNAPSHOT.getBeaconFloorId(otherBeaconId), classifier.getFloorId());
+    }
+
+    @Test
+    public void doesNotSwitchFloorForManyBeaconUpdates() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        int beaconId = 0;
+        int otherBeaconId = getBeaconOnOtherFloor(beaconId);
+
+        classifier.update(beaconId, 4);
+        classifier.updateFloor(0);
+
+        // A dense venue reports many beacons per location update
+        for (int i = 0; i < 100; i++) {
+            classifier.update(otherBeaconId, 1);
+            classifier.remove(otherBeaconId);
+            classifier.update(otherBeaconId, 1);
+        }
+        classifier.updateFloor(100);
+        assertEquals(SNAPSHOT.getBeaconFloorId(beaconId), classifier.getFloorId());
+    }
+
+    @Test
+    public void restartsDwellTimeWhenEvidenceDrops() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        int beaconId = 0;
+        int otherBeaconId = getBeaconOnOtherFloor(beaconId);
+
+        classifier.update(beaconId, 4);
+        classifier.updateFloor(0);
+
+        classifier.update(otherBeaconId, 1);
+        classifier.updateFloor(1000);
+        classifier.update(otherBeaconId, 4);
+        classifier.updateFloor(2000);
+        classifier.update(otherBeaconId, 1);
+        classifier.updateFloor(3000);
+
+        classifier.updateFloor(2000 + FloorClassifier.SWITCH_DWELL_TIME);
+        assertEquals(SNAPSHOT.getBeaconFloorId(beaconId), classifier.getFloorId());
+
+        classifier.updateFloor(3000 + FloorClassifier.SWITCH_DWELL_TIME);
+        assertEquals(SNAPSHOT.getBeaconFloorId(otherBeaconId), classifier.getFloorId());
+    }
+
+    @Test
+    public void doesNotFlapBetweenCloseFloors() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        int beaconId = 0;
+        int otherBeaconId = getBeaconOnOtherFloor(beaconId);
+        Random random = new Random(23);
+
+        classifier.update(beaconId, 3);
+        classifier.updateFloor(0);
+        for (int i = 0; i < 1000; i++) {
+            // Similar distances, so neither floor has much more evidence
+            classifier.update(beaconId, 3 + random.nextDouble() * 0.5);
+            classifier.update(otherBeaconId, 3 + random.nextDouble() * 0.5);
+            classifier.updateFloor((i + 1) * 500L);
+            assertEquals(SNAPSHOT.getBeaconFloorId(beaconId), classifier.getFloorId());
+        }
+    }
+
+    @Test
+    public void keepsEvidenceAfterManyUpdates() {
+        FloorClassifier classifier = new FloorClassifier(SNAPSHOT);
+        Random random = new Random(23);
+
+        double[] accuracies = new double[SNAPSHOT.getBeaconCount()];
+        Arrays.fill(accuracies, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < 10000; i++) {
+            int beaconId = random.nextInt(accuracies.length);
+            accuracies[beaconId] = random.nextBoolean() ? random.nextDouble() * 10 : Double.POSITIVE_INFINITY;
+            classifier.update(beaconId, accuracies[beaconId]);
+        }
+
+        double[] evidence = new double[SNAPSHOT.getFloors().size()];
+        for (int beaconId = 0; beaconId < accuracies.length; beaconId++) {
+            evidence[SNAPSHOT.getBeaconFloorId(beaconId)] += FloorClassifier.getWeight(accuracies[beaconId]);
+        }
+        for (int floorId = 0; floorId < evidence.length; floorId++) {
+            assertEquals(evidence[floorId], classifier.getEvidence(floorId), 1e-9);
+        }
+    }
+
+}
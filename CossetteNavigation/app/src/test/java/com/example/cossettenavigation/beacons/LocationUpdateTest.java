@@ -0,0 +1,41 @@
+package com.example.cossettenavigation.beacons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.cossettenavigation.map.Point2D;
+import com.example.cossettenavigation.map.Zone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class LocationUpdateTest {
+
+    @Test
+    public void isNotChangedByItsInputsOrOutputs() {
+        Point2D estimatedLocation = new Point2D(1, 2);
+        ArrayList<Zone> nearbyZones = new ArrayList<>();
+
+        LocationUpdate locationUpdate = new LocationUpdate(
+                10, null, Double.POSITIVE_INFINITY, null, estimatedLocation, nearbyZones, null);
+
+        estimatedLocation.x = 3;
+        nearbyZones.add(null);
+        locationUpdate.getEstimatedLocation().y = 4;
+
+        assertEquals(1, locationUpdate.getEstimatedLocation().x, 0);
+        assertEquals(2, locationUpdate.getEstimatedLocation().y, 0);
+        assertEquals(0, locationUpdate.getNearbyZones().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void hasUnmodifiableNearbyZones() {
+        LocationUpdate locationUpdate = new LocationUpdate(
+                10, null, Double.POSITIVE_INFINITY, null, null, new ArrayList<Zone>(), null);
+
+        assertNull(locationUpdate.getEstimatedLocation());
+        locationUpdate.getNearbyZones().add(null);
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.example.cossettenavigation.beacons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.example.cossettenavigation.map.AnchorBeacon;
+import com.example.cossettenavigation.map.Floor;
+import com.example.cossettenavigation.map.MapSnapshot;
+import com.example.cossettenavigation.map.SupportBeacon;
+import com.example.cossettenavigation.map.Zone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MapMatcherTest {
+
+    private static final String UUID = "B9407F30-F5F8-466E-AFF9-25556B57FE6D";
+
+    private final Floor floor = new Floor("Floor", 0);
+
+    /**
+     * Two parallel hallways, 6m apart.
+     */
+    private final AnchorBeacon a = new AnchorBeacon("A", "", floor, 0, 0, UUID, 1, 1);
+    private final AnchorBeacon b = new AnchorBeacon("B", "", floor, 40, 0, UUID, 1, 2);
+    private final AnchorBeacon c = new AnchorBeacon("C", "", floor, 0, 6, UUID, 1, 3);
+    private final AnchorBeacon d = new AnchorBeacon("D", "", floor, 40, 6, UUID, 1, 4);
+
+    private final MapSnapshot snapshot;
+
+    public MapMatcherTest() {
+        Zone hallwayOne = new Zone("Hallway 1", Zone.ZoneType.HALLWAY, false);
+        hallwayOne.addAnchorBeacons(a, b);
+        Zone hallwayTwo = new Zone("Hallway 2", Zone.ZoneType.HALLWAY, false);
+        hallwayTwo.addAnchorBeacons(c, d);
+
+        snapshot = new MapSnapshot(
+                Arrays.asList(floor),
+                Arrays.asList(a, b, c, d),
+                new ArrayList<SupportBeacon>(),
+                Arrays.asList(hallwayOne, hallwayTwo));
+    }
+
+    @Test
+    public void snapsOntoNearestEdge() {
+        MapMatcher matcher = new MapMatcher(snapshot);
+        assertEquals(2, matcher.getEdgeCount());
+
+        MapMatch mapMatch = matcher.update(10, 0.5, floor.getId(), 1000);
+        assertTrue(mapMatch.connects(a, b));
+        assertSame(a, mapMatch.getStartBeacon());
+        assertEquals(10, mapMatch.getOffset(), 1e-9);
+        assertEquals(40, mapMatch.getLength(), 1e-9);
+        assertEquals(0, mapMatch.getMatchedLocation().y, 1e-9);
+        assertSame(a, mapMatch.getNearerBeacon());
+    }
+
+    @Test
+    public void ignoresSingleOutlier() {
+        MapMatcher matcher = new MapMatcher(snapshot);
+        long time = 0;
+
+        for (int i = 0; i < 5; i++) {
+            time += 1000;
+            assertTrue(matcher.update(5 + i, 0.2, floor.getId(), time).connects(a, b));
+        }
+
+        // Closer to the other hallway, but only once
+        time += 1000;
+        MapMatch mapMatch = matcher.update(10, 3.5, floor.getId(), time);
+        assertTrue(mapMatch.connects(a, b));
+        assertEquals(6, mapMatch.getMatchCount());
+    }
+
+    @Test
+    public void switchesEdgeAfterConsistentEstimates() {
+        MapMatcher matcher = new MapMatcher(snapshot);
+        long time = 0;
+
+        for (int i = 0; i < 5; i++) {
+            time += 1000;
+            matcher.update(5 + i, 0, floor.getId(), time);
+        }
+
+        boolean hasSwitched = false;
+        for (int i = 0; i < 10 && !hasSwitched; i++) {
+            time += 1000;
+            hasSwitched = matcher.update(10 + i, 6, floor.getId(), time).connects(c, d);
+        }
+        assertTrue(hasSwitched);
+    }
+
+    @Test
+    public void snapsOntoMiddleOfLongEdge() {
+        Floor longFloor = new Floor("Floor", 0);
+        AnchorBeacon e = new AnchorBeacon("E", "", longFloor, 0, 0, UUID, 2, 1);
+        AnchorBeacon f = new AnchorBeacon("F", "", longFloor, 100, 0, UUID, 2, 2);
+        Zone hallway = new Zone("Long hallway", Zone.ZoneType.HALLWAY, false);
+        hallway.addAnchorBeacons(e, f);
+
+        MapMatcher matcher = new MapMatcher(new MapSnapshot(
+                Arrays.asList(longFloor),
+                Arrays.asList(e, f),
+                new ArrayList<SupportBeacon>(),
+                Arrays.asList(hallway)));
+
+        // 50m from both ends
+        MapMatch mapMatch = matcher.update(50, 2, longFloor.getId(), 1000);
+        assertTrue(mapMatch.connects(e, f));
+        assertEquals(50, mapMatch.getOffset(), 1e-9);
+        assertEquals(2, matcher.update(51, 1, longFloor.getId(), 2000).getMatchCount());
+    }
+
+    @Test
+    public void hasNoMatchFarFromEdges() {
+        MapMatcher matcher = new MapMatcher(snapshot);
+        assertNull(matcher.update(500, 500, floor.getId(), 1000));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.example.cossettenavigation.beacons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PositionFilterTest {
+
+    private static final double[][] BEACONS = {
+            { 0, 0 },
+            { 10, 0 },
+            { 0, 10 },
+            { 10, 10 }
+    };
+
+    /**
+     * Adds one noisy measurement of each beacon per second, from a device at (x, y).
+     * @return The time after the measurements.
+     */
+    private static long addMeasurements(PositionFilter filter, Random random,
+                                        double x, double y, long time, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            for (double[] beacon : BEACONS) {
+                double distance = Math.hypot(x - beacon[0], y - beacon[1]);
+                filter.addMeasurement(beacon[0], beacon[1], distance + (random.nextGaussian() * 0.5), time);
+                time += 1000 / BEACONS.length;
+            }
+        }
+        return time;
+    }
+
+    @Test
+    public void hasNoEstimateWithoutMeasurements() {
+        PositionFilter filter = new PositionFilter(0, 0, 20, 20);
+        assertFalse(filter.hasEstimate(0));
+        assertNull(filter.getEstimatedLocation(0));
+    }
+
+    @Test
+    public void convergesToPosition() {
+        PositionFilter filter = new PositionFilter(0, 0, 20, 20);
+        long time = addMeasurements(filter, new Random(14), 3, 6, 0, 20);
+
+        assertTrue(filter.hasEstimate(time));
+        assertEquals(3, filter.getEstimatedLocation(time).x, 0.5);
+        assertEquals(6, filter.getEstimatedLocation(time).y, 0.5);
+        assertTrue(filter.getVarianceX() < 4);
+        assertTrue(filter.getVarianceY() < 4);
+    }
+
+    @Test
+    public void followsMovement() {
+        PositionFilter filter = new PositionFilter(0, 0, 20, 20);
+        Random random = new Random(14);
+
+        long time = addMeasurements(filter, random, 2, 2, 0, 10);
+        time = addMeasurements(filter, random, 8, 7, time, 10);
+
+        assertEquals(8, filter.getEstimatedLocation(time).x, 0.5);
+        assertEquals(7, filter.getEstimatedLocation(time).y, 0.5);
+    }
+
+    @Test
+    public void estimatesNegativePositions() {
+        // Beacons as in the map, which has some at negative x positions (e.g. the elevators)
+        MapSnapshot snapshot = Map.getSnapshot();
+        Beacon westernmostBeacon = snapshot.getBeacon(0);
+        for (Beacon beacon : snapshot.getAllBeacons()) {
+            if (beacon.getXPosition() < westernmostBeacon.getXPosition()) {
+                westernmostBeacon = beacon;
+            }
+        }
+        assertTrue(westernmostBeacon.getXPosition() < 0);
+
+        double beaconX = snapshot.getBeaconXPosition(westernmostBeacon.getId());
+        double beaconY = snapshot.getBeaconYPosition(westernmostBeacon.getId());
+
+        PositionFilter filter = new PositionFilter(snapshot);
+        filter.addMeasurement(beaconX, beaconY, 0, 0);
+
+        assertEquals(beaconX, filter.getEstimatedLocation(0).x * Map.metresPerGridUnit, 1e-9);
+        assertEquals(beaconY, filter.getEstimatedLocation(0).y * Map.metresPerGridUnit, 1e-9);
+    }
+
+    @Test
+    public void clampsToBounds() {
+        PositionFilter filter = new PositionFilter(-10, -10, 20, 20);
+        filter.addMeasurement(-30, 50, 0, 0);
+
+        assertEquals(-10, filter.getEstimatedLocation(0).x * Map.metresPerGridUnit, 1e-9);
+        assertEquals(20, filter.getEstimatedLocation(0).y * Map.metresPerGridUnit, 1e-9);
+    }
+
+    @Test
+    public void expiresEstimate() {
+        PositionFilter filter = new PositionFilter(0, 0, 20, 20);
+        long time = addMeasurements(filter, new Random(14), 5, 5, 0, 5);
+
+        assertTrue(filter.hasEstimate(time));
+        assertFalse(filter.hasEstimate(time + PositionFilter.MAX_ESTIMATE_AGE + 1000));
+    }
+
+}
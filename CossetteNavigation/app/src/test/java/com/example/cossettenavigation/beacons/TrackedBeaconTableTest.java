@@ -0,0 +1,92 @@
+package com.example.cossettenavigation.beacons;
+
+import static com.example.cossettenavigation.TestUtilities.serializedCopy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TrackedBeaconTableTest {
+
+    @Test
+    public void tracksUpdatedBeacons() {
+        TrackedBeaconTable table = new TrackedBeaconTable(Map.getSnapshot());
+        assertFalse(table.isTracked(0));
+        assertEquals(Double.POSITIVE_INFINITY, table.getEstimatedAccuracy(0), 0);
+        assertEquals(-1, table.getNearestBeaconId(0));
+
+        table.update(0, 4, 100);
+        table.update(1, 2, 200);
+        assertTrue(table.isTracked(0));
+        assertEquals(4, table.getEstimatedAccuracy(0, 100), 0);
+        assertEquals(200, table.getLastMeasurementTime(1));
+        assertEquals(1, table.getNearestBeaconId(0));
+
+        table.remove(1);
+        assertFalse(table.isTracked(1));
+        assertEquals(0, table.getNearestBeaconId(0));
+    }
+
+    @Test
+    public void ignoresOldMeasurements() {
+        TrackedBeaconTable table = new TrackedBeaconTable(Map.getSnapshot());
+        table.update(0, 4, 100);
+        table.update(1, 2, 200);
+
+        assertEquals(Double.POSITIVE_INFINITY, table.getEstimatedAccuracy(0, 101), 0);
+        assertEquals(1, table.getNearestBeaconId(101));
+        assertEquals(-1, table.getNearestBeaconId(201));
+    }
+
+    @Test
+    public void findsSerializedBeacons() throws Exception {
+        MapSnapshot snapshot = Map.getSnapshot();
+        TrackedBeaconTable table = new TrackedBeaconTable(snapshot);
+        table.update(1, 2, 200);
+
+        // As from a Path passed in an Intent extra
+        Beacon copy = serializedCopy(snapshot.getBeacon(1));
+        assertEquals(2, table.getEstimatedAccuracy(copy, 200), 0);
+        assertEquals(Double.POSITIVE_INFINITY, table.getEstimatedAccuracy(copy, 201), 0);
+        assertEquals(Double.POSITIVE_INFINITY, table.getEstimatedAccuracy(serializedCopy(snapshot.getBeacon(0)), 0), 0);
+    }
+
+    @Test
+    public void readersSeeConsistentSlots() throws Exception {
+        final TrackedBeaconTable table = new TrackedBeaconTable(Map.getSnapshot());
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        // Each estimated distance is written with the same time, so a torn read would return a distance < minTime
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (isWriting.get()) {
+                    long minTime = table.getLastMeasurementTime(0);
+                    double accuracy = table.getEstimatedAccuracy(0, minTime);
+                    if (accuracy < minTime) {
+                        error.set("minTime = " + minTime + ", accuracy = " + accuracy);
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (int time = 1; time <= 1000000; time++) {
+            table.update(0, time, time);
+        }
+        isWriting.set(false);
+        reader.join();
+
+        assertEquals(null, error.get());
+    }
+
+}
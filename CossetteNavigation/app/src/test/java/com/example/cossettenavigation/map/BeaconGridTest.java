@@ -0,0 +1,78 @@
+package com.example.cossettenavigation.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BeaconGridTest {
+
+    private static final int FLOOR_COUNT = 3;
+
+    private final Random random = new Random(24);
+
+    private final double[] xPositions = new double[5000];
+    private final double[] yPositions = new double[xPositions.length];
+    private final int[] floorIds = new int[xPositions.length];
+
+    private final BeaconGrid grid;
+
+    public BeaconGridTest() {
+        for (int beaconId = 0; beaconId < xPositions.length; beaconId++) {
+            // Clustered, like beacons in buildings
+            xPositions[beaconId] = (random.nextInt(5) * 100) + (random.nextDouble() * 40);
+            yPositions[beaconId] = random.nextDouble() * 200;
+            floorIds[beaconId] = random.nextInt(FLOOR_COUNT - 1);
+        }
+
+        // The last floor has no beacons
+        grid = new BeaconGrid(xPositions, yPositions, floorIds, FLOOR_COUNT);
+    }
+
+    private double getDistance(int beaconId, double x, double y) {
+        return Math.hypot(xPositions[beaconId] - x, yPositions[beaconId] - y);
+    }
+
+    @Test
+    public void findsBeaconsWithinRadius() {
+        int[] result = new int[xPositions.length];
+
+        for (int query = 0; query < 500; query++) {
+            int floorId = random.nextInt(FLOOR_COUNT);
+            double x = (random.nextDouble() * 600) - 50;
+            double y = (random.nextDouble() * 300) - 50;
+            double radius = random.nextDouble() * 30;
+
+            int count = grid.findBeaconIdsWithin(floorId, x, y, radius, result);
+            int[] found = Arrays.copyOf(result, count);
+            Arrays.sort(found);
+
+            int expectedCount = 0;
+            int[] expected = new int[xPositions.length];
+            for (int beaconId = 0; beaconId < xPositions.length; beaconId++) {
+                if (floorIds[beaconId] == floorId && getDistance(beaconId, x, y) <= radius) {
+                    expected[expectedCount++] = beaconId;
+                }
+            }
+
+            assertArrayEquals(Arrays.copyOf(expected, expectedCount), found);
+        }
+    }
+
+    @Test
+    public void stopsWhenResultIsFull() {
+        int[] result = new int[3];
+        assertEquals(3, grid.findBeaconIdsWithin(0, 20, 100, 1000, result));
+    }
+
+    @Test
+    public void findsNothingFarFromTheFloor() {
+        int[] result = new int[3];
+        assertEquals(0, grid.findBeaconIdsWithin(0, 1e12, -1e12, 10, result));
+        assertEquals(3, grid.findBeaconIdsWithin(0, 1e12, -1e12, 1e13, result));
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.example.cossettenavigation.map;
+
+import static com.example.cossettenavigation.TestUtilities.serializedCopy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class BeaconIndexTest {
+
+    @Test
+    public void findsEveryBeacon() {
+        MapSnapshot snapshot = Map.getSnapshot();
+
+        for (Beacon beacon : snapshot.getAllBeacons()) {
+            // A different UUID object, as from a ranging result
+            UUID uuid = UUID.fromString(beacon.getUUID().toString());
+
+            assertEquals(beacon.getId(), snapshot.findBeaconId(uuid, beacon.getMajor(), beacon.getMinor()));
+            assertSame(beacon, snapshot.findBeacon(uuid, beacon.getMajor(), beacon.getMinor()));
+        }
+    }
+
+    @Test
+    public void findsSerializedBeacons() throws Exception {
+        MapSnapshot snapshot = Map.getSnapshot();
+
+        for (Beacon beacon : snapshot.getAllBeacons()) {
+            // As from a Path passed in an Intent extra
+            Beacon copy = serializedCopy(beacon);
+            assertNotSame(beacon, copy);
+            assertFalse(snapshot.contains(copy));
+
+            assertEquals(beacon.getId(), snapshot.findBeaconId(copy));
+            assertSame(beacon, snapshot.findBeacon(copy));
+        }
+    }
+
+    @Test
+    public void doesNotFindOtherBeacons() {
+        MapSnapshot snapshot = Map.getSnapshot();
+        Beacon beacon = snapshot.getBeacon(0);
+
+        assertEquals(-1, snapshot.findBeaconId(UUID.randomUUID(), beacon.getMajor(), beacon.getMinor()));
+        assertEquals(-1, snapshot.findBeaconId(null, beacon.getMajor(), beacon.getMinor()));
+        assertEquals(-1, snapshot.findBeaconId(beacon.getUUID(), beacon.getMajor() + 0x10000, beacon.getMinor()));
+        assertEquals(-1, snapshot.findBeaconId(beacon.getUUID(), beacon.getMajor(), -1));
+        assertNull(snapshot.findBeacon(UUID.randomUUID(), beacon.getMajor(), beacon.getMinor()));
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.example.cossettenavigation.map;
+
+import com.example.cossettenavigation.pathfinding.Pathfinder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * <p>
+ *     Offline builder for the files derived from the map database (<code>assets/databases/map.db</code>),
+ *     so the database stays the only copy of the map:
+ *     {@link Map#FALLBACK_MAP_RESOURCE} and {@link Pathfinder#CONTRACTION_HIERARCHY_ASSET}.
+ *     Run it (from the app module directory) whenever the database changes, after increasing its version;
+ *     the app builds the hierarchy itself on startup if the asset doesn't match the map.
+ * </p>
+ */
+public class MapAssetWriter {
+
+    private static final String DATABASE_PATH = "src/main/assets/databases/map.db";
+    private static final String FALLBACK_MAP_PATH =
+            "src/main/resources/com/example/cossettenavigation/map/" + Map.FALLBACK_MAP_RESOURCE;
+    private static final String CONTRACTION_HIERARCHY_PATH = "src/main/assets/" + Pathfinder.CONTRACTION_HIERARCHY_ASSET;
+
+    public static void main(String[] args) throws IOException, SQLException {
+        MapSnapshot snapshot;
+
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + DATABASE_PATH);
+        try {
+            snapshot = MapLoader.readSnapshot(new JdbcTables(connection));
+        } finally {
+            connection.close();
+        }
+
+        OutputStream outputStream = new FileOutputStream(FALLBACK_MAP_PATH);
+        try {
+            MapFile.write(snapshot, DatabaseHelper.DB_VERSION, Map.FALLBACK_MAP_APP_VERSION, outputStream);
+        } finally {
+            outputStream.close();
+        }
+        System.out.println("Wrote " + FALLBACK_MAP_PATH);
+
+        Map.setSnapshot(snapshot);
+        outputStream = new FileOutputStream(CONTRACTION_HIERARCHY_PATH);
+        try {
+            Pathfinder.writeContractionHierarchy(outputStream);
+        } finally {
+            outputStream.close();
+        }
+        System.out.println("Wrote " + CONTRACTION_HIERARCHY_PATH);
+    }
+
+
+
+
+    private static class JdbcTables implements MapLoader.Tables {
+
+        private final Connection connection;
+
+        JdbcTables(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public MapLoader.Rows query(String table, String... columns) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append((i > 0) ? ", " : "").append(columns[i]);
+            }
+            sql.append(" FROM ").append(table).append(" ORDER BY _ID");
+
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet resultSet = statement.executeQuery(sql.toString());
+                    ArrayList<Object[]> rows = new ArrayList<>();
+                    while (resultSet.next()) {
+                        Object[] row = new Object[columns.length];
+                        for (int i = 0; i < columns.length; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                    return new JdbcRows(rows);
+                } finally {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                throw new IllegalArgumentException("Table " + table + " could not be read", e);
+            }
+        }
+    }
+
+    private static class JdbcRows implements MapLoader.Rows {
+
+        private final ArrayList<Object[]> rows;
+        private int position = -1;
+
+        JdbcRows(ArrayList<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return rows.size();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return ++position < rows.size();
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return rows.get(position)[column] == null;
+        }
+
+        @Override
+        public long getLong(int column) {
+            return ((Number) rows.get(position)[column]).longValue();
+        }
+
+        @Override
+        public int getInt(int column) {
+            return ((Number) rows.get(position)[column]).intValue();
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return ((Number) rows.get(position)[column]).doubleValue();
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = rows.get(position)[column];
+            return (value != null) ? value.toString() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
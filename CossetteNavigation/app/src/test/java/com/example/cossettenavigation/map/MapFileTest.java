@@ -0,0 +1,126 @@
+package com.example.cossettenavigation.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class MapFileTest {
+
+    private static byte[] write(MapSnapshot snapshot, int sourceVersion) throws Exception {
+        return write(snapshot, sourceVersion, 1);
+    }
+
+    private static byte[] write(MapSnapshot snapshot, int sourceVersion, int appVersion) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MapFile.write(snapshot, sourceVersion, appVersion, output);
+        return output.toByteArray();
+    }
+
+    @Test
+    public void readsWhatItWrites() throws Exception {
+        MapSnapshot snapshot = Map.getSnapshot();
+        MapSnapshot copy = MapFile.read(ByteBuffer.wrap(write(snapshot, 1)), 1, 1);
+        assertNotNull(copy);
+
+        assertEquals(snapshot.getFloors().size(), copy.getFloors().size());
+        for (int i = 0; i < snapshot.getFloors().size(); i++) {
+            assertEquals(snapshot.getFloor(i).getName(), copy.getFloor(i).getName());
+            assertEquals(snapshot.getFloor(i).getZPosition(), copy.getFloor(i).getZPosition(), 0);
+        }
+
+        assertEquals(snapshot.getAnchorBeaconCount(), copy.getAnchorBeaconCount());
+        assertEquals(snapshot.getBeaconCount(), copy.getBeaconCount());
+        for (int i = 0; i < snapshot.getBeaconCount(); i++) {
+            Beacon beacon = snapshot.getBeacon(i);
+            Beacon beaconCopy = copy.getBeacon(i);
+
+            assertEquals(beacon.getName(), beaconCopy.getName());
+            assertEquals(beacon.getDescription(), beaconCopy.getDescription());
+            assertEquals(beacon.getFloor().getId(), beaconCopy.getFloor().getId());
+            assertEquals(beacon.getXPosition(), beaconCopy.getXPosition(), 0);
+            assertEquals(beacon.getYPosition(), beaconCopy.getYPosition(), 0);
+            assertEquals(beacon.getUUID(), beaconCopy.getUUID());
+            assertEquals(beacon.getMajor(), beaconCopy.getMajor());
+            assertEquals(beacon.getMinor(), beaconCopy.getMinor());
+            assertEquals(beacon.getZones().size(), beaconCopy.getZones().size());
+        }
+
+        assertEquals(snapshot.getZones().size(), copy.getZones().size());
+        for (int i = 0; i < snapshot.getZones().size(); i++) {
+            Zone zone = snapshot.getZone(i);
+            Zone zoneCopy = copy.getZone(i);
+
+            assertEquals(zone.getName(), zoneCopy.getName());
+            assertEquals(zone.getZoneType(), zoneCopy.getZoneType());
+            assertEquals(zone.getIsDestination(), zoneCopy.getIsDestination());
+            assertEquals(zone.getAnchorBeacons().size(), zoneCopy.getAnchorBeacons().size());
+            assertEquals(zone.getSupportBeacons().size(), zoneCopy.getSupportBeacons().size());
+        }
+
+        assertEquals(snapshot.getConnectionCount(), copy.getConnectionCount());
+        for (int connection = 0; connection < snapshot.getConnectionCount(); connection++) {
+            assertEquals(snapshot.getConnectionTarget(connection), copy.getConnectionTarget(connection));
+            assertEquals(snapshot.getConnectionZoneId(connection), copy.getConnectionZoneId(connection));
+            assertEquals(snapshot.getConnectionTravelTime(connection), copy.getConnectionTravelTime(connection), 0);
+        }
+    }
+
+    @Test
+    public void keepsPathLossModels() throws Exception {
+        // A copy, so the shared map isn't changed
+        MapSnapshot snapshot = MapFile.read(ByteBuffer.wrap(write(Map.getSnapshot(), 1)), 1, 1);
+        snapshot.getBeacon(0).setPathLossModel(new PathLossModel(-65, 2.7));
+
+        MapSnapshot copy = MapFile.read(ByteBuffer.wrap(write(snapshot, 1)), 1, 1);
+        assertNotNull(copy);
+
+        assertEquals(-65, copy.getBeacon(0).getPathLossModel().getMeasuredPower(), 0);
+        assertEquals(2.7, copy.getBeacon(0).getPathLossModel().getPathLossExponent(), 0);
+        for (int i = 1; i < copy.getBeaconCount(); i++) {
+            assertNull(copy.getBeacon(i).getPathLossModel());
+        }
+    }
+
+    @Test
+    public void rejectsOtherVersionsAndInvalidFiles() throws Exception {
+        byte[] bytes = write(Map.getSnapshot(), 1);
+
+        // Saved from a different version of the map
+        assertNull(MapFile.read(ByteBuffer.wrap(bytes), 2, 1));
+
+        // Saved by a different version of the app
+        assertNull(MapFile.read(ByteBuffer.wrap(write(Map.getSnapshot(), 1, 2)), 1, 1));
+
+        // Truncated
+        assertNull(MapFile.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)), 1, 1));
+
+        // Not a map file
+        byte[] otherBytes = bytes.clone();
+        otherBytes[0]++;
+        assertNull(MapFile.read(ByteBuffer.wrap(otherBytes), 1, 1));
+    }
+
+    @Test
+    public void readsStreams() throws Exception {
+        MapSnapshot copy = MapFile.read(new ByteArrayInputStream(write(Map.getSnapshot(), 1)), 1, 1);
+        assertNotNull(copy);
+        assertEquals(Map.getSnapshot().getBeaconCount(), copy.getBeaconCount());
+    }
+
+    @Test
+    public void fallbackMapMatchesDatabaseVersion() throws Exception {
+        // Fails after the database version is increased, until MapAssetWriter is run again
+        assertNotNull(MapFile.read(
+                Map.class.getResourceAsStream(Map.FALLBACK_MAP_RESOURCE),
+                DatabaseHelper.DB_VERSION,
+                Map.FALLBACK_MAP_APP_VERSION));
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.example.cossettenavigation.map;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PathLossModelTest {
+
+    @Test
+    public void convertsSignalStrengthToDistance() {
+        PathLossModel model = new PathLossModel(-60, 2.5);
+
+        assertEquals(1, model.getDistance(-60), 1e-9);
+        assertEquals(10, model.getDistance(-85), 1e-9);
+        assertEquals(0.1, model.getDistance(-35), 1e-9);
+    }
+
+    @Test
+    public void fitsRecordedMeasurements() {
+        Random random = new Random(18);
+        PathLossModel actualModel = new PathLossModel(-72, 3.1);
+
+        double[] distances = new double[500];
+        double[] rssis = new double[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = 0.5 + random.nextDouble() * 10;
+            rssis[i] = actualModel.getMeasuredPower()
+                    - 10 * actualModel.getPathLossExponent() * Math.log10(distances[i])
+                    + random.nextGaussian() * 2;
+        }
+
+        PathLossModel model = PathLossModel.fit(distances, rssis);
+        assertEquals(actualModel.getMeasuredPower(), model.getMeasuredPower(), 0.5);
+        assertEquals(actualModel.getPathLossExponent(), model.getPathLossExponent(), 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMeasurementsAtOneDistance() {
+        PathLossModel.fit(new double[] { 2, 2, 2 }, new double[] { -70, -72, -71 });
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.example.cossettenavigation.pathfinding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.cossettenavigation.map.AnchorBeacon;
+import com.example.cossettenavigation.map.Floor;
+import com.example.cossettenavigation.map.MapSnapshot;
+import com.example.cossettenavigation.map.SupportBeacon;
+import com.example.cossettenavigation.map.Zone;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ContractionHierarchyTest {
+
+    private static final String UUID = "B9407F30-F5F8-466E-AFF9-25556B57FE6D";
+
+    /**
+     * Random hallways and rooms on each floor, connected by a few stairs and elevators.
+     */
+    static Graph createGraph(long seed, int floorCount, int beaconsPerFloor) {
+        Random random = new Random(seed);
+        ArrayList<AnchorBeacon> allBeacons = new ArrayList<>();
+        ArrayList<ArrayList<AnchorBeacon>> floorBeacons = new ArrayList<>();
+        ArrayList<Floor> floors = new ArrayList<>();
+        ArrayList<Zone> zones = new ArrayList<>();
+
+        for (int f = 0; f < floorCount; f++) {
+            Floor floor = new Floor("Floor " + f, 3 * f);
+            floors.add(floor);
+            ArrayList<AnchorBeacon> beacons = new ArrayList<>();
+
+            for (int i = 0; i < beaconsPerFloor; i++) {
+                int id = allBeacons.size();
+                AnchorBeacon beacon = new AnchorBeacon("Beacon " + id, "", floor,
+                        100 * random.nextDouble(), 100 * random.nextDouble(), UUID, 1, id);
+                beacons.add(beacon);
+                allBeacons.add(beacon);
+            }
+
+            for (int i = 0; i < beaconsPerFloor; i++) {
+                Zone zone = new Zone("Zone " + f + " " + i,
+                        random.nextBoolean() ? Zone.ZoneType.HALLWAY : Zone.ZoneType.ROOM, true);
+                zone.addAnchorBeacons(beacons.get(i), beacons.get(random.nextInt(beaconsPerFloor)));
+                zones.add(zone);
+                if (random.nextBoolean()) {
+                    zone.addAnchorBeacons(beacons.get(random.nextInt(beaconsPerFloor)));
+                }
+            }
+
+            floorBeacons.add(beacons);
+        }
+
+        for (int f = 1; f < floorCount; f++) {
+            for (int i = 0; i < 3; i++) {
+                Zone zone = new Zone("Connection " + f + " " + i,
+                        (i == 0) ? Zone.ZoneType.ELEVATOR : Zone.ZoneType.STAIRS, false);
+                zone.addAnchorBeacons(
+                        floorBeacons.get(f - 1).get(random.nextInt(beaconsPerFloor)),
+                        floorBeacons.get(f).get(random.nextInt(beaconsPerFloor)));
+                zones.add(zone);
+            }
+        }
+
+        return new Graph(new MapSnapshot(floors, allBeacons, new ArrayList<SupportBeacon>(), zones));
+    }
+
+    private static void assertSameTravelTimes(Graph graph, ContractionHierarchy hierarchy, long seed) {
+        Dijkstra dijkstra = new Dijkstra(graph);
+        Random random = new Random(seed);
+
+        for (int i = 0; i < 300; i++) {
+            int startNode = random.nextInt(graph.getNodeCount());
+            int endNode = random.nextInt(graph.getNodeCount());
+
+            dijkstra.run(startNode, endNode);
+            assertEquals(dijkstra.shortestTravelTimes[endNode], hierarchy.getTravelTime(startNode, endNode), 1e-9);
+        }
+    }
+
+    @Test
+    public void matchesDijkstra() throws Exception {
+        Graph graph = createGraph(1, 3, 200);
+        assertSameTravelTimes(graph, ContractionHierarchy.build(graph), 2);
+    }
+
+    @Test
+    public void readsWhatItWrites() throws Exception {
+        Graph graph = createGraph(3, 2, 100);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ContractionHierarchy.build(graph).write(output);
+
+        ContractionHierarchy hierarchy = ContractionHierarchy.read(
+                new ByteArrayInputStream(output.toByteArray()), graph);
+        assertSameTravelTimes(graph, hierarchy, 4);
+
+        // A file built for a different map must not be used
+        assertNull(ContractionHierarchy.read(
+                new ByteArrayInputStream(output.toByteArray()), createGraph(5, 2, 100)));
+    }
+
+    @Test
+    public void rejectsInvalidFiles() throws Exception {
+        Graph graph = createGraph(3, 2, 100);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ContractionHierarchy.build(graph).write(output);
+        byte[] bytes = output.toByteArray();
+
+        // Header - magic, version, fingerprint, node count, connection count (at 20), then the offsets (at 24)
+        int edgeCountPosition = 20;
+        int offsetsPosition = 24;
+        int targetsPosition = offsetsPosition + 4 * (graph.getNodeCount() + 1);
+
+        // Negative or huge connection count
+        assertNull(ContractionHierarchy.read(new ByteArrayInputStream(
+                setInt(bytes, edgeCountPosition, -1)), graph));
+        assertNull(ContractionHierarchy.read(new ByteArrayInputStream(
+                setInt(bytes, edgeCountPosition, Integer.MAX_VALUE)), graph));
+
+        // Truncated
+        assertNull(ContractionHierarchy.read(new ByteArrayInputStream(
+                Arrays.copyOf(bytes, bytes.length - 1)), graph));
+
+        // Offsets out of order
+        assertNull(ContractionHierarchy.read(new ByteArrayInputStream(
+                setInt(bytes, offsetsPosition + 4, Integer.MAX_VALUE)), graph));
+
+        // Connection to a node that doesn't exist
+        assertNull(ContractionHierarchy.read(new ByteArrayInputStream(
+                setInt(bytes, targetsPosition, graph.getNodeCount())), graph));
+    }
+
+    /**
+     * @return A copy of the bytes with a (big-endian) int replaced.
+     */
+    private static byte[] setInt(byte[] bytes, int position, int value) {
+        byte[] copy = bytes.clone();
+        ByteBuffer.wrap(copy).putInt(position, value);
+        return copy;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.example.cossettenavigation.pathfinding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IndexedMinHeapTest {
+
+    @Test
+    public void pollsInKeyOrder() throws Exception {
+        IndexedMinHeap heap = new IndexedMinHeap(5);
+        heap.insertOrDecrease(3, 3.0);
+        heap.insertOrDecrease(0, 5.0);
+        heap.insertOrDecrease(4, 1.0);
+        heap.insertOrDecrease(1, 4.0);
+
+        assertEquals(4, heap.size());
+        assertEquals(4, heap.poll());
+        assertEquals(3, heap.poll());
+        assertEquals(1, heap.poll());
+        assertEquals(0, heap.poll());
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void decreaseKeyMovesNodeUp() throws Exception {
+        IndexedMinHeap heap = new IndexedMinHeap(3);
+        heap.insertOrDecrease(0, 1.0);
+        heap.insertOrDecrease(1, 2.0);
+        heap.insertOrDecrease(2, 3.0);
+
+        heap.insertOrDecrease(2, 0.5);
+        // A greater key must not move the node
+        heap.insertOrDecrease(0, 10.0);
+
+        assertEquals(3, heap.size());
+        assertEquals(0.5, heap.peekKey(), 0);
+        assertEquals(2, heap.poll());
+        assertEquals(0, heap.poll());
+        assertEquals(1, heap.poll());
+    }
+
+    @Test
+    public void clearRemovesOnlyRemainingNodes() throws Exception {
+        IndexedMinHeap heap = new IndexedMinHeap(4);
+        heap.insertOrDecrease(0, 1.0);
+        heap.insertOrDecrease(1, 2.0);
+        heap.poll();
+        heap.clear();
+
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(0));
+        assertFalse(heap.contains(1));
+
+        heap.insertOrDecrease(1, 7.0);
+        assertTrue(heap.contains(1));
+        assertEquals(1, heap.poll());
+    }
+
+    @Test
+    public void randomOperationsMatchSortedOrder() throws Exception {
+        Random random = new Random(42);
+        int capacity = 1000;
+        IndexedMinHeap heap = new IndexedMinHeap(capacity);
+        double[] keys = new double[capacity];
+        Arrays.fill(keys, Double.POSITIVE_INFINITY);
+
+        for (int i = 0; i < 5000; i++) {
+            int node = random.nextInt(capacity);
+            double key = random.nextDouble() * 100;
+            heap.insertOrDecrease(node, key);
+            keys[node] = Math.min(keys[node], key);
+        }
+
+        double[] expected = keys.clone();
+        Arrays.sort(expected);
+
+        int i = 0;
+        while (!heap.isEmpty()) {
+            double key = heap.peekKey();
+            int node = heap.poll();
+            assertEquals(expected[i], key, 0);
+            assertEquals(keys[node], key, 0);
+            i++;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.cossettenavigation.pathfinding;
+
+import static com.example.cossettenavigation.TestUtilities.serializedCopy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.example.cossettenavigation.map.AnchorBeacon;
+import com.example.cossettenavigation.map.Beacon;
+import com.example.cossettenavigation.map.Floor;
+import com.example.cossettenavigation.map.Map;
+import com.example.cossettenavigation.map.MapSnapshot;
+import com.example.cossettenavigation.map.SupportBeacon;
+import com.example.cossettenavigation.map.Zone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+public class RerouterTest {
+
+    private static final String UUID = "B9407F30-F5F8-466E-AFF9-25556B57FE6D";
+
+    @Test
+    public void repairedPathsMatchNewSearch() throws Exception {
+        Graph graph = ContractionHierarchyTest.createGraph(7, 3, 200);
+        Random random = new Random(8);
+
+        LinkedHashSet<Zone> zoneSet = new LinkedHashSet<>();
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            zoneSet.addAll(graph.getBeacon(node).getZones());
+        }
+        ArrayList<Zone> zones = new ArrayList<>(zoneSet);
+
+        NodeSet destinationNodes = new NodeSet(2);
+        destinationNodes.add(0, 0);
+        destinationNodes.add(1, 2.5);
+
+        Rerouter rerouter = new Rerouter(graph, destinationNodes, null, null);
+        Dijkstra dijkstra = new Dijkstra(graph);
+
+        for (int i = 0; i < 100; i++) {
+            // Close, slow down or reopen a random zone
+            Zone zone = zones.get(random.nextInt(zones.size()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    graph.setZoneTravelTimeFactor(zone, Pathfinder.INFINITY);
+                    break;
+                case 1:
+                    graph.setZoneTravelTimeFactor(zone, 1 + 2 * random.nextDouble());
+                    break;
+                default:
+                    graph.setZoneTravelTimeFactor(zone, 1);
+                    break;
+            }
+
+            dijkstra.run(destinationNodes, null);
+
+            for (int j = 0; j < 10; j++) {
+                int startNode = random.nextInt(graph.getNodeCount());
+                Path path = rerouter.getPath(graph.getBeacon(startNode));
+
+                if (dijkstra.shortestTravelTimes[startNode] == Pathfinder.INFINITY) {
+                    assertNull(path);
+                } else {
+                    assertEquals(dijkstra.shortestTravelTimes[startNode], path.getTravelTime(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void closesZeroLengthEdges() throws Exception {
+        // A door between two beacons at the same position (so crossing it takes no time), then a hallway
+        Floor floor = new Floor("Floor", 0);
+        AnchorBeacon doorOutside = new AnchorBeacon("Door outside", "", floor, 0, 0, UUID, 1, 0);
+        AnchorBeacon doorInside = new AnchorBeacon("Door inside", "", floor, 0, 0, UUID, 1, 1);
+        AnchorBeacon hallwayEnd = new AnchorBeacon("Hallway end", "", floor, 10, 0, UUID, 1, 2);
+
+        Zone door = new Zone("Door", Zone.ZoneType.ENTRANCE, false);
+        door.addAnchorBeacons(doorOutside, doorInside);
+        Zone hallway = new Zone("Hallway", Zone.ZoneType.HALLWAY, true);
+        hallway.addAnchorBeacons(doorInside, hallwayEnd);
+
+        Graph graph = new Graph(new MapSnapshot(
+                new ArrayList<>(Arrays.asList(floor)),
+                new ArrayList<>(Arrays.asList(doorOutside, doorInside, hallwayEnd)),
+                new ArrayList<SupportBeacon>(),
+                new ArrayList<>(Arrays.asList(door, hallway))));
+
+        NodeSet destinationNodes = new NodeSet(1);
+        destinationNodes.add(graph.getNodeId(hallwayEnd), 0);
+        Rerouter rerouter = new Rerouter(graph, destinationNodes, null, null);
+        assertEquals(10, rerouter.getPath(doorOutside).getTravelTime(), 1e-9);
+
+        graph.setZoneTravelTimeFactor(door, Pathfinder.INFINITY);
+        for (int edge : graph.getZoneEdges(door)) {
+            assertEquals(Pathfinder.INFINITY, graph.edgeTravelTimes[edge], 0);
+        }
+        assertNull(rerouter.getPath(doorOutside));
+        assertEquals(10, rerouter.getPath(doorInside).getTravelTime(), 1e-9);
+    }
+
+    @Test
+    public void repairsLegToSupportBeacon() throws Exception {
+        MapSnapshot snapshot = Map.getSnapshot();
+        SupportBeacon destinationBeacon = (SupportBeacon) snapshot.getBeacon(snapshot.getAnchorBeaconCount());
+        Zone zone = destinationBeacon.getZone();
+
+        // Start away from the support beacon's zone, so the path has to go through it
+        Beacon startBeacon = null;
+        for (int beaconId = 0; beaconId < snapshot.getAnchorBeaconCount(); beaconId++) {
+            if (!zone.getAnchorBeacons().contains(snapshot.getBeacon(beaconId))) {
+                startBeacon = snapshot.getBeacon(beaconId);
+                break;
+            }
+        }
+        assertNotNull(startBeacon);
+
+        Rerouter rerouter = Pathfinder.createRerouter(Pathfinder.getShortestPath(startBeacon, destinationBeacon));
+        assertNotNull(rerouter);
+
+        try {
+            Pathfinder.setZoneTravelTimeFactor(zone, 2);
+            Path path = Pathfinder.getShortestPath(startBeacon, destinationBeacon);
+            assertEquals(path.getTravelTime(), rerouter.getPath(startBeacon).getTravelTime(), 1e-9);
+
+            Pathfinder.closeZone(zone);
+            assertNull(Pathfinder.getShortestPath(startBeacon, destinationBeacon));
+            assertNull(rerouter.getPath(startBeacon));
+
+            Pathfinder.reopenZone(zone);
+            path = Pathfinder.getShortestPath(startBeacon, destinationBeacon);
+            assertEquals(path.getTravelTime(), rerouter.getPath(startBeacon).getTravelTime(), 1e-9);
+
+        } finally {
+            Pathfinder.resetZoneTravelTimes();
+        }
+    }
+
+    @Test
+    public void reroutesSerializedPaths() throws Exception {
+        MapSnapshot snapshot = Map.getSnapshot();
+        Beacon startBeacon = snapshot.getBeacon(0);
+        Beacon otherBeacon = snapshot.getBeacon(snapshot.getAnchorBeaconCount() - 1);
+
+        for (Zone destination : snapshot.getZones()) {
+            Path path = Pathfinder.getShortestPath(startBeacon, destination);
+            if (path == null) {
+                continue;
+            }
+
+            // As passed to MainActivity in an Intent extra
+            Rerouter rerouter = Pathfinder.createRerouter(serializedCopy(path));
+            assertNotNull(rerouter);
+
+            Path newPath = rerouter.getPath(startBeacon);
+            assertEquals(path.getTravelTime(), newPath.getTravelTime(), 1e-9);
+            assertSame(destination, newPath.getDestination());
+
+            Path otherPath = Pathfinder.getShortestPath(otherBeacon, destination);
+            if (otherPath != null) {
+                assertEquals(otherPath.getTravelTime(), rerouter.getPath(otherBeacon).getTravelTime(), 1e-9);
+            }
+        }
+
+        // A path to a beacon
+        Path path = Pathfinder.getShortestPath(otherBeacon, startBeacon);
+        Rerouter rerouter = Pathfinder.createRerouter(serializedCopy(path));
+        assertNotNull(rerouter);
+        assertEquals(0, rerouter.getPath(startBeacon).getSteps().size());
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.example.cossettenavigation.pathfinding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Pair;
+
+import com.example.cossettenavigation.map.Beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class ShortestPathAlgorithmTest {
+
+    /**
+     * One to three random nodes, each with an extra travel time that is often 0.
+     */
+    private static NodeSet createNodeSet(Graph graph, Random random) {
+        int size = 1 + random.nextInt(3);
+        NodeSet nodeSet = new NodeSet(size);
+        for (int i = 0; i < size; i++) {
+            nodeSet.add(random.nextInt(graph.getNodeCount()), random.nextBoolean() ? 0 : 20 * random.nextDouble());
+        }
+        return nodeSet;
+    }
+
+    private static int findNode(Graph graph, Beacon beacon) {
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            if (graph.getBeacon(node) == beacon) {
+                return node;
+            }
+        }
+        return -1;
+    }
+
+    private static double getExtraTravelTime(NodeSet nodeSet, int node) {
+        double travelTime = Pathfinder.INFINITY;
+        for (int i = 0; i < nodeSet.size(); i++) {
+            if (nodeSet.nodes[i] == node) {
+                travelTime = Math.min(travelTime, nodeSet.travelTimes[i]);
+            }
+        }
+        return travelTime;
+    }
+
+    /**
+     * Checks that the result is the expected one, and that its path is connected and takes that long.
+     */
+    private static void assertSameResult(Graph graph,
+                                         NodeSet startNodes,
+                                         NodeSet endNodes,
+                                         Pair<Double, ArrayList<Beacon>> expected,
+                                         Pair<Double, ArrayList<Beacon>> result) {
+        if (expected == null) {
+            assertNull(result);
+            return;
+        }
+        assertNotNull(result);
+        assertEquals(expected.first, result.first, 1e-9);
+
+        ArrayList<Beacon> path = result.second;
+        int startNode = findNode(graph, path.get(0));
+        int endNode = findNode(graph, path.get(path.size() - 1));
+
+        double travelTime = getExtraTravelTime(startNodes, startNode) + getExtraTravelTime(endNodes, endNode);
+        for (int i = 0; i < path.size() - 1; i++) {
+            int node = findNode(graph, path.get(i));
+            int nextNode = findNode(graph, path.get(i + 1));
+
+            // The fastest of the parallel connections (one per shared zone)
+            double edgeTravelTime = Pathfinder.INFINITY;
+            for (int edge = graph.edgeOffsets[node]; edge < graph.edgeOffsets[node + 1]; edge++) {
+                if (graph.edgeTargets[edge] == nextNode) {
+                    edgeTravelTime = Math.min(edgeTravelTime, graph.edgeTravelTimes[edge]);
+                }
+            }
+            assertTrue(edgeTravelTime < Pathfinder.INFINITY);
+            travelTime += edgeTravelTime;
+        }
+
+        assertEquals(result.first, travelTime, 1e-9);
+    }
+
+    private static void assertSameAsDijkstra(long seed, ShortestPathAlgorithm algorithm) {
+        Graph graph = algorithm.graph;
+        Dijkstra dijkstra = new Dijkstra(graph);
+        Random random = new Random(seed);
+
+        for (int i = 0; i < 500; i++) {
+            NodeSet startNodes = createNodeSet(graph, random);
+            NodeSet endNodes = createNodeSet(graph, random);
+
+            assertSameResult(graph, startNodes, endNodes,
+                    dijkstra.getShortestPath(startNodes, endNodes),
+                    algorithm.getShortestPath(startNodes, endNodes));
+        }
+    }
+
+    @Test
+    public void aStarMatchesDijkstra() throws Exception {
+        assertSameAsDijkstra(1, new AStar(ContractionHierarchyTest.createGraph(11, 3, 150)));
+    }
+
+    @Test
+    public void spfaMatchesDijkstra() throws Exception {
+        assertSameAsDijkstra(2, new SPFA(ContractionHierarchyTest.createGraph(12, 3, 150)));
+    }
+
+    @Test
+    public void allPairsTableMatchesDijkstra() throws Exception {
+        Graph graph = ContractionHierarchyTest.createGraph(13, 3, 150);
+        AllPairsTable table = AllPairsTable.build(graph);
+        assertNotNull(table);
+
+        Dijkstra dijkstra = new Dijkstra(graph);
+        Random random = new Random(3);
+
+        for (int i = 0; i < 500; i++) {
+            NodeSet startNodes = createNodeSet(graph, random);
+            NodeSet endNodes = createNodeSet(graph, random);
+
+            assertSameResult(graph, startNodes, endNodes,
+                    dijkstra.getShortestPath(startNodes, endNodes),
+                    table.getShortestPath(startNodes, endNodes));
+        }
+    }
+
+    @Test
+    public void allPairsTableRefusesLargeGraphs() throws Exception {
+        Graph graph = ContractionHierarchyTest.createGraph(14, 1, AllPairsTable.MAX_NODE_COUNT + 1);
+        assertNull(AllPairsTable.build(graph));
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BatchTrilaterationSolverTest {
+
+	@Test
+	public void matchesSolvingOneByOne() throws Exception {
+		Random random = new Random(17);
+		int numberOfProblems = 2000;
+		int dimension = 2;
+
+		int[] offsets = new int[numberOfProblems + 1];
+		for (int p = 0; p < numberOfProblems; p++) {
+			offsets[p + 1] = offsets[p] + 2 + random.nextInt(6);
+		}
+
+		double[] positions = new double[offsets[numberOfProblems] * dimension];
+		double[] distances = new double[offsets[numberOfProblems]];
+		for (int p = 0; p < numberOfProblems; p++) {
+			double x = random.nextDouble() * 20;
+			double y = random.nextDouble() * 20;
+			for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+				positions[i * dimension] = random.nextDouble() * 20;
+				positions[i * dimension + 1] = random.nextDouble() * 20;
+				distances[i] = Math.max(0, Math.hypot(x - positions[i * dimension], y - positions[i * dimension + 1]) + random.nextGaussian());
+			}
+		}
+
+		double[] result = new BatchTrilaterationSolver(dimension, offsets, positions, distances).solve(4);
+
+		for (int p = 0; p < numberOfProblems; p++) {
+			int numberOfPositions = offsets[p + 1] - offsets[p];
+			double[][] problemPositions = new double[numberOfPositions][];
+			for (int i = 0; i < numberOfPositions; i++) {
+				int start = (offsets[p] + i) * dimension;
+				problemPositions[i] = Arrays.copyOfRange(positions, start, start + dimension);
+			}
+			double[] problemDistances = Arrays.copyOfRange(distances, offsets[p], offsets[p + 1]);
+
+			double[] point = new GaussNewtonSolver(new TrilaterationFunction(problemPositions, problemDistances)).solve();
+			for (int j = 0; j < dimension; j++) {
+				assertEquals(point[j], result[p * dimension + j], 0);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMismatchedColumns() throws Exception {
+		new BatchTrilaterationSolver(2, new int[] { 0, 3 }, new double[6], new double[2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsProblemWithOnePosition() throws Exception {
+		new BatchTrilaterationSolver(2, new int[] { 0, 3, 4 }, new double[8], new double[4]);
+	}
+}
@@ -0,0 +1,133 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GaussNewtonSolverTest {
+
+	private static final double[][][] POSITIONS = new double[][][] {
+			{ { 1.0, 1.0 }, { 3.0, 1.0 }, { 2.0, 2.0 } },
+			{ { 1.0, 1.0 }, { 1.0, 3.0 }, { 8.0, 8.0 }, { 2.0, 2.0 } },
+			{ { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 } },
+			{ { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.42, -21.2 } },
+			{ { 1.0, 1.0 }, { 3.0, 1.0 }, { 2.0, 2.0 } },
+			{ { 1.0, 1.0 }, { 3.0, 1.0 }, { 2.0, 2.0 } },
+			{ { 1.0, 1.0, 1.0 }, { 3.0, 1.0, 1.0 }, { 2.0, 2.0, 1.0 } },
+			{ { 0.0, 0.0, 0.0 }, { 8.84, 4.57, 12.59 }, { 0.0, -8.84, 8.84 }, { 10.72, -8.96, 8.84 } } };
+
+	private static final double[][] DISTANCES = new double[][] {
+			{ 1.0, 1.0, 1.0 },
+			{ 5.0, 5.0, 6.36, 3.9 },
+			{ 8.06, 13.97, 23.32 },
+			{ 8.06, 13.97, 23.32, 15.31 },
+			{ 0.5, 0.5, 0.5 },
+			{ 2.0, 2.0, 2.0 },
+			{ 1.0, 1.0, 1.0 },
+			{ 8.84, 8.84, 8.84, 8.84 } };
+
+	private static final double[][] EXPECTED_POSITIONS = new double[][] {
+			{ 2.0, 1.0 },
+			{ 5.9, 2.0 },
+			{ -0.6, -11.8 },
+			{ -0.6, -11.8 },
+			{ 2.0, 1.0 },
+			{ 2.0, 1.0 },
+			{ 2.0, 1.0, 1.0 },
+			{ 5.2, -1.2, 7.7 } };
+
+	private static final double[] DELTAS = new double[] { 0.0001, 0.01, 0.01, 1.0, 0.25, 2.0, 0.0001, 1.0 };
+
+	/**
+	 * Weighted sum of squares minimized by the solvers
+	 */
+	private static double cost(TrilaterationFunction function, double[] point) {
+		double cost = 0;
+		for (int i = 0; i < function.getPositions().length; i++) {
+			double residual = -function.getDistances()[i] * function.getDistances()[i];
+			for (int j = 0; j < point.length; j++) {
+				double d = point[j] - function.getPositions()[i][j];
+				residual += d * d;
+			}
+			cost += function.getDistances()[i] * function.getDistances()[i] * residual * residual;
+		}
+		return cost;
+	}
+
+	@Test
+	public void solvesKnownProblems() throws Exception {
+		for (int p = 0; p < POSITIONS.length; p++) {
+			TrilaterationFunction function = new TrilaterationFunction(POSITIONS[p], DISTANCES[p].clone());
+			double[] point = new GaussNewtonSolver(function).solve();
+
+			for (int j = 0; j < point.length; j++) {
+				assertEquals(EXPECTED_POSITIONS[p][j], point[j], DELTAS[p]);
+			}
+		}
+	}
+
+	@Test
+	public void matchesLevenbergMarquardt() throws Exception {
+		Random random = new Random(15);
+		int worseCount = 0;
+
+		for (int p = 0; p < 1000; p++) {
+			int numberOfPositions = 3 + random.nextInt(5);
+			double[][] positions = new double[numberOfPositions][2];
+			double[] distances = new double[numberOfPositions];
+
+			double x = random.nextDouble() * 20;
+			double y = random.nextDouble() * 20;
+			for (int i = 0; i < numberOfPositions; i++) {
+				positions[i][0] = random.nextDouble() * 20;
+				positions[i][1] = random.nextDouble() * 20;
+				distances[i] = Math.max(0, Math.hypot(x - positions[i][0], y - positions[i][1]) + random.nextGaussian());
+			}
+
+			TrilaterationFunction function = new TrilaterationFunction(positions, distances);
+			double[] point = new GaussNewtonSolver(function).solve();
+			double[] lmPoint = new NonLinearLeastSquaresSolver(function, new LevenbergMarquardtOptimizer()).solve().getPoint().toArray();
+
+			double lmCost = cost(function, lmPoint);
+			if (cost(function, point) > lmCost * (1 + 1E-6) + 1E-9) {
+				worseCount++;
+			}
+		}
+
+		// both find a local minimum, which is rarely a different one
+		assertTrue(worseCount <= 10);
+	}
+
+	@Test
+	public void warmStartConvergesQuickly() throws Exception {
+		double[][] positions = new double[][] { { 0.0, 0.0 }, { 10.0, 0.0 }, { 0.0, 10.0 }, { 10.0, 10.0 } };
+		double[] distances = new double[] { 5.0, 7.0, 6.0, 7.5 };
+
+		GaussNewtonSolver solver = new GaussNewtonSolver(new TrilaterationFunction(positions, distances));
+		double[] point = solver.solve();
+		assertFalse(solver.isFallbackUsed());
+
+		double[] warmPoint = solver.solve(point);
+		assertFalse(solver.isFallbackUsed());
+		assertTrue(solver.getIterations() <= 2);
+		assertEquals(point[0], warmPoint[0], 1E-6);
+		assertEquals(point[1], warmPoint[1], 1E-6);
+	}
+
+	@Test
+	public void fallsBackWhenDegenerate() throws Exception {
+		double[][] positions = new double[][] { { 1.0, 1.0 }, { 1.0, 1.0 }, { 1.0, 1.0 } };
+		double[] distances = new double[] { 1.0, 1.0, 1.0 };
+
+		GaussNewtonSolver solver = new GaussNewtonSolver(new TrilaterationFunction(positions, distances));
+		double[] point = solver.solve();
+		assertTrue(solver.isFallbackUsed());
+		assertEquals(1.0, point[0], 0.5);
+		assertEquals(1.0, point[1], 0.5);
+	}
+}
@@ -0,0 +1,51 @@
+package com.lemmingapex.trilateration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+public class TrilaterationFunctionTest {
+
+	@Test
+	public void valueIntoArraysMatchesValue() throws Exception {
+		double[][] positions = new double[][] { { 5.0, -6.0 }, { 13.0, -15.0 }, { 21.0, -3.0 }, { 12.42, -21.2 } };
+		double[] distances = new double[] { 8.06, 13.97, 23.32, 15.31 };
+		TrilaterationFunction function = new TrilaterationFunction(positions, distances);
+
+		double[] point = new double[] { -0.6, -11.8 };
+		Pair<RealVector, RealMatrix> value = function.value(new ArrayRealVector(point));
+
+		double[] residuals = new double[positions.length];
+		double[][] jacobian = new double[positions.length][point.length];
+		function.value(point, residuals, jacobian);
+
+		for (int i = 0; i < positions.length; i++) {
+			assertEquals(value.getFirst().getEntry(i), residuals[i], 1E-12);
+			for (int j = 0; j < point.length; j++) {
+				assertEquals(value.getSecond().getEntry(i, j), jacobian[i][j], 1E-12);
+			}
+		}
+	}
+
+	@Test
+	public void solvesIntoResult() throws Exception {
+		double[][] positions = new double[][] { { 1.0, 1.0 }, { 1.0, 3.0 }, { 8.0, 8.0 }, { 2.0, 2.0 } };
+		double[] distances = new double[] { 5.0, 5.0, 6.36, 3.9 };
+		GaussNewtonSolver solver = new GaussNewtonSolver(new TrilaterationFunction(positions, distances));
+
+		double[] result = new double[2];
+		assertSame(result, solver.solve(null, result));
+		assertEquals(5.9, result[0], 0.01);
+		assertEquals(2.0, result[1], 0.01);
+
+		// warm start from the previous fix, into the same array
+		assertSame(result, solver.solve(result, result));
+		assertEquals(5.9, result[0], 0.01);
+		assertEquals(2.0, result[1], 0.01);
+	}
+}